@@ -0,0 +1,168 @@
+package seam_carving;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Carves images in the background, for interactive use - the carving returns a CompletableFuture at once,
+ * reports its progress after every seam, and can show the image as it is being carved.
+ *
+ * A carving stops between two seams when its future is cancelled or its deadline has passed, so a request nobody waits for
+ * anymore stops costing CPU within a seam. With setSupersede(true) every carve() cancels the previous carving of the same
+ * carver, eg. while the user is still dragging a resize handle only the latest size keeps being carved.
+ * The listeners are called on the carving thread.
+ * eg: new AsyncCarver(options).setSupersede(true).setProgressListener((done, total) -> ...).carve(image, 640, 480)
+ */
+public class AsyncCarver {
+
+	/**
+	 * Receives the progress of a carving.
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param seamsDone The seams removed or inserted so far.
+		 * @param seamsTotal The seams the carving removes and inserts in all.
+		 */
+		void progress(int seamsDone, int seamsTotal);
+	}
+
+	//props
+	private final CarvingOptions options;
+	private Executor executor; // Runs the carvings, or null for CompletableFuture's default executor.
+	private Duration timeout; // The time a carving may take from carve() on, or null.
+	private ProgressListener progressListener;
+	private Consumer<Raster> previewListener;
+	private int previewInterval; // The seams between previews.
+	private boolean supersede;
+	private final AtomicReference<CompletableFuture<Raster>> latest = new AtomicReference<CompletableFuture<Raster>>();
+
+	//const
+	public AsyncCarver(CarvingOptions options) {
+		this.options = options;
+	}
+
+	//funcs
+	public AsyncCarver setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Sets the time a carving may take, counted from carve() on - a carving past it fails with a TimeoutException. null for none.
+	 * @param timeout
+	 * @return
+	 */
+	public AsyncCarver setTimeout(Duration timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+	public AsyncCarver setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+		return this;
+	}
+
+	/**
+	 * Sets a listener for intermediate images - every interval seams it receives a copy of the image as carved so far.
+	 * @param interval
+	 * @param previewListener
+	 * @return
+	 */
+	public AsyncCarver setPreviewListener(int interval, Consumer<Raster> previewListener) {
+		if(interval < 1) {
+			throw new IllegalArgumentException("Preview interval must be at least 1, got "+interval+".");
+		}
+		this.previewInterval = interval;
+		this.previewListener = previewListener;
+		return this;
+	}
+
+	/**
+	 * Sets whether every carving cancels the previous one, if it is still running.
+	 * @param supersede
+	 * @return
+	 */
+	public AsyncCarver setSupersede(boolean supersede) {
+		this.supersede = supersede;
+		return this;
+	}
+
+	public CompletableFuture<Raster> carve(Raster image, int newWidth, int newHeight) {
+		return carve(image, newWidth, newHeight, null);
+	}
+
+	/**
+	 * Starts changing the size of an image, as ImageOps.changeSizeGeneralSeams does.
+	 * @param image Not changed, it must not be changed until the carving is done.
+	 * @param newWidth
+	 * @param newHeight
+	 * @param mask The image's mask, carved along with the image. Or null.
+	 * @return The carved image - or a CancellationException when the future is cancelled, and a TimeoutException
+	 * when the carving runs past its timeout.
+	 */
+	public CompletableFuture<Raster> carve(Raster image, int newWidth, int newHeight, CarvingMask mask) {
+		CompletableFuture<Raster> future = new CompletableFuture<Raster>();
+		int seamsTotal = Math.abs(image.getWidth()-newWidth) + Math.abs(image.getHeight()-newHeight);
+		Long deadline = this.timeout == null ? null : System.nanoTime()+this.timeout.toNanos(); // In System.nanoTime(), or null.
+		ProgressListener progressListener = this.progressListener;
+		Consumer<Raster> previewListener = this.previewListener;
+		int previewInterval = this.previewInterval;
+
+		Runnable task = () -> {
+			int[] seamsDone = {0};
+			try {
+				checkpoint(future, deadline);
+				Raster result = ImageOps.changeSizeGeneralSeams(image, newWidth, newHeight, this.options, mask, (current, seams) -> {
+					int before = seamsDone[0];
+					seamsDone[0] += seams;
+					if(progressListener != null) {
+						progressListener.progress(seamsDone[0], seamsTotal);
+					}
+					if(previewListener != null && seamsDone[0] < seamsTotal && seamsDone[0]/previewInterval > before/previewInterval) {
+						previewListener.accept(current.copy());
+					}
+					checkpoint(future, deadline);
+				});
+				future.complete(result);
+			}
+			catch(CancellationException e) { // The future is already cancelled.
+			}
+			catch(CompletionException e) {
+				future.completeExceptionally(e.getCause());
+			}
+			catch(RuntimeException | Error e) {
+				future.completeExceptionally(e);
+			}
+		};
+		if(this.supersede) {
+			CompletableFuture<Raster> previous = this.latest.getAndSet(future);
+			if(previous != null) {
+				previous.cancel(false);
+			}
+		}
+		if(this.executor != null) {
+			this.executor.execute(task);
+		}
+		else {
+			CompletableFuture.runAsync(task);
+		}
+		return future;
+	}
+
+	/**
+	 * Stops a carving that is no longer wanted - by throwing, since it runs inside ImageOps.
+	 */
+	private static void checkpoint(CompletableFuture<Raster> future, Long deadline) {
+		if(future.isDone()) {
+			throw new CancellationException();
+		}
+		if(deadline != null && System.nanoTime()-deadline > 0) {
+			throw new CompletionException(new TimeoutException("The carving ran past its timeout."));
+		}
+	}
+}
@@ -0,0 +1,414 @@
+package seam_carving;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carves many images in one run, as a pipeline of three stages - decoding, carving and encoding.
+ * Every stage has its own thread pool, and the stages are connected by bounded queues, so a slow stage holds back
+ * the ones before it instead of letting decoded images pile up in memory. While one image is carved, the next ones
+ * are already being decoded and the previous ones encoded.
+ * A file that fails in any stage is reported and skipped, the rest of the batch goes on.
+ *
+ * Usage: BatchCarver <input directory or manifest> <output directory> <width> <height> <energy type> [flags]
+ * Width and height are either pixels or a percentage of the input's size, eg. 80%.
+ * A manifest lists one input per line, optionally followed by its own width and height - "photo.jpg 640 480".
+ * Every output keeps its input's name, so the inputs' names must differ and the output directory cannot hold the inputs.
+ * Flags: --decoders N --carvers N --encoders N --queue N, and the carving flags of SeamCarvingMain.
+ */
+public class BatchCarver {
+
+	private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".bmp", ".gif"};
+	private static final Job END = new Job(null, null, null, null); // Marks the end of a stage's input.
+
+	//props
+	private final CarvingOptions options;
+	private int decoders = 2;
+	private int carvers = 1; // Every carving already uses the ImageOps pool for its large cost maps.
+	private int encoders = 2;
+	private int queueCapacity = 4;
+	private Stage carveStage; // Replaces the default carving, or null.
+
+	//const
+	public BatchCarver(CarvingOptions options) {
+		this.options = options;
+	}
+
+	/**
+	 * One image of the batch, passed from stage to stage.
+	 */
+	static class Job {
+		final File input;
+		final File output;
+		final String width; // Target width, in pixels or a percentage.
+		final String height;
+		Raster image;
+
+		Job(File input, File output, String width, String height) {
+			this.input = input;
+			this.output = output;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * One stage of the pipeline.
+	 */
+	interface Stage {
+		void process(Job job) throws Exception;
+	}
+
+	/**
+	 * The counters of one stage. Throughput is measured over the stage's active span - from its first job's start to its last job's end.
+	 */
+	private static class StageStats {
+		final String name;
+		int done;
+		int failed;
+		long busyNanos;
+		long pixels;
+		long firstStart = Long.MAX_VALUE;
+		long lastEnd;
+
+		StageStats(String name) {
+			this.name = name;
+		}
+
+		synchronized void record(long start, long end, long pixels, boolean success) {
+			if(success) {
+				this.done++;
+				this.pixels += pixels;
+			}
+			else {
+				this.failed++;
+			}
+			this.busyNanos += end-start;
+			this.firstStart = Math.min(this.firstStart, start);
+			this.lastEnd = Math.max(this.lastEnd, end);
+		}
+
+		synchronized void print(PrintStream out) {
+			double span = Math.max(1, this.lastEnd-this.firstStart)/1e9;
+			out.println(String.format(Locale.ROOT, "  %-8s %6d done %4d failed  %8.2f images/s  %8.2f MP/s  %8.1f ms/image busy",
+					this.name, this.done, this.failed, this.done/span, this.pixels/1e6/span,
+					this.done+this.failed == 0 ? 0 : this.busyNanos/1e6/(this.done+this.failed)));
+		}
+	}
+
+	//funcs
+	public BatchCarver setDecoders(int decoders) {
+		this.decoders = requirePositive(decoders, "Decoders");
+		return this;
+	}
+	public BatchCarver setCarvers(int carvers) {
+		this.carvers = requirePositive(carvers, "Carvers");
+		return this;
+	}
+	public BatchCarver setEncoders(int encoders) {
+		this.encoders = requirePositive(encoders, "Encoders");
+		return this;
+	}
+
+	/**
+	 * Sets how many images may wait between two stages.
+	 * @param queueCapacity
+	 * @return
+	 */
+	public BatchCarver setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = requirePositive(queueCapacity, "Queue capacity");
+		return this;
+	}
+
+	/**
+	 * Replaces the carving stage, which by default carves every image on its own with changeSizeGeneralSeams.
+	 * @param carveStage Sets job.image to the carved image.
+	 * @return
+	 */
+	BatchCarver setCarveStage(Stage carveStage) {
+		this.carveStage = carveStage;
+		return this;
+	}
+
+	private static int requirePositive(int value, String name) {
+		if(value < 1) {
+			throw new IllegalArgumentException(name+" must be at least 1, got "+value+".");
+		}
+		return value;
+	}
+
+	/**
+	 * Lists the images of a directory, in name order, each to be saved under the same name - so in the same format - in the output directory.
+	 * The output directory must be another directory, so the inputs are not overwritten (see checkOutputs).
+	 * @param directory
+	 * @param outputDirectory
+	 * @param width
+	 * @param height
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<Job> fromDirectory(File directory, File outputDirectory, String width, String height) throws IOException {
+		File[] files = directory.listFiles();
+		if(files == null) {
+			throw new IOException("Cannot list "+directory+".");
+		}
+		Arrays.sort(files);
+		List<Job> jobs = new ArrayList<Job>();
+		for(File file : files) {
+			String name = file.getName().toLowerCase(Locale.ROOT);
+			for(String extension : IMAGE_EXTENSIONS) {
+				if(file.isFile() && name.endsWith(extension)) {
+					jobs.add(new Job(file, outputFile(file, outputDirectory), width, height));
+					break;
+				}
+			}
+		}
+		checkOutputs(jobs);
+		return jobs;
+	}
+
+	/**
+	 * Reads a manifest - one input per line, optionally followed by its own width and height.
+	 * Relative paths are resolved against the manifest's directory, empty lines and lines starting with # are skipped.
+	 * Every input is saved under its own name in the output directory, so the names must differ (see checkOutputs).
+	 * @param manifest
+	 * @param outputDirectory
+	 * @param width The width of the inputs that do not set their own.
+	 * @param height The height of the inputs that do not set their own.
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<Job> fromManifest(File manifest, File outputDirectory, String width, String height) throws IOException {
+		List<Job> jobs = new ArrayList<Job>();
+		try(BufferedReader reader = new BufferedReader(new FileReader(manifest))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				File input = new File(fields[0]);
+				if(!input.isAbsolute()) {
+					input = new File(manifest.getAbsoluteFile().getParentFile(), fields[0]);
+				}
+				boolean ownSize = fields.length >= 3;
+				jobs.add(new Job(input, outputFile(input, outputDirectory), ownSize ? fields[1] : width, ownSize ? fields[2] : height));
+			}
+		}
+		checkOutputs(jobs);
+		return jobs;
+	}
+
+	/**
+	 * Rejects a batch that would overwrite its own files before anything is carved - two inputs of the same name,
+	 * which would be saved to the same output, or an output that is one of the inputs, eg. when the output directory is the input directory.
+	 * @param jobs
+	 * @throws IOException If a path cannot be resolved.
+	 */
+	private static void checkOutputs(List<Job> jobs) throws IOException {
+		Map<File, File> inputs = new HashMap<File, File>();
+		for(Job job : jobs) {
+			inputs.put(job.input.getCanonicalFile(), job.input);
+		}
+		Map<File, File> outputs = new HashMap<File, File>();
+		for(Job job : jobs) {
+			File output = job.output.getCanonicalFile();
+			if(inputs.containsKey(output)) {
+				throw new IllegalArgumentException("Carving "+job.input+" would overwrite the input "+inputs.get(output)+", choose another output directory.");
+			}
+			File previous = outputs.put(output, job.input);
+			if(previous != null) {
+				throw new IllegalArgumentException("Both "+previous+" and "+job.input+" would be saved to "+job.output+".");
+			}
+		}
+	}
+
+	/**
+	 * @return The input's name in the output directory, so the image keeps its format (see ImageLib.writeRaster).
+	 */
+	private static File outputFile(File input, File outputDirectory) {
+		return new File(outputDirectory, input.getName());
+	}
+
+	/**
+	 * @param spec Pixels, or a percentage of the original size, eg. 80%.
+	 * @param original
+	 * @return The target size in pixels.
+	 */
+	static int resolveSize(String spec, int original) {
+		int size = spec.endsWith("%") ? (int)Math.round(original*Double.parseDouble(spec.substring(0, spec.length()-1))/100) : Integer.parseInt(spec);
+		if(size < 1) {
+			throw new IllegalArgumentException("Target size "+spec+" leaves no pixels of "+original+".");
+		}
+		return size;
+	}
+
+	/**
+	 * Carves all the jobs, and prints each stage's throughput and the failed files to out.
+	 * @param jobs
+	 * @param out
+	 * @return The number of files that failed.
+	 * @throws InterruptedException
+	 */
+	public int run(List<Job> jobs, PrintStream out) throws InterruptedException {
+		StageStats decodeStats = new StageStats("decode");
+		StageStats carveStats = new StageStats("carve");
+		StageStats encodeStats = new StageStats("encode");
+		ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<String>();
+		BlockingQueue<Job> toDecode = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		BlockingQueue<Job> toCarve = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		BlockingQueue<Job> toEncode = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		BlockingQueue<Job> finished = new ArrayBlockingQueue<Job>(1);
+		CarvingOptions options = this.options;
+
+		long start = System.nanoTime();
+		ExecutorService decodePool = startStage(decodeStats, this.decoders, toDecode, toCarve, failures, job -> {
+			job.image = ImageLib.readRaster(job.input);
+		});
+		ExecutorService carvePool = startStage(carveStats, this.carvers, toCarve, toEncode, failures, this.carveStage != null ? this.carveStage : job -> {
+			int width = resolveSize(job.width, job.image.getWidth());
+			int height = resolveSize(job.height, job.image.getHeight());
+			job.image = ImageOps.changeSizeGeneralSeams(job.image, width, height, options);
+		});
+		ExecutorService encodePool = startStage(encodeStats, this.encoders, toEncode, finished, failures, job -> {
+			ImageLib.writeRaster(job.image, job.output);
+		});
+		for(Job job : jobs) {
+			toDecode.put(job); // Blocks while the decoders are a full queue ahead.
+		}
+		toDecode.put(END);
+		while(finished.take() != END) {
+			// Finished jobs are only drained, their images are already saved.
+		}
+		for(ExecutorService pool : new ExecutorService[] {decodePool, carvePool, encodePool}) {
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		double seconds = (System.nanoTime()-start)/1e9;
+
+		out.println(String.format(Locale.ROOT, "Batch finished: %d images, %d failed, %.2f s, %.2f images/s.",
+				encodeStats.done, failures.size(), seconds, encodeStats.done/seconds));
+		decodeStats.print(out);
+		carveStats.print(out);
+		encodeStats.print(out);
+		for(String failure : failures) {
+			out.println("  Failed: "+failure);
+		}
+		return failures.size();
+	}
+
+	/**
+	 * Starts the workers of a stage. Every worker takes jobs from in until it meets END, which it puts back for the other workers -
+	 * the last worker to stop passes END on to out, however it stops. Failed jobs are recorded and not passed on.
+	 * An Error other than OutOfMemoryError fails its job and every later job of the worker, which still drains its queue,
+	 * so the stages before it never block on a queue no one takes from.
+	 */
+	private static ExecutorService startStage(StageStats stats, int threads, BlockingQueue<Job> in, BlockingQueue<Job> out,
+			ConcurrentLinkedQueue<String> failures, Stage stage) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "batch-"+stats.name);
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicInteger running = new AtomicInteger(threads);
+		for(int t = 0; t < threads; t++) {
+			pool.execute(() -> {
+				Error fatal = null; // The error that stopped this worker's processing, or null.
+				try {
+					Job job;
+					while((job = in.take()) != END) {
+						long start = System.nanoTime();
+						boolean success = false;
+						if(fatal != null) {
+							failures.add(job.input+" ("+stats.name+"): skipped after "+fatal);
+						}
+						else {
+							try {
+								stage.process(job);
+								success = true;
+							} catch (Exception | OutOfMemoryError e) { // A single image too large for the heap fails alone.
+								job.image = null;
+								failures.add(job.input+" ("+stats.name+"): "+e);
+							} catch (Error e) {
+								fatal = e;
+								job.image = null;
+								failures.add(job.input+" ("+stats.name+"): "+e);
+							}
+						}
+						Raster image = job.image;
+						stats.record(start, System.nanoTime(), image == null ? 0 : (long)image.getWidth()*image.getHeight(), success);
+						if(success) {
+							out.put(job);
+						}
+					}
+					in.put(END);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					ImageLib.releaseDecodeBuffer(); // The pool's threads may outlive the batch.
+					if(running.decrementAndGet() == 0) {
+						try {
+							out.put(END);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}
+			});
+		}
+		return pool;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File input = new File(args[0]);
+		File outputDirectory = new File(args[1]);
+		String width = args[2];
+		String height = args[3];
+		CarvingOptions options = new CarvingOptions(args[4].equals("1"), args[4].equals("2"));
+		BatchCarver carver = new BatchCarver(options);
+		for(int i = 5; i < args.length; i += 2) {
+			if(i+1 == args.length) {
+				throw new IllegalArgumentException("The flag "+args[i]+" has no value.");
+			}
+			if(args[i].equals("--decoders")) {
+				carver.setDecoders(Integer.parseInt(args[i+1]));
+			}
+			else if(args[i].equals("--carvers")) {
+				carver.setCarvers(Integer.parseInt(args[i+1]));
+			}
+			else if(args[i].equals("--encoders")) {
+				carver.setEncoders(Integer.parseInt(args[i+1]));
+			}
+			else if(args[i].equals("--queue")) {
+				carver.setQueueCapacity(Integer.parseInt(args[i+1]));
+			}
+			else if(!SeamCarvingMain.applyFlag(args[i], args[i+1], options)) {
+				throw new IllegalArgumentException("Unknown flag: "+args[i]+".");
+			}
+		}
+		if(!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IOException("Cannot create "+outputDirectory+".");
+		}
+		List<Job> jobs = input.isDirectory() ? fromDirectory(input, outputDirectory, width, height) : fromManifest(input, outputDirectory, width, height);
+		System.out.println("Carving "+jobs.size()+" images to: "+outputDirectory+".");
+		int failed = carver.run(jobs, System.out);
+		System.exit(failed == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,356 @@
+package seam_carving;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches carved images, so a repeated request - the same source bytes, carved to the same size with the same options -
+ * is neither decoded nor carved again. Entries are keyed by the SHA-256 of the source file, the target size and every option
+ * that changes the result.
+ *
+ * There are two tiers. The memory tier keeps the most recently used results up to a total size in bytes, and the optional
+ * disk tier keeps raw rasters in a directory up to a total file size, across runs. Results are written through to both,
+ * a memory miss falls back to the disk, and a disk hit moves the entry back into memory. Both evict the least recently used entries.
+ * The image after the width pass is cached as well, so a request that differs only in the height carves the height pass alone.
+ * Without local entropy that gives exactly the full carving's result - with it, the height pass's recomputed energy map
+ * may differ in the last bits from the one carried over from the width pass, so such requests carve both passes.
+ *
+ * The cache is thread-safe, and its lock is never held over file I/O. The rasters it returns are copies the caller owns.
+ */
+public class CarvingCache {
+
+	private static final int MAGIC = 0x53435243; // "SCRC"
+	private static final String SUFFIX = ".raster";
+	private static final String TEMPORARY_SUFFIX = ".tmp"; // Of an entry being written.
+	private static final int HEADER_BYTES = 12; // The magic number, the width and the height.
+
+	/**
+	 * The cache's counters since it was created.
+	 */
+	public static class Stats {
+		public final long memoryHits;
+		public final long diskHits;
+		public final long widthPassHits; // Misses whose width pass was found.
+		public final long misses;
+		public final long memoryEvictions;
+		public final long diskEvictions;
+
+		Stats(long memoryHits, long diskHits, long widthPassHits, long misses, long memoryEvictions, long diskEvictions) {
+			this.memoryHits = memoryHits;
+			this.diskHits = diskHits;
+			this.widthPassHits = widthPassHits;
+			this.misses = misses;
+			this.memoryEvictions = memoryEvictions;
+			this.diskEvictions = diskEvictions;
+		}
+
+		@Override
+		public String toString() {
+			return this.memoryHits+" memory hits, "+this.diskHits+" disk hits, "+this.misses+" misses ("+this.widthPassHits
+					+" with the width pass cached), "+this.memoryEvictions+" memory evictions, "+this.diskEvictions+" disk evictions";
+		}
+	}
+
+	//props
+	private final long maxMemoryBytes;
+	private final File directory; // The disk tier's directory, or null without one.
+	private final long maxDiskBytes;
+	private final LinkedHashMap<String, Raster> memory = new LinkedHashMap<String, Raster>(16, 0.75f, true); // In LRU order.
+	private long memoryBytes;
+	private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(16, 0.75f, true); // The file sizes, in LRU order.
+	private long diskBytes;
+	private long memoryHits;
+	private long diskHits;
+	private long widthPassHits;
+	private long misses;
+	private long memoryEvictions;
+	private long diskEvictions;
+
+	//const
+	/**
+	 * Creates a cache with a memory tier only.
+	 * @param maxMemoryBytes
+	 */
+	public CarvingCache(long maxMemoryBytes) {
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = null;
+		this.maxDiskBytes = 0;
+	}
+
+	/**
+	 * Creates a cache with a memory tier and a disk tier. Entries already in the directory are kept, oldest first in the LRU order,
+	 * and the temporary files of writes a previous run did not finish are deleted - the directory is owned by one cache at a time.
+	 * @param maxMemoryBytes
+	 * @param directory Created if it does not exist.
+	 * @param maxDiskBytes
+	 * @throws IOException If the directory cannot be created.
+	 */
+	public CarvingCache(long maxMemoryBytes, File directory, long maxDiskBytes) throws IOException {
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create "+directory+".");
+		}
+		for(File temporary : directory.listFiles((dir, name) -> name.endsWith(TEMPORARY_SUFFIX))) {
+			temporary.delete();
+		}
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for(File file : files) {
+			String name = file.getName();
+			this.disk.put(name.substring(0, name.length()-SUFFIX.length()), file.length());
+			this.diskBytes += file.length();
+		}
+		for(File evicted : evictDisk()) {
+			evicted.delete();
+		}
+	}
+
+	//funcs
+	/**
+	 * Carves an image file to a new size as ImageOps.changeSizeGeneralSeams does, or takes the result from the cache.
+	 * @param input
+	 * @param newWidth
+	 * @param newHeight
+	 * @param options
+	 * @return The carved image.
+	 * @throws IOException If the input cannot be read or decoded.
+	 */
+	public Raster retarget(File input, int newWidth, int newHeight, CarvingOptions options) throws IOException {
+		String source = hash(input);
+		String key = source+"-"+newWidth+"x"+newHeight+"-"+optionsKey(options);
+		Raster result = get(key);
+		if(result != null) {
+			return result;
+		}
+		String widthPassKey = source+"-"+newWidth+"xW-"+optionsKey(options); // The image after the width pass.
+		Raster widthCarved = options.withLocalEntropy() ? null : get(widthPassKey);
+		synchronized(this) {
+			this.misses++;
+			if(widthCarved != null) {
+				this.widthPassHits++;
+			}
+		}
+		if(widthCarved != null) {
+			result = ImageOps.changeHeightGeneralSeams(widthCarved, newHeight, options);
+		}
+		else {
+			result = ImageOps.changeSizeGeneralSeams(ImageLib.readRaster(input), newWidth, newHeight, options,
+					image -> put(widthPassKey, image));
+		}
+		put(key, result);
+		return result;
+	}
+
+	/**
+	 * @return The cache's counters.
+	 */
+	public synchronized Stats getStats() {
+		return new Stats(this.memoryHits, this.diskHits, this.widthPassHits, this.misses, this.memoryEvictions, this.diskEvictions);
+	}
+
+	/**
+	 * Looks a key up in memory, then on disk. The disk is read outside the cache's lock, so other requests go on meanwhile.
+	 * @param key
+	 * @return A copy of the cached raster, or null. Hits are counted, misses are left to the caller.
+	 */
+	private Raster get(String key) throws IOException {
+		File file;
+		synchronized(this) {
+			Raster raster = this.memory.get(key);
+			if(raster != null) {
+				this.memoryHits++;
+				return raster.copy();
+			}
+			if(this.directory == null || !this.disk.containsKey(key)) {
+				return null;
+			}
+			file = fileOf(key);
+		}
+		Raster raster = readRaster(file);
+		if(raster == null) { // Removed, damaged or evicted behind the lookup's back.
+			boolean damaged;
+			synchronized(this) {
+				Long bytes = this.disk.remove(key);
+				damaged = bytes != null;
+				if(damaged) {
+					this.diskBytes -= bytes;
+				}
+			}
+			if(damaged) {
+				Files.deleteIfExists(file.toPath());
+			}
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis()); // Keeps the LRU order for the next run.
+		synchronized(this) {
+			this.disk.get(key); // Moves the entry to the end of the LRU order.
+			this.diskHits++;
+			putInMemory(key, raster.copy());
+		}
+		return raster;
+	}
+
+	/**
+	 * Adds a copy of a raster to both tiers. The file is written outside the cache's lock, under a temporary name
+	 * that is renamed when complete, so a concurrent lookup never reads it half written.
+	 */
+	private void put(String key, Raster raster) {
+		Raster copy = raster.copy();
+		synchronized(this) {
+			putInMemory(key, copy);
+			if(this.directory == null || this.disk.containsKey(key)) {
+				return;
+			}
+		}
+		File file = fileOf(key);
+		List<File> evicted;
+		try {
+			File temporary = File.createTempFile(key, TEMPORARY_SUFFIX, this.directory);
+			try {
+				writeRaster(copy, temporary);
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temporary.toPath());
+			}
+		} catch(IOException e) { // The memory tier still has it.
+			System.out.println("Cannot cache "+file+": "+e.getMessage());
+			return;
+		}
+		synchronized(this) {
+			if(this.disk.containsKey(key)) { // Written by a concurrent request as well.
+				return;
+			}
+			this.disk.put(key, file.length());
+			this.diskBytes += file.length();
+			evicted = evictDisk();
+		}
+		for(File evictedFile : evicted) {
+			evictedFile.delete();
+		}
+	}
+
+	private void putInMemory(String key, Raster raster) {
+		long bytes = 4L*raster.getWidth()*raster.getHeight();
+		if(bytes > this.maxMemoryBytes) {
+			return;
+		}
+		Raster previous = this.memory.put(key, raster);
+		if(previous != null) {
+			this.memoryBytes -= 4L*previous.getWidth()*previous.getHeight();
+		}
+		this.memoryBytes += bytes;
+		for(Iterator<Raster> rasters = this.memory.values().iterator(); this.memoryBytes > this.maxMemoryBytes;) {
+			Raster evicted = rasters.next();
+			rasters.remove();
+			this.memoryBytes -= 4L*evicted.getWidth()*evicted.getHeight();
+			this.memoryEvictions++;
+		}
+	}
+
+	/**
+	 * Drops the least recently used disk entries over the size limit.
+	 * @return The files of the dropped entries, for the caller to delete outside the cache's lock.
+	 */
+	private List<File> evictDisk() {
+		List<File> evicted = new ArrayList<File>();
+		for(Iterator<Map.Entry<String, Long>> entries = this.disk.entrySet().iterator(); this.diskBytes > this.maxDiskBytes;) {
+			Map.Entry<String, Long> entry = entries.next();
+			entries.remove();
+			this.diskBytes -= entry.getValue();
+			evicted.add(fileOf(entry.getKey()));
+			this.diskEvictions++;
+		}
+		return evicted;
+	}
+
+	private File fileOf(String key) {
+		return new File(this.directory, key+SUFFIX);
+	}
+
+	/**
+	 * Writes a raster as its size followed by its pixels.
+	 */
+	private static void writeRaster(Raster raster, File file) throws IOException {
+		int width = raster.getWidth();
+		int height = raster.getHeight();
+		ByteBuffer bytes = ByteBuffer.allocate(HEADER_BYTES+4*width*height);
+		bytes.putInt(MAGIC).putInt(width).putInt(height);
+		IntBuffer pixels = bytes.asIntBuffer();
+		for(int y = 0; y < height; y++) {
+			pixels.put(raster.getData(), raster.rowOffset(y), width);
+		}
+		Files.write(file.toPath(), bytes.array());
+	}
+
+	/**
+	 * @return The raster writeRaster wrote, or null if the file is missing - eg. evicted meanwhile -, unreadable or not a complete raster.
+	 */
+	private static Raster readRaster(File file) {
+		ByteBuffer bytes;
+		try {
+			bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		} catch(IOException e) { // Counted as a miss, the caller carves again.
+			return null;
+		}
+		if(bytes.remaining() < HEADER_BYTES || bytes.getInt() != MAGIC) {
+			return null;
+		}
+		int width = bytes.getInt();
+		int height = bytes.getInt();
+		if(width < 1 || height < 1 || bytes.remaining() != 4L*width*height) {
+			return null;
+		}
+		Raster raster = new Raster(width, height);
+		bytes.asIntBuffer().get(raster.getData());
+		return raster;
+	}
+
+	/**
+	 * @param file
+	 * @return The SHA-256 of the file's bytes, in hex.
+	 * @throws IOException
+	 */
+	static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) { // Every JVM has SHA-256.
+			throw new IllegalStateException(e);
+		}
+		try(InputStream input = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+			byte[] buffer = new byte[1 << 16];
+			while(input.read(buffer) >= 0) {
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for(byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @return The options that change a carving's result, eg. "e0f1b1p0c4k0".
+	 */
+	private static String optionsKey(CarvingOptions options) {
+		return "e"+(options.withLocalEntropy() ? 1 : 0)+"f"+(options.withForwardEnergy() ? 1 : 0)+"b"+options.seamsPerPass()
+				+"p"+options.pyramidLevels()+"c"+options.corridorRadius()+"k"+(options.withIntegerKernels() ? 1 : 0);
+	}
+}
@@ -0,0 +1,289 @@
+package seam_carving;
+
+import java.util.BitSet;
+
+/**
+ * Marks the pixels of an image that seams must keep (protected, eg. faces and logos) or take (removed, eg. an unwanted object).
+ * Masked pixels get a fixed energy instead of an evaluated one - the energy maps skip the derivatives and the local entropy
+ * of these pixels. A protected pixel costs more than any seam of unmasked pixels, and a removed pixel less than any of them,
+ * so a seam only crosses a protected pixel when there is no way around it, and takes every removed pixel it can reach.
+ *
+ * The mask follows its image through a carving - the seams removed from the image or inserted to it are removed from
+ * the mask or inserted to it as well, so a carving changes the mask it is given.
+ * The pixels are given as bitsets of the indices y*width+x, eg. CarvingMask.of(width, height, faces, null).
+ */
+public class CarvingMask {
+
+	static final byte FREE = 0;
+	static final byte PROTECTED = 1;
+	static final byte REMOVED = 2;
+	private static final byte ON_SEAM = -1; // A pixel about to be compacted away.
+	// More than any seam of unmasked pixels costs, forward energy included. A seam's cost sums at most 2^31 of them,
+	// which stays far below Double.MAX_VALUE, the cost that blocks a cell, and finite, so never reaches a step out of the image.
+	static final double PROTECTED_ENERGY = 1e9;
+	static final double REMOVED_ENERGY = -PROTECTED_ENERGY;
+
+	//props
+	private byte[][] states; // states[y][x], the rows keep their length when seams are removed, as the energy map's rows do.
+	private int width;
+	private int height;
+	private int removedPixels;
+
+	//const
+	/**
+	 * Creates a mask of a width x height image with no masked pixels.
+	 * @param width
+	 * @param height
+	 */
+	public CarvingMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.states = new byte[height][width];
+	}
+
+	/**
+	 * @param width
+	 * @param height
+	 * @param protectedPixels The indices y*width+x of the protected pixels, or null.
+	 * @param removedPixels The indices y*width+x of the removed pixels, or null.
+	 * @return A mask of a width x height image.
+	 */
+	public static CarvingMask of(int width, int height, BitSet protectedPixels, BitSet removedPixels) {
+		CarvingMask mask = new CarvingMask(width, height);
+		if(protectedPixels != null) {
+			mask.protect(protectedPixels);
+		}
+		if(removedPixels != null) {
+			mask.remove(removedPixels);
+		}
+		return mask;
+	}
+
+	//funcs
+	/**
+	 * Protects pixels. A removed pixel stays removed.
+	 * @param pixels The indices y*width+x of the pixels.
+	 * @return
+	 */
+	public CarvingMask protect(BitSet pixels) {
+		for(int i = pixels.nextSetBit(0); i >= 0 && i < this.width*this.height; i = pixels.nextSetBit(i+1)) {
+			byte[] row = this.states[i/this.width];
+			if(row[i%this.width] == FREE) {
+				row[i%this.width] = PROTECTED;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Marks pixels for removal, also when they are protected.
+	 * @param pixels The indices y*width+x of the pixels.
+	 * @return
+	 */
+	public CarvingMask remove(BitSet pixels) {
+		for(int i = pixels.nextSetBit(0); i >= 0 && i < this.width*this.height; i = pixels.nextSetBit(i+1)) {
+			byte[] row = this.states[i/this.width];
+			if(row[i%this.width] != REMOVED) {
+				row[i%this.width] = REMOVED;
+				this.removedPixels++;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @param maskImage
+	 * @return The indices y*width+x of the pixels of a mask image that are not black, eg. the pixels painted over an object.
+	 */
+	public static BitSet pixelsOf(Raster maskImage) {
+		int width = maskImage.getWidth();
+		BitSet pixels = new BitSet(width*maskImage.getHeight());
+		for(int y = 0; y < maskImage.getHeight(); y++) {
+			for(int x = 0; x < width; x++) {
+				if((maskImage.get(x, y) & 0xFFFFFF) != 0) {
+					pixels.set(y*width+x);
+				}
+			}
+		}
+		return pixels;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+	public int getHeight() {
+		return this.height;
+	}
+	public boolean isProtected(int x, int y) {
+		return this.states[y][x] == PROTECTED;
+	}
+	public boolean isRemoved(int x, int y) {
+		return this.states[y][x] == REMOVED;
+	}
+
+	/**
+	 * @return The number of pixels marked for removal that are still in the image.
+	 */
+	public int getRemovedPixels() {
+		return this.removedPixels;
+	}
+
+	/**
+	 * @return Whether pixel (x,y) has a fixed energy.
+	 */
+	boolean isFixed(int x, int y) {
+		return this.states[y][x] != FREE;
+	}
+
+	/**
+	 * @return The fixed energy of a masked pixel (see isFixed).
+	 */
+	double fixedEnergy(int x, int y) {
+		return this.states[y][x] == PROTECTED ? PROTECTED_ENERGY : REMOVED_ENERGY;
+	}
+
+	/**
+	 * @return Row y of the states, its first getWidth() cells are valid.
+	 */
+	byte[] row(int y) {
+		return this.states[y];
+	}
+
+	/**
+	 * @return The largest number of removed pixels in a single row - the fewest vertical seams that can take them all.
+	 */
+	int maxRemovedPerRow() {
+		int max = 0;
+		for(int y = 0; y < this.height; y++) {
+			int count = 0;
+			for(int x = 0; x < this.width; x++) {
+				if(this.states[y][x] == REMOVED) {
+					count++;
+				}
+			}
+			max = Math.max(max, count);
+		}
+		return max;
+	}
+
+	/**
+	 * @return The largest number of removed pixels in a single column - the fewest horizontal seams that can take them all.
+	 */
+	int maxRemovedPerColumn() {
+		int[] counts = new int[this.width];
+		int max = 0;
+		for(int y = 0; y < this.height; y++) {
+			for(int x = 0; x < this.width; x++) {
+				if(this.states[y][x] == REMOVED) {
+					max = Math.max(max, ++counts[x]);
+				}
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Removes pixel-disjoint vertical seams from the mask, as they are removed from its image.
+	 * @param seams The seams, in the coordinates of the mask before the removal.
+	 */
+	void removeVerticalSeams(int[][] seams) {
+		for(int y = 0; y < this.height; y++) {
+			byte[] row = this.states[y];
+			for(int[] seam : seams) {
+				markOnSeam(row, seam[y]);
+			}
+			int newX = 0;
+			for(int x = 0; x < this.width; x++) {
+				if(row[x] != ON_SEAM) {
+					row[newX++] = row[x];
+				}
+			}
+		}
+		this.width -= seams.length;
+	}
+
+	/**
+	 * Removes pixel-disjoint horizontal seams from the mask, as they are removed from its image.
+	 * @param seams The seams, seam[x] is the removed row of column x, in the coordinates of the mask before the removal.
+	 */
+	void removeHorizontalSeams(int[][] seams) {
+		for(int[] seam : seams) {
+			for(int x = 0; x < this.width; x++) {
+				markOnSeam(this.states[seam[x]], x);
+			}
+		}
+		for(int x = 0; x < this.width; x++) {
+			int newY = 0;
+			for(int y = 0; y < this.height; y++) {
+				if(this.states[y][x] != ON_SEAM) {
+					this.states[newY++][x] = this.states[y][x];
+				}
+			}
+		}
+		this.height -= seams.length;
+	}
+
+	private void markOnSeam(byte[] row, int x) {
+		if(row[x] == REMOVED) {
+			this.removedPixels--;
+		}
+		row[x] = ON_SEAM;
+	}
+
+	/**
+	 * Inserts pixel-disjoint vertical seams to the mask, as ImageOps.insertVerticalSeams inserts them to its image -
+	 * every inserted pixel takes the state of the seam pixel it follows.
+	 * @param seams The seams, in the coordinates of the mask before the insertion.
+	 */
+	void insertVerticalSeams(int[][] seams) {
+		byte[][] states = new byte[this.height][this.width+seams.length];
+		boolean[] onSeam = new boolean[this.width];
+		for(int y = 0; y < this.height; y++) {
+			for(int[] seam : seams) {
+				onSeam[seam[y]] = true;
+			}
+			for(int x = 0, newX = 0; x < this.width; x++) {
+				states[y][newX++] = this.states[y][x];
+				if(onSeam[x]) {
+					states[y][newX++] = insertedState(this.states[y][x]);
+					onSeam[x] = false;
+				}
+			}
+		}
+		this.states = states;
+		this.width += seams.length;
+	}
+
+	/**
+	 * Inserts pixel-disjoint horizontal seams to the mask, as ImageOps.insertHorizontalSeams inserts them to its image.
+	 * @param seams The seams, seam[x] is the row of the seam pixel in column x, in the coordinates of the mask before the insertion.
+	 */
+	void insertHorizontalSeams(int[][] seams) {
+		byte[][] states = new byte[this.height+seams.length][this.width];
+		boolean[][] onSeam = new boolean[this.height][this.width];
+		for(int[] seam : seams) {
+			for(int x = 0; x < this.width; x++) {
+				onSeam[seam[x]][x] = true;
+			}
+		}
+		int[] shifts = new int[this.width];
+		for(int y = 0; y < this.height; y++) {
+			for(int x = 0; x < this.width; x++) {
+				states[y+shifts[x]][x] = this.states[y][x];
+				if(onSeam[y][x]) {
+					states[y+shifts[x]+1][x] = insertedState(this.states[y][x]);
+					shifts[x]++;
+				}
+			}
+		}
+		this.states = states;
+		this.height += seams.length;
+	}
+
+	private byte insertedState(byte state) {
+		if(state == REMOVED) {
+			this.removedPixels++;
+		}
+		return state;
+	}
+}
@@ -0,0 +1,232 @@
+package seam_carving;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Cumulative timing of the carving engine's phases - for every phase, the number of calls, the time spent in them,
+ * the pixels they processed and the bytes the calling thread allocated during them. Every call is also a JFR event
+ * (seam_carving.Phase), so a flight recording shows the phases on the timeline of the threads that ran them.
+ *
+ * Phases can nest - ENERGY_MAP includes LOCAL_ENTROPY, and a removal in batch mode includes its energy update.
+ * Allocations are counted on the calling thread only, the workers of a parallel cost map are not included.
+ * Metrics are on by default, and are shared by all the carvings in the JVM.
+ */
+public class CarvingMetrics {
+
+	/**
+	 * The measured phases.
+	 */
+	public enum Phase {
+		ENERGY_MAP("energyMap"),
+		LOCAL_ENTROPY("localEntropy"),
+		ENERGY_UPDATE("energyUpdate"),
+		COST_MAP("costMap"),
+		FIND_SEAMS("findSeams"),
+		REMOVE_SEAM("removeSeam"),
+		INSERT_SEAM("insertSeam"),
+		READ_IMAGE("readImage"),
+		WRITE_IMAGE("writeImage");
+
+		private final String key;
+
+		Phase(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * @return The phase's name in the JSON output and the JFR events.
+		 */
+		public String key() {
+			return this.key;
+		}
+	}
+
+	/**
+	 * The totals of one phase.
+	 */
+	public static class PhaseTotals {
+		public final Phase phase;
+		public final long count;
+		public final long nanos;
+		public final long pixels;
+		public final long allocatedBytes; // -1 when the JVM cannot measure allocations.
+
+		PhaseTotals(Phase phase, long count, long nanos, long pixels, long allocatedBytes) {
+			this.phase = phase;
+			this.count = count;
+			this.nanos = nanos;
+			this.pixels = pixels;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+
+	@Name("seam_carving.Phase")
+	@Label("Seam Carving Phase")
+	@Category("Seam Carving")
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+		@Label("Pixels")
+		long pixels;
+		@Label("Allocated Bytes")
+		long allocatedBytes;
+	}
+
+	/**
+	 * One running phase call.
+	 */
+	static class Span {
+		private final Phase phase;
+		private long pixels;
+		private final long start;
+		private final long startAllocated;
+		private final PhaseEvent event;
+
+		private Span(Phase phase, long pixels) {
+			this.phase = phase;
+			this.pixels = pixels;
+			this.event = new PhaseEvent();
+			this.event.begin();
+			this.startAllocated = allocatedBytes();
+			this.start = System.nanoTime();
+		}
+
+		private void end() {
+			long nanos = System.nanoTime()-this.start;
+			long allocated = this.startAllocated < 0 ? -1 : allocatedBytes()-this.startAllocated;
+			int p = this.phase.ordinal();
+			COUNTS[p].increment();
+			NANOS[p].add(nanos);
+			PIXELS[p].add(this.pixels);
+			if(allocated >= 0) {
+				ALLOCATED[p].add(allocated);
+			}
+			this.event.end();
+			if(this.event.shouldCommit()) {
+				this.event.phase = this.phase.key();
+				this.event.pixels = this.pixels;
+				this.event.allocatedBytes = allocated;
+				this.event.commit();
+			}
+		}
+	}
+
+	private static final int PHASES = Phase.values().length;
+	private static final LongAdder[] COUNTS = adders();
+	private static final LongAdder[] NANOS = adders();
+	private static final LongAdder[] PIXELS = adders();
+	private static final LongAdder[] ALLOCATED = adders();
+	private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+	private static volatile boolean enabled = true;
+
+	private static LongAdder[] adders() {
+		LongAdder[] adders = new LongAdder[PHASES];
+		for(int p = 0; p < PHASES; p++) {
+			adders[p] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)bean;
+			allocationBean.setThreadAllocatedMemoryEnabled(true);
+			return allocationBean;
+		}
+		return null;
+	}
+
+	/**
+	 * @return The bytes the current thread allocated so far, or -1 when the JVM cannot tell.
+	 */
+	private static long allocatedBytes() {
+		return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	//funcs
+	public static void setEnabled(boolean enabled) {
+		CarvingMetrics.enabled = enabled;
+	}
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts measuring a phase call.
+	 * @param phase
+	 * @param pixels The number of pixels the call processes.
+	 * @return The call's span, or null when metrics are off.
+	 */
+	static Span begin(Phase phase, long pixels) {
+		return enabled ? new Span(phase, pixels) : null;
+	}
+
+	/**
+	 * Ends a phase call, adding it to the totals.
+	 * @param span The span begin() returned.
+	 */
+	static void end(Span span) {
+		if(span != null) {
+			span.end();
+		}
+	}
+
+	/**
+	 * Ends a phase call whose size was only known at its end, like decoding an image.
+	 * @param span
+	 * @param pixels
+	 */
+	static void end(Span span, long pixels) {
+		if(span != null) {
+			span.pixels = pixels;
+			span.end();
+		}
+	}
+
+	/**
+	 * Clears all the totals.
+	 */
+	public static void reset() {
+		for(int p = 0; p < PHASES; p++) {
+			COUNTS[p].reset();
+			NANOS[p].reset();
+			PIXELS[p].reset();
+			ALLOCATED[p].reset();
+		}
+	}
+
+	/**
+	 * @param phase
+	 * @return The phase's totals since the start or the last reset.
+	 */
+	public static PhaseTotals get(Phase phase) {
+		int p = phase.ordinal();
+		return new PhaseTotals(phase, COUNTS[p].sum(), NANOS[p].sum(), PIXELS[p].sum(), THREADS == null ? -1 : ALLOCATED[p].sum());
+	}
+
+	/**
+	 * @return The totals of all the phases as a JSON object.
+	 */
+	public static String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"phases\": [\n");
+		for(Phase phase : Phase.values()) {
+			PhaseTotals totals = get(phase);
+			json.append(String.format(Locale.ROOT,
+					"    {\"phase\": \"%s\", \"count\": %d, \"totalMs\": %.3f, \"pixels\": %d, \"allocatedBytes\": %d}",
+					phase.key(), totals.count, totals.nanos/1e6, totals.pixels, totals.allocatedBytes));
+			json.append(phase.ordinal() < PHASES-1 ? ",\n" : "\n");
+		}
+		json.append("  ]\n}");
+		return json.toString();
+	}
+}
@@ -0,0 +1,136 @@
+package seam_carving;
+
+/**
+ * The settings of a seam carving run.
+ * eg: new CarvingOptions().setWithForwardEnergy(true).setSeamsPerPass(8)
+ */
+public class CarvingOptions {
+
+	//props
+	private boolean withLocalEntropy = false;
+	private boolean withForwardEnergy = false;
+	private int seamsPerPass = 1;
+	private int pyramidLevels = 0;
+	private int corridorRadius = 4;
+	private boolean integerKernels = false;
+	private boolean lowMemory = false;
+
+	//const
+	public CarvingOptions() {
+	}
+
+	public CarvingOptions(boolean withLocalEntropy, boolean withForwardEnergy) {
+		this.withLocalEntropy = withLocalEntropy;
+		this.withForwardEnergy = withForwardEnergy;
+	}
+
+	//funcs
+	public CarvingOptions setWithLocalEntropy(boolean withLocalEntropy) {
+		this.withLocalEntropy = withLocalEntropy;
+		return this;
+	}
+	public CarvingOptions setWithForwardEnergy(boolean withForwardEnergy) {
+		this.withForwardEnergy = withForwardEnergy;
+		return this;
+	}
+
+	/**
+	 * Sets the maximal number of seams removed per cost map computation.
+	 * With 1 (the default) the cost map is recomputed after every seam, which gives the exact result.
+	 * With N > 1 up to N pixel-disjoint seams are taken from the same cost map and removed together - the cost map work
+	 * drops by up to N times, but every seam after the first is only the cheapest path around the seams already taken,
+	 * not the optimal seam of the image left after removing them. Expect more visible artifacts as N grows,
+	 * especially on images with few low energy regions.
+	 * @param seamsPerPass
+	 * @return
+	 */
+	public CarvingOptions setSeamsPerPass(int seamsPerPass) {
+		if(seamsPerPass < 1) {
+			throw new IllegalArgumentException("Seams per pass must be at least 1, got "+seamsPerPass+".");
+		}
+		this.seamsPerPass = seamsPerPass;
+		return this;
+	}
+
+	/**
+	 * Sets the number of downsampled levels used to search seams approximately (see SeamPyramid).
+	 * With 0 (the default) every seam is searched over the whole cost map. With L > 0 the seam is searched on the image
+	 * downsampled L times by 2, and refined at every finer level inside a corridor around it - the search cost drops to
+	 * about 1/4^L of the full search plus the corridors, at the price of sometimes missing the exact cheapest seam.
+	 * Used for the seams removed one at a time - batches of seamsPerPass > 1 and enlargement still search the full cost map.
+	 * @param pyramidLevels
+	 * @return
+	 */
+	public CarvingOptions setPyramidLevels(int pyramidLevels) {
+		if(pyramidLevels < 0) {
+			throw new IllegalArgumentException("Pyramid levels must not be negative, got "+pyramidLevels+".");
+		}
+		this.pyramidLevels = pyramidLevels;
+		return this;
+	}
+
+	/**
+	 * Sets how many cells on each side of the upsampled seam the pyramid search refines at every finer level.
+	 * Wider corridors find seams closer to the exact ones, and cost proportionally more.
+	 * @param corridorRadius
+	 * @return
+	 */
+	public CarvingOptions setCorridorRadius(int corridorRadius) {
+		if(corridorRadius < 1) {
+			throw new IllegalArgumentException("Corridor radius must be at least 1, got "+corridorRadius+".");
+		}
+		this.corridorRadius = corridorRadius;
+		return this;
+	}
+
+	/**
+	 * Sets whether seams are removed with the int energy and cost maps of IntegerKernels instead of the double maps.
+	 * The int maps hold the exact energies scaled to integers, at half the memory traffic. They apply to removing
+	 * exact seams without local entropy - other runs keep the double maps.
+	 * @param integerKernels
+	 * @return
+	 */
+	public CarvingOptions setIntegerKernels(boolean integerKernels) {
+		this.integerKernels = integerKernels;
+		return this;
+	}
+
+	/**
+	 * Sets whether exact seams are removed with a low memory cost map - two rolling rows of costs and 2-bit backpointers
+	 * instead of a whole double cost map and a byte per backpointer, and the forward energy terms computed per cell instead of
+	 * kept in planes. The dynamic programming's memory drops from 9 (15 with forward energy) bytes per pixel to about a quarter of a byte,
+	 * for the same seams. Without local entropy the energies are also computed line by line as the cost map reaches them instead
+	 * of kept in an 8 bytes per pixel energy map, so the carving's working set is about a quarter of a byte per pixel besides the
+	 * image, at the cost of computing every energy again for every seam. With local entropy the energy map is kept, since its
+	 * window sums are too costly to recompute per seam - that mode only drops the cost map's share.
+	 * Applies to the double maps with one seam per pass and no pyramid - other runs keep their whole maps.
+	 * @param lowMemory
+	 * @return
+	 */
+	public CarvingOptions setLowMemory(boolean lowMemory) {
+		this.lowMemory = lowMemory;
+		return this;
+	}
+
+	public boolean withLocalEntropy() {
+		return this.withLocalEntropy;
+	}
+	public boolean withForwardEnergy() {
+		return this.withForwardEnergy;
+	}
+	public int seamsPerPass() {
+		return this.seamsPerPass;
+	}
+	public int pyramidLevels() {
+		return this.pyramidLevels;
+	}
+	public int corridorRadius() {
+		return this.corridorRadius;
+	}
+	public boolean withIntegerKernels() {
+		return this.integerKernels;
+	}
+	public boolean withLowMemory() {
+		return this.lowMemory;
+	}
+}
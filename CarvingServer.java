@@ -0,0 +1,364 @@
+package seam_carving;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves seam carving over HTTP, so a long-running JVM carves every request instead of starting one per image.
+ *  POST /carve?width=W&height=H&energy=E&format=F - the body is an image, the response is the image carved to W x H.
+ *      E is the energy type of the command line - 0 regular, 1 with local entropy, 2 forward (0 by default),
+ *      and F the output format, eg. png or jpg (png by default).
+ *  GET /metrics - the server's request counters and the engine's phase totals (see CarvingMetrics), as JSON.
+ *
+ * Requests are handled on virtual threads where the JVM has them (Java 21 on), and on a cached pool of platform threads otherwise -
+ * the build targets Java 17, so the virtual thread executor is looked up when the server starts rather than called, and on a
+ * Java 17 JVM every request waiting for a carving thread holds a platform thread (see usesVirtualThreads).
+ * The decoding, carving and encoding run on a fixed pool of carving threads, and admission is bounded - at most
+ * carvingThreads+queueCapacity requests are carving or waiting for a carving thread. A request past that is answered
+ * with a 503 at once, before its upload is read, so overload sheds load instead of queueing without limit.
+ * A carving that runs past the timeout is stopped between two seams (see AsyncCarver) and answered with a 503 as well.
+ * eg: new CarvingServer(8080).setCarvingThreads(4).setQueueCapacity(8).start()
+ */
+public class CarvingServer {
+
+	private static final String DEFAULT_FORMAT = "png";
+	private static final int RETRY_AFTER_SECONDS = 1;
+
+	//props
+	private final int port;
+	private int carvingThreads = Runtime.getRuntime().availableProcessors();
+	private int queueCapacity = 2*Runtime.getRuntime().availableProcessors();
+	private Duration timeout = Duration.ofSeconds(60);
+	private int maxUploadBytes = 64 << 20;
+	private long maxPixels = 50_000_000L; // Of the uploaded image and of the carved one.
+	private HttpServer server;
+	private ExecutorService requestExecutor;
+	private boolean virtualThreads;
+	private ExecutorService carvingPool;
+	private Semaphore admissions;
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder(); // Bad requests and carving errors.
+	private final LongAdder timedOut = new LongAdder();
+
+	//const
+	/**
+	 * @param port The port to listen on, or 0 for any free port (see getPort).
+	 */
+	public CarvingServer(int port) {
+		this.port = port;
+	}
+
+	//funcs
+	public CarvingServer setCarvingThreads(int carvingThreads) {
+		if(carvingThreads < 1) {
+			throw new IllegalArgumentException("Carving threads must be at least 1, got "+carvingThreads+".");
+		}
+		this.carvingThreads = carvingThreads;
+		return this;
+	}
+
+	/**
+	 * Sets the number of admitted requests that may wait for a carving thread.
+	 * @param queueCapacity
+	 * @return
+	 */
+	public CarvingServer setQueueCapacity(int queueCapacity) {
+		if(queueCapacity < 0) {
+			throw new IllegalArgumentException("Queue capacity must not be negative, got "+queueCapacity+".");
+		}
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	/**
+	 * Sets the time a request may take from its admission on.
+	 * @param timeout
+	 * @return
+	 */
+	public CarvingServer setTimeout(Duration timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+	public CarvingServer setMaxUploadBytes(int maxUploadBytes) {
+		this.maxUploadBytes = maxUploadBytes;
+		return this;
+	}
+	public CarvingServer setMaxPixels(long maxPixels) {
+		this.maxPixels = maxPixels;
+		return this;
+	}
+
+	/**
+	 * Starts listening. The settings must not be changed afterwards.
+	 * @return
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public synchronized CarvingServer start() throws IOException {
+		if(this.server != null) {
+			throw new IllegalStateException("The server is already started.");
+		}
+		this.server = HttpServer.create(new InetSocketAddress(this.port), 0);
+		this.requestExecutor = virtualThreadExecutor();
+		this.virtualThreads = this.requestExecutor != null;
+		if(!this.virtualThreads) {
+			this.requestExecutor = platformThreadExecutor();
+		}
+		this.carvingPool = Executors.newFixedThreadPool(this.carvingThreads, carvingThreadFactory());
+		this.admissions = new Semaphore(this.carvingThreads+this.queueCapacity);
+		this.server.setExecutor(this.requestExecutor);
+		this.server.createContext("/carve", this::handleCarve);
+		this.server.createContext("/metrics", this::handleMetrics);
+		this.server.start();
+		return this;
+	}
+
+	/**
+	 * Stops listening, and stops the carvings still running between two seams.
+	 */
+	public synchronized void stop() {
+		if(this.server == null) {
+			return;
+		}
+		this.server.stop(0);
+		this.carvingPool.shutdownNow();
+		this.requestExecutor.shutdown();
+		this.server = null;
+	}
+
+	/**
+	 * @return The port the server listens on.
+	 */
+	public int getPort() {
+		return this.server == null ? this.port : this.server.getAddress().getPort();
+	}
+
+	/**
+	 * @return Whether the started server handles its requests on virtual threads, false on a JVM before Java 21.
+	 */
+	public boolean usesVirtualThreads() {
+		return this.virtualThreads;
+	}
+
+	/**
+	 * @return An executor that runs every task on a new virtual thread, or null before Java 21.
+	 */
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException e) { // Missing, or a preview API that is not enabled.
+			return null;
+		}
+	}
+
+	private static ExecutorService platformThreadExecutor() {
+		AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "carving-request-"+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static ThreadFactory carvingThreadFactory() {
+		AtomicInteger count = new AtomicInteger();
+		return task -> {
+			Thread thread = new Thread(task, "carving-worker-"+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private void handleCarve(HttpExchange exchange) throws IOException {
+		try(exchange) {
+			if(!exchange.getRequestMethod().equals("POST")) {
+				this.failed.increment();
+				sendText(exchange, 405, "Use POST with the image as the body.");
+				return;
+			}
+			if(!this.admissions.tryAcquire()) {
+				this.rejected.increment();
+				exchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+				sendText(exchange, 503, "The server is busy, try again later.");
+				return;
+			}
+			try {
+				this.accepted.increment();
+				carve(exchange);
+			}
+			finally {
+				this.admissions.release();
+			}
+		}
+	}
+
+	/**
+	 * Carves an admitted request.
+	 */
+	private void carve(HttpExchange exchange) throws IOException {
+		long deadline = System.nanoTime()+this.timeout.toNanos();
+		Map<String, String> parameters = parameters(exchange.getRequestURI());
+		int newWidth;
+		int newHeight;
+		CarvingOptions options;
+		String format = parameters.getOrDefault("format", DEFAULT_FORMAT).toLowerCase(Locale.ROOT);
+		try {
+			newWidth = Integer.parseInt(parameters.get("width"));
+			newHeight = Integer.parseInt(parameters.get("height"));
+			String energy = parameters.getOrDefault("energy", "0");
+			if(!energy.equals("0") && !energy.equals("1") && !energy.equals("2")) {
+				throw new IllegalArgumentException("Energy must be 0, 1 or 2, got "+energy+".");
+			}
+			options = new CarvingOptions(energy.equals("1"), energy.equals("2"));
+			checkSize(newWidth, newHeight);
+			if(Arrays.stream(ImageIO.getWriterFormatNames()).noneMatch(format::equalsIgnoreCase)) {
+				throw new IllegalArgumentException("No writer for the format "+format+".");
+			}
+		} catch(IllegalArgumentException e) { // NumberFormatException included.
+			this.failed.increment();
+			sendText(exchange, 400, "Expected width, height and optionally energy and format parameters: "+e.getMessage());
+			return;
+		}
+		byte[] upload = exchange.getRequestBody().readNBytes(this.maxUploadBytes+1);
+		if(upload.length > this.maxUploadBytes) {
+			this.failed.increment();
+			sendText(exchange, 413, "The image is larger than "+this.maxUploadBytes+" bytes.");
+			return;
+		}
+
+		// Decoding, carving and encoding all run on the carving pool, the request thread only waits.
+		CompletableFuture<byte[]> response = CompletableFuture.supplyAsync(() -> {
+			try {
+				// The declared size is checked before decoding, so a small upload of a huge image is never allocated.
+				return ImageLib.readRaster(new ByteArrayInputStream(upload), this.maxPixels);
+			} catch(IOException e) {
+				throw new IllegalArgumentException(e.getMessage(), e);
+			}
+		}, this.carvingPool)
+				.thenCompose(image -> new AsyncCarver(options).setExecutor(this.carvingPool)
+						.setTimeout(Duration.ofNanos(Math.max(0, deadline-System.nanoTime()))).carve(image, newWidth, newHeight))
+				.thenApplyAsync(carved -> encode(carved, format), this.carvingPool);
+		byte[] body;
+		try {
+			body = response.get();
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof TimeoutException) {
+				this.timedOut.increment();
+				sendText(exchange, 503, "The carving ran past the server's timeout of "+this.timeout.toMillis()+" ms.");
+			}
+			else if(cause instanceof IllegalArgumentException) {
+				this.failed.increment();
+				sendText(exchange, 400, cause.getMessage());
+			}
+			else {
+				this.failed.increment();
+				sendText(exchange, 500, "The carving failed: "+cause);
+			}
+			return;
+		} catch(InterruptedException | CancellationException e) { // The server is stopping.
+			if(e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			response.cancel(false);
+			this.failed.increment();
+			sendText(exchange, 503, "The server is stopping.");
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", "image/"+(format.equals("jpg") ? "jpeg" : format));
+		exchange.sendResponseHeaders(200, body.length);
+		try(OutputStream output = exchange.getResponseBody()) {
+			output.write(body);
+		}
+		this.completed.increment();
+	}
+
+	private void checkSize(int width, int height) {
+		if(width < 1 || height < 1 || (long)width*height > this.maxPixels) {
+			throw new IllegalArgumentException("The size "+width+"x"+height+" is not between 1x1 and "+this.maxPixels+" pixels.");
+		}
+	}
+
+	private static byte[] encode(Raster image, String format) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			ImageLib.writeRaster(image, format, output);
+		} catch(IOException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+		return output.toByteArray();
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		try(exchange) {
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			byte[] body = metricsJson().getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+		}
+	}
+
+	/**
+	 * @return The server's counters and the engine's phase totals as a JSON object.
+	 */
+	String metricsJson() {
+		int capacity = this.carvingThreads+this.queueCapacity;
+		int admitted = this.admissions == null ? 0 : capacity-this.admissions.availablePermits();
+		return String.format(Locale.ROOT,
+				"{\n  \"server\": {\"accepted\": %d, \"rejected\": %d, \"completed\": %d, \"failed\": %d, \"timedOut\": %d,"
+				+" \"admitted\": %d, \"capacity\": %d, \"carvingThreads\": %d},\n  \"engine\": %s\n}",
+				this.accepted.sum(), this.rejected.sum(), this.completed.sum(), this.failed.sum(), this.timedOut.sum(),
+				admitted, capacity, this.carvingThreads, CarvingMetrics.toJson().replace("\n", "\n  "));
+	}
+
+	/**
+	 * @return The query parameters of a URI. Repeated parameters keep their last value.
+	 */
+	private static Map<String, String> parameters(URI uri) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		String query = uri.getQuery();
+		if(query == null) {
+			return parameters;
+		}
+		for(String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if(equals > 0) {
+				parameters.put(pair.substring(0, equals), pair.substring(equals+1));
+			}
+		}
+		return parameters;
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = (message+"\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+}
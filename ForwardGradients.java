@@ -0,0 +1,152 @@
+package seam_carving;
+
+/**
+ * The forward energy terms of every cell, precomputed as planes for the cost maps of a carving run.
+ * ImageOps.computeCost makes up to five singleDerivative calls per cell for the terms cL, cU and cR, and repeats them for every seam.
+ * They are built from three channel difference sums per cell, kept here as planes in the layout of the cost map
+ * (line-major - rows for vertical seams, columns for horizontal seams):
+ *  gap   - between the cell's two neighbors along its line, i-1 and i+1.
+ *  left  - between the cell's neighbor on the previous line and its neighbor at i-1.
+ *  right - between the cell's neighbor on the previous line and its neighbor at i+1.
+ * The planes are computed once per pass, a line at a time from unpacked channel lines, and after every removed seam
+ * only the cells around it are recomputed. The terms read from the planes are exactly the ones computeCost computes.
+ */
+class ForwardGradients {
+
+	//props
+	private final boolean horizontal;
+	private final short[][] gap; // Sums of the three absolute channel differences - 3 times Raster.singleDerivative.
+	private final short[][] left;
+	private final short[][] right;
+	private int length; // The number of valid cells in every line.
+
+	//const
+	/**
+	 * Computes the planes of the image.
+	 * @param image
+	 * @param horizontal Whether the planes are for horizontal seams.
+	 */
+	ForwardGradients(Raster image, boolean horizontal) {
+		int lines = horizontal ? image.getWidth() : image.getHeight();
+		this.horizontal = horizontal;
+		this.length = horizontal ? image.getHeight() : image.getWidth();
+		this.gap = new short[lines][this.length];
+		this.left = new short[lines][this.length];
+		this.right = new short[lines][this.length];
+
+		int[][] red = new int[2][this.length]; // The current and the previous line, at index line%2.
+		int[][] green = new int[2][this.length];
+		int[][] blue = new int[2][this.length];
+		for(int line = 0; line < lines; line++) {
+			int current = line%2;
+			int previous = 1-current;
+			unpackLine(image, line, red[current], green[current], blue[current]);
+			computeGaps(red[current], green[current], blue[current], this.gap[line]);
+			if(line > 0) {
+				computeDiagonals(red[previous], green[previous], blue[previous], red[current], green[current], blue[current], this.left[line], this.right[line]);
+			}
+		}
+	}
+
+	//funcs
+	private void unpackLine(Raster image, int line, int[] red, int[] green, int[] blue) {
+		int[] data = image.getData();
+		for(int i = 0; i < this.length; i++) {
+			int pixel = data[this.horizontal ? image.rowOffset(i)+line : image.rowOffset(line)+i];
+			red[i] = Raster.red(pixel);
+			green[i] = Raster.green(pixel);
+			blue[i] = Raster.blue(pixel);
+		}
+	}
+
+	private void computeGaps(int[] red, int[] green, int[] blue, short[] gap) {
+		for(int i = 1; i < this.length-1; i++) {
+			gap[i] = (short)(Math.abs(red[i+1]-red[i-1]) + Math.abs(green[i+1]-green[i-1]) + Math.abs(blue[i+1]-blue[i-1]));
+		}
+	}
+
+	private void computeDiagonals(int[] redAbove, int[] greenAbove, int[] blueAbove, int[] red, int[] green, int[] blue, short[] left, short[] right) {
+		for(int i = 1; i < this.length; i++) {
+			left[i] = (short)(Math.abs(redAbove[i]-red[i-1]) + Math.abs(greenAbove[i]-green[i-1]) + Math.abs(blueAbove[i]-blue[i-1]));
+		}
+		for(int i = 0; i < this.length-1; i++) {
+			right[i] = (short)(Math.abs(redAbove[i]-red[i+1]) + Math.abs(greenAbove[i]-green[i+1]) + Math.abs(blueAbove[i]-blue[i+1]));
+		}
+	}
+
+	/**
+	 * @return The pixel at cell i of a line.
+	 */
+	private int pixel(Raster image, int line, int i) {
+		return this.horizontal ? image.get(line, i) : image.get(i, line);
+	}
+
+	private static short difference(int argb, int other) {
+		return (short)(Math.abs(Raster.red(argb) - Raster.red(other)) + Math.abs(Raster.green(argb) - Raster.green(other))
+				+ Math.abs(Raster.blue(argb) - Raster.blue(other)));
+	}
+
+	/**
+	 * Updates the planes after a seam was removed from the image - every line is compacted over the removed cell,
+	 * and the cells whose neighbors moved relative to each other are recomputed: around the seam's cells on the line and on the previous line.
+	 * @param image The image after the removal.
+	 * @param seam The removed seam, in the coordinates of the image after the removal.
+	 */
+	void removeSeam(Raster image, int[] seam) {
+		this.length--;
+		for(int line = 0; line < seam.length; line++) {
+			int from = seam[line];
+			System.arraycopy(this.gap[line], from+1, this.gap[line], from, this.length-from);
+			System.arraycopy(this.left[line], from+1, this.left[line], from, this.length-from);
+			System.arraycopy(this.right[line], from+1, this.right[line], from, this.length-from);
+		}
+		for(int line = 0; line < seam.length; line++) {
+			int previousSeam = line > 0 ? seam[line-1] : seam[line];
+			int from = Math.max(0, Math.min(seam[line], previousSeam)-1);
+			int to = Math.min(this.length-1, Math.max(seam[line], previousSeam)+1);
+			for(int i = from; i <= to; i++) {
+				int pixelBefore = i > 0 ? pixel(image, line, i-1) : 0;
+				int pixelAfter = i < this.length-1 ? pixel(image, line, i+1) : 0;
+				this.gap[line][i] = i > 0 && i < this.length-1 ? difference(pixelAfter, pixelBefore) : 0;
+				if(line > 0) {
+					int pixelAbove = pixel(image, line-1, i);
+					this.left[line][i] = i > 0 ? difference(pixelAbove, pixelBefore) : 0;
+					this.right[line][i] = i < this.length-1 ? difference(pixelAbove, pixelAfter) : 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The forward energy term cL of cell i of a line, as computeCost computes it.
+	 */
+	double costLeft(int line, int i) {
+		if(i == 0) {
+			return 0;
+		}
+		if(i == this.length-1) {
+			return this.left[line][i]/3.0;
+		}
+		return this.gap[line][i]/3.0 + this.left[line][i]/3.0;
+	}
+
+	/**
+	 * @return The forward energy term cU of cell i of a line, as computeCost computes it.
+	 */
+	double costUp(int line, int i) {
+		return i == 0 || i == this.length-1 ? 0 : this.gap[line][i]/3.0;
+	}
+
+	/**
+	 * @return The forward energy term cR of cell i of a line, as computeCost computes it.
+	 */
+	double costRight(int line, int i) {
+		if(i == this.length-1) {
+			return 0;
+		}
+		if(i == 0) {
+			return this.right[line][i]/3.0;
+		}
+		return this.gap[line][i]/3.0 + this.right[line][i]/3.0;
+	}
+}
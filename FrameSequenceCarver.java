@@ -0,0 +1,248 @@
+package seam_carving;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Carves the frames of a video in order, keeping the seams of consecutive frames close to each other.
+ * The first frame is carved with the exact search. On every following frame, seam k is only searched inside a corridor
+ * around seam k of the previous frame, and every cell away from it costs a continuity penalty - so the same content is
+ * removed from frame to frame, instead of the seams jumping around and the result flickering. The energy map is carried
+ * over from the previous frame, and only recomputed where the pixels changed (see ImageOps.refreshEnergyMap).
+ * A frame that differs from the previous one in more than SCENE_CUT of its pixels, or has another size, starts over with the exact search.
+ * Enlarged frames are carved on their own, with no temporal search.
+ *
+ * Frames are decoded, carved and encoded as a BatchCarver pipeline, with a single decoder and carver so frames are carved in order.
+ * Usage: FrameSequenceCarver <frame directory> <output directory> <width> <height> <energy type> [flags]
+ * Frames are ordered by the last number in their names, so frame_9.png comes before frame_10.png.
+ * Flags: --continuity W --encoders N --queue N, and the carving flags of SeamCarvingMain - --corridor sets the temporal corridor's radius.
+ */
+public class FrameSequenceCarver {
+
+	private static final double SCENE_CUT = 0.5; // The fraction of changed pixels above which a frame is searched from scratch.
+
+	//props
+	private final CarvingOptions options;
+	private final BatchCarver pipeline;
+	private double continuityWeight = 2;
+	private Raster previousFrame; // The last frame carved, as it was before carving.
+	private double[][] previousEnergyMap; // Its energy map.
+	private int[][] previousVerticalSeams; // Its seams in removal order, each in the coordinates of the image right before its removal.
+	private int[][] previousHorizontalSeams;
+	private int frames;
+	private int coherentFrames; // Frames searched around the previous frame's seams.
+
+	//const
+	public FrameSequenceCarver(CarvingOptions options) {
+		this.options = options;
+		this.pipeline = new BatchCarver(options).setDecoders(1).setCarvers(1).setCarveStage(job -> {
+			int width = BatchCarver.resolveSize(job.width, job.image.getWidth());
+			int height = BatchCarver.resolveSize(job.height, job.image.getHeight());
+			job.image = carveFrame(job.image, width, height);
+		});
+	}
+
+	//funcs
+	/**
+	 * Sets the cost of a seam cell for every cell it is away from the previous frame's seam. 0 keeps only the corridor.
+	 * @param continuityWeight
+	 * @return
+	 */
+	public FrameSequenceCarver setContinuityWeight(double continuityWeight) {
+		if(continuityWeight < 0) {
+			throw new IllegalArgumentException("Continuity weight must not be negative, got "+continuityWeight+".");
+		}
+		this.continuityWeight = continuityWeight;
+		return this;
+	}
+	public FrameSequenceCarver setEncoders(int encoders) {
+		this.pipeline.setEncoders(encoders);
+		return this;
+	}
+	public FrameSequenceCarver setQueueCapacity(int queueCapacity) {
+		this.pipeline.setQueueCapacity(queueCapacity);
+		return this;
+	}
+
+	/**
+	 * Forgets the previous frame, so the next frame is carved with the exact search.
+	 */
+	public void reset() {
+		this.previousFrame = null;
+		this.previousEnergyMap = null;
+		this.previousVerticalSeams = null;
+		this.previousHorizontalSeams = null;
+	}
+
+	/**
+	 * Carves the next frame of the sequence.
+	 * @param frame The frame, it is not changed. It is kept until the next frame, for finding the pixels that changed.
+	 * @param newWidth
+	 * @param newHeight
+	 * @return A new raster of the carved frame.
+	 */
+	public Raster carveFrame(Raster frame, int newWidth, int newHeight) {
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		boolean withLocalEntropy = this.options.withLocalEntropy();
+		this.frames++;
+		if(newWidth > width || newHeight > height) {
+			reset();
+			return ImageOps.changeSizeGeneralSeams(frame, newWidth, newHeight, this.options);
+		}
+
+		boolean coherent = false;
+		if(this.previousFrame != null && this.previousFrame.getWidth() == width && this.previousFrame.getHeight() == height) {
+			int changed = ImageOps.refreshEnergyMap(this.previousEnergyMap, this.previousFrame, frame, withLocalEntropy);
+			coherent = changed <= SCENE_CUT*width*height;
+		}
+		else {
+			this.previousEnergyMap = ImageOps.computeEnergyMap(frame, withLocalEntropy);
+		}
+		if(coherent) {
+			this.coherentFrames++;
+		}
+
+		// The carving compacts its energy map, the frame's own map is kept for the next frame.
+		double[][] energyMap = new double[height][];
+		for(int y = 0; y < height; y++) {
+			energyMap[y] = this.previousEnergyMap[y].clone();
+		}
+		double[][] penaltyMap = coherent && this.continuityWeight > 0 ? new double[height][width] : null;
+		int[][] verticalSeams = new int[width-newWidth][];
+		int[][] horizontalSeams = new int[height-newHeight][];
+		Raster image = frame.copy();
+		removeSeams(image, energyMap, penaltyMap, verticalSeams, coherent ? this.previousVerticalSeams : null, false);
+		removeSeams(image, energyMap, penaltyMap, horizontalSeams, coherent ? this.previousHorizontalSeams : null, true);
+
+		this.previousFrame = frame;
+		this.previousVerticalSeams = verticalSeams;
+		this.previousHorizontalSeams = horizontalSeams;
+		return image;
+	}
+
+	/**
+	 * Removes seams.length seams from the image, searching each one around the guide of the same rank when there is one.
+	 * @param image Carved in place.
+	 * @param energyMap The image's energy map, kept up to date.
+	 * @param penaltyMap The buffer of ImageOps.findCorridorSeam, or null without a continuity penalty.
+	 * @param seams Receives the removed seams.
+	 * @param guides The previous frame's seams in the same direction, or null.
+	 * @param horizontal
+	 */
+	private void removeSeams(Raster image, double[][] energyMap, double[][] penaltyMap, int[][] seams, int[][] guides, boolean horizontal) {
+		if(seams.length == 0) {
+			return;
+		}
+		boolean withLocalEntropy = this.options.withLocalEntropy();
+		boolean withForwardEnergy = this.options.withForwardEnergy();
+		int lines = horizontal ? image.getWidth() : image.getHeight();
+		int length = horizontal ? image.getHeight() : image.getWidth();
+		double[][] costMap = new double[lines][length];
+		byte[][] backMap = new byte[lines][length];
+
+		for(int k = 0; k < seams.length; k++) {
+			int[] seam = new int[lines];
+			if(guides != null && k < guides.length && guides[k].length == lines) {
+				ImageOps.findCorridorSeam(image, energyMap, costMap, backMap, guides[k], this.options.corridorRadius(),
+						penaltyMap != null ? this.continuityWeight : 0, penaltyMap, withForwardEnergy, horizontal, seam);
+			}
+			else {
+				ImageOps.computeCostMap(image, energyMap, costMap, backMap, withForwardEnergy, horizontal);
+				ImageOps.traceSeam(costMap, backMap, horizontal ? image.getHeight() : image.getWidth(), seam);
+			}
+			if(horizontal) {
+				ImageOps.removeHorizontalSeam(image, seam);
+				ImageOps.updateEnergyMapHorizontal(energyMap, image, seam, withLocalEntropy);
+			}
+			else {
+				ImageOps.removeVerticalSeam(image, seam);
+				ImageOps.updateEnergyMapVertical(energyMap, image, seam, withLocalEntropy);
+			}
+			seams[k] = seam;
+		}
+	}
+
+	/**
+	 * Lists the frames of a directory in frame order, each to be saved under the same name in the output directory.
+	 * @param directory
+	 * @param outputDirectory
+	 * @param width
+	 * @param height
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<BatchCarver.Job> fromDirectory(File directory, File outputDirectory, String width, String height) throws IOException {
+		List<BatchCarver.Job> frames = BatchCarver.fromDirectory(directory, outputDirectory, width, height);
+		frames.sort(Comparator.comparingLong((BatchCarver.Job job) -> frameNumber(job.input.getName())).thenComparing(job -> job.input.getName()));
+		return frames;
+	}
+
+	/**
+	 * @param name
+	 * @return The last number in a file name, or -1 if it has none.
+	 */
+	static long frameNumber(String name) {
+		int end = name.length();
+		while(end > 0 && !Character.isDigit(name.charAt(end-1))) {
+			end--;
+		}
+		int start = end;
+		while(start > 0 && Character.isDigit(name.charAt(start-1)) && end-start < 18) {
+			start--;
+		}
+		return start == end ? -1 : Long.parseLong(name.substring(start, end));
+	}
+
+	/**
+	 * Carves all the frames in order, and prints the pipeline's stages, the frame rate and how many frames were searched
+	 * around the previous frame's seams.
+	 * @param frames In frame order.
+	 * @param out
+	 * @return The number of frames that failed.
+	 * @throws InterruptedException
+	 */
+	public int run(List<BatchCarver.Job> frames, PrintStream out) throws InterruptedException {
+		reset();
+		this.frames = 0;
+		this.coherentFrames = 0;
+		long start = System.nanoTime();
+		int failed = this.pipeline.run(frames, out);
+		double seconds = (System.nanoTime()-start)/1e9;
+		out.println(String.format(Locale.ROOT, "Sequence finished: %d frames, %.2f frames/s, %d of %d carved frames searched around the previous frame's seams.",
+				frames.size()-failed, (frames.size()-failed)/seconds, this.coherentFrames, this.frames));
+		return failed;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File input = new File(args[0]);
+		File outputDirectory = new File(args[1]);
+		CarvingOptions options = new CarvingOptions(args[4].equals("1"), args[4].equals("2"));
+		FrameSequenceCarver carver = new FrameSequenceCarver(options);
+		for(int i = 5; i+1 < args.length; i += 2) {
+			if(args[i].equals("--continuity")) {
+				carver.setContinuityWeight(Double.parseDouble(args[i+1]));
+			}
+			else if(args[i].equals("--encoders")) {
+				carver.setEncoders(Integer.parseInt(args[i+1]));
+			}
+			else if(args[i].equals("--queue")) {
+				carver.setQueueCapacity(Integer.parseInt(args[i+1]));
+			}
+			else {
+				SeamCarvingMain.applyFlag(args[i], args[i+1], options);
+			}
+		}
+		if(!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IOException("Cannot create "+outputDirectory+".");
+		}
+		List<BatchCarver.Job> frames = fromDirectory(input, outputDirectory, args[2], args[3]);
+		System.out.println("Carving "+frames.size()+" frames to: "+outputDirectory+".");
+		int failed = carver.run(frames, System.out);
+		System.exit(failed == 0 ? 0 : 1);
+	}
+}
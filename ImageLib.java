@@ -3,91 +3,423 @@ package seam_carving;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Locale;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 /**
- * This class is in charge of loading and saving images, also converting images to Pixel[][] objects and vice versa.
+ * This class is in charge of loading and saving images, also converting images to packed Raster objects and vice versa.
+ * Pixel[][] loading and saving are kept as compatibility adapters on top of the raster conversion.
+ *
+ * Any BufferedImage type is read - packed int images are used as the raster's buffer directly, byte BGR/ABGR and gray images
+ * are unpacked in one pass, and every other type (eg. indexed) goes through a single bulk getRGB call. Byte images are decoded
+ * into a per-thread buffer that is reused while the images keep the same size and type - only images up to DECODE_BUFFER_PIXELS,
+ * so a pool thread does not keep its largest image alive, and releaseDecodeBuffer drops it. The alpha channel is kept in the raster.
+ * The output format follows the file's extension, or is given for streams - PNGs keep the raster's alpha, and JPEGs use the quality set by setJpegQuality.
  */
 public class ImageLib {
 
+	private static final String DEFAULT_FORMAT = "jpg"; // For paths with no extension, or one no writer supports.
+	private static final ThreadLocal<BufferedImage> DECODE_BUFFER = new ThreadLocal<BufferedImage>(); // The last byte image decoded on this thread.
+	private static final long DECODE_BUFFER_PIXELS = 1 << 22; // The largest image kept as a decode buffer, 16 MB as 4-byte ABGR.
+	private static volatile float jpegQuality = -1; // The JPEG writer's default when negative.
+
+	/**
+	 * Sets the quality JPEG images are saved with, from 0 (smallest) to 1 (best).
+	 * @param quality The quality, or a negative value for the writer's default.
+	 */
+	public static void setJpegQuality(float quality) {
+		if(quality > 1) {
+			throw new IllegalArgumentException("JPEG quality must be at most 1, got "+quality+".");
+		}
+		jpegQuality = quality;
+	}
+
 	public static Pixel[][] loadImage(String path) {
-	   	 BufferedImage bImage = null;
-	        try {
-	            File initialImage = new File(path);
-	            bImage = ImageIO.read(initialImage);
-	            Pixel[][] pixels = convertImageToArray(bImage);
-	            return pixels;
-	        } catch (IOException e) {
-	              System.out.println("Exception occured :" + e.getMessage());
-	        }
-	        return null;
-	   }
-	    
-	    public static void saveImage(Pixel[][] pixels, String path) {
-	    	BufferedImage bImage = new BufferedImage(pixels[0].length, pixels.length, BufferedImage.TYPE_INT_RGB);
-	    	try {
-	    	bImage = convertArrayToImage(pixels,bImage);
-	    	File destImage = new File(path);
-	    	ImageIO.write(bImage, "jpg", destImage);
-	    	}
-	    	catch (IOException e) {
-	            System.out.println("Exception occured :" + e.getMessage());
-	      }
-	    }
-	    
-	    private static Pixel[][] convertImageToArray(BufferedImage image) {
-
-	        final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-	        final int width = image.getWidth();
-	        final int height = image.getHeight();
-	        final boolean hasAlphaChannel = image.getAlphaRaster() != null;
-
-	        Pixel[][] result = new Pixel[height][width];
-	        if (hasAlphaChannel) {
-	           final int pixelLength = 4;
-	           for (int pixel = 0, row = 0, col = 0; pixel < pixels.length; pixel += pixelLength) {
-	              //int alpha = (((int) pixels[pixel] & 0xff)); // alpha
-	              int blue = ((int) pixels[pixel + 1] & 0xff); // blue
-	              int green = (((int) pixels[pixel + 2] & 0xff)); // green
-	              int red = (((int) pixels[pixel + 3] & 0xff)); // red
-	              result[row][col] = new Pixel(red,green,blue);
-	              col++;
-	              if (col == width) {
-	                 col = 0;
-	                 row++;
-	              }
-	           }
-	        } else {
-	           final int pixelLength = 3;
-	           for (int pixel = 0, row = 0, col = 0; pixel < pixels.length; pixel += pixelLength) {
-	        	  int blue = ((int) pixels[pixel] & 0xff); // blue
-	        	  int green = (((int) pixels[pixel + 1] & 0xff)); // green
-	        	  int red = (((int) pixels[pixel + 2] & 0xff)); // red
-	              result[row][col] = new Pixel(red,green,blue); 
-	              col++;
-	              if (col == width) {
-	                 col = 0;
-	                 row++;
-	              }
-	           }
-	        }
-
-	        return result;
-	     }
-	    
-	    private static BufferedImage convertArrayToImage(Pixel[][] pixels, BufferedImage outputImage) {
-	    	int[] outputImagePixelData = ((DataBufferInt)outputImage.getRaster().getDataBuffer()).getData() ;
-
-	        final int width = outputImage.getWidth();
-	        final int height = outputImage.getHeight();
-
-	        for (int y=0, pos=0 ; y < height ; y++)
-	            for (int x=0 ; x < width ; x++, pos++)
-	                outputImagePixelData[pos] = pixels[y][x].RGBint();
-
-	        return outputImage;
-	    }
-}
+		Raster raster = loadRaster(path);
+		return raster == null ? null : raster.toPixels();
+	}
+
+	public static Raster loadRaster(String path) {
+		try {
+			return readRaster(new File(path));
+		} catch (IOException e) {
+			System.out.println("Exception occured :" + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Loads an image into a raster, reporting failures to the caller instead of printing them.
+	 * @param file
+	 * @return
+	 * @throws IOException If the file cannot be read or is not in a supported format.
+	 */
+	public static Raster readRaster(File file) throws IOException {
+		return readRaster(file, 1);
+	}
+
+	/**
+	 * Decodes an image from a stream, eg. an upload. The stream is read to the end of the image and not closed.
+	 * @param input
+	 * @return
+	 * @throws IOException If the stream cannot be read or is not in a supported format.
+	 */
+	public static Raster readRaster(InputStream input) throws IOException {
+		return readRaster(input, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Decodes an image from a stream, as readRaster does, refusing images larger than maxPixels before any pixel is decoded -
+	 * the size is read from the image's header, so a small upload that declares a huge image is never allocated.
+	 * @param input
+	 * @param maxPixels
+	 * @return
+	 * @throws IOException If the stream cannot be read, is not in a supported format, or declares more than maxPixels pixels.
+	 */
+	public static Raster readRaster(InputStream input, long maxPixels) throws IOException {
+		ImageInputStream imageInput = ImageIO.createImageInputStream(input);
+		if(imageInput == null) {
+			throw new IOException("Can't read input stream.");
+		}
+		return read(imageInput, "input stream", 1, maxPixels);
+	}
+
+	/**
+	 * Loads a preview of an image - the image is subsampled while it is decoded, so the full resolution is never allocated.
+	 * @param file
+	 * @param maxSize The largest width or height the preview may have.
+	 * @return
+	 * @throws IOException If the file cannot be read or is not in a supported format.
+	 */
+	public static Raster readPreview(File file, int maxSize) throws IOException {
+		if(maxSize < 1) {
+			throw new IllegalArgumentException("Preview size must be at least 1, got "+maxSize+".");
+		}
+		try(ImageInputStream input = openImage(file)) {
+			ImageReader reader = readerOf(input, file);
+			try {
+				int size = Math.max(reader.getWidth(0), reader.getHeight(0));
+				return decode(reader, (size+maxSize-1)/maxSize);
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * @param file
+	 * @param subsampling Every subsampling'th pixel of every subsampling'th row is read.
+	 * @return
+	 * @throws IOException
+	 */
+	private static Raster readRaster(File file, int subsampling) throws IOException {
+		return read(openImage(file), file, subsampling, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Decodes the first image of an input, and closes it.
+	 * @param input
+	 * @param source The input's file or description, for error messages.
+	 * @param subsampling
+	 * @param maxPixels The most pixels the image may declare.
+	 * @return
+	 * @throws IOException
+	 */
+	private static Raster read(ImageInputStream input, Object source, int subsampling, long maxPixels) throws IOException {
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.READ_IMAGE, 0);
+		long decoded = 0; // The span counts the pixels of the decoded image, none when the reading failed.
+		try(input) {
+			ImageReader reader = readerOf(input, source);
+			try {
+				long pixels = (long)reader.getWidth(0)*reader.getHeight(0);
+				if(pixels > maxPixels) {
+					throw new IOException("The image is "+reader.getWidth(0)+"x"+reader.getHeight(0)+", more than "+maxPixels+" pixels: "+source+".");
+				}
+				Raster raster = decode(reader, subsampling);
+				decoded = (long)raster.getWidth()*raster.getHeight();
+				return raster;
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		finally {
+			CarvingMetrics.end(span, decoded);
+		}
+	}
+
+	static ImageInputStream openImage(File file) throws IOException {
+		if(!file.canRead()) {
+			throw new IOException("Can't read input file: "+file+".");
+		}
+		ImageInputStream input = ImageIO.createImageInputStream(file);
+		if(input == null) {
+			throw new IOException("Can't read input file: "+file+".");
+		}
+		return input;
+	}
+
+	static ImageReader readerOf(ImageInputStream input, Object source) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+		if(!readers.hasNext()) {
+			input.close();
+			throw new IOException("Unsupported image format: "+source+".");
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(input, true, true);
+		return reader;
+	}
+
+	/**
+	 * Decodes the first image of a reader into a raster, reusing this thread's decode buffer when it fits.
+	 */
+	private static Raster decode(ImageReader reader, int subsampling) throws IOException {
+		ImageReadParam param = reader.getDefaultReadParam();
+		if(subsampling > 1) {
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+		}
+		int width = (reader.getWidth(0)+subsampling-1)/subsampling;
+		int height = (reader.getHeight(0)+subsampling-1)/subsampling;
+		BufferedImage buffer = DECODE_BUFFER.get();
+		if(buffer != null && buffer.getWidth() == width && buffer.getHeight() == height) {
+			for(Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext();) {
+				if(types.next().getBufferedImageType() == buffer.getType()) {
+					param.setDestination(buffer);
+					break;
+				}
+			}
+		}
+		BufferedImage image = reader.read(0, param);
+		Raster raster = convertImageToRaster(image);
+		// Int images became the raster itself, so only byte images are reused - and not indexed ones, whose palette is the image's own.
+		int type = image.getType();
+		boolean reusable = type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR || type == BufferedImage.TYPE_BYTE_GRAY;
+		if(reusable && (long)image.getWidth()*image.getHeight() <= DECODE_BUFFER_PIXELS) {
+			DECODE_BUFFER.set(image);
+		}
+		else {
+			DECODE_BUFFER.remove();
+		}
+		return raster;
+	}
+
+	/**
+	 * Drops this thread's decode buffer, eg. when a pool thread is done decoding.
+	 */
+	static void releaseDecodeBuffer() {
+		DECODE_BUFFER.remove();
+	}
 
+	public static void saveImage(Pixel[][] pixels, String path) {
+		saveImage(Raster.fromPixels(pixels), path);
+	}
+
+	public static void saveImage(Raster raster, String path) {
+		try {
+			writeRaster(raster, new File(path));
+		}
+		catch (IOException e) {
+			System.out.println("Exception occured :" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Saves a raster in the format of the file's extension (JPEG when it has none, or no writer supports it),
+	 * reporting failures to the caller instead of printing them.
+	 * The raster's buffer is written directly, without copying it to a new image.
+	 * @param raster
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void writeRaster(Raster raster, File file) throws IOException {
+		String format = formatOf(file);
+		boolean withAlpha = format.equals("png") && hasTransparency(raster);
+		writeImage(convertRasterToImage(raster, withAlpha), file);
+	}
+
+	/**
+	 * Encodes a raster to a stream, eg. an HTTP response. The stream is not closed.
+	 * @param raster
+	 * @param format An image format name, eg. "png" or "jpg".
+	 * @param output
+	 * @throws IOException If the stream cannot be written, or no writer supports the format.
+	 */
+	public static void writeRaster(Raster raster, String format, OutputStream output) throws IOException {
+		boolean withAlpha = format.equals("png") && hasTransparency(raster);
+		writeImage(convertRasterToImage(raster, withAlpha), format, output);
+	}
+
+	/**
+	 * Saves any image in the format of the file's extension, as writeRaster does.
+	 * The PNG and BMP writers read the image row by row, so an image that generates its rows on demand is never held in memory whole.
+	 * @param image
+	 * @param file
+	 * @throws IOException
+	 */
+	static void writeImage(RenderedImage image, File file) throws IOException {
+		if(file.exists() && !file.delete()) { // The output stream would keep the tail of a longer old file.
+			throw new IOException("Can't overwrite: "+file+".");
+		}
+		writeImage(image, formatOf(file), file);
+	}
+
+	/**
+	 * @param image
+	 * @param format
+	 * @param output A File or an OutputStream.
+	 * @throws IOException
+	 */
+	private static void writeImage(RenderedImage image, String format, Object output) throws IOException {
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.WRITE_IMAGE, (long)image.getWidth()*image.getHeight());
+		try {
+			float quality = jpegQuality;
+			ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+			if(stream == null) {
+				throw new IOException("Can't write output: "+output+".");
+			}
+			try(stream) {
+				if(quality >= 0 && (format.equals("jpg") || format.equals("jpeg"))) {
+					writeJpeg(image, stream, quality);
+				}
+				else if(!ImageIO.write(image, format, stream)) {
+					throw new IOException("No "+format+" writer for: "+output+".");
+				}
+			}
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return The file's extension if an image writer supports it, otherwise the default format.
+	 */
+	static String formatOf(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if(dot < 0) {
+			return DEFAULT_FORMAT;
+		}
+		String extension = name.substring(dot+1).toLowerCase(Locale.ROOT);
+		return ImageIO.getImageWritersBySuffix(extension).hasNext() ? extension : DEFAULT_FORMAT;
+	}
+
+	private static boolean hasTransparency(Raster raster) {
+		int[] data = raster.getData();
+		for(int y = 0; y < raster.getHeight(); y++) {
+			int offset = raster.rowOffset(y);
+			for(int x = 0; x < raster.getWidth(); x++) {
+				if(Raster.alpha(data[offset+x]) != 0xFF) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static void writeJpeg(RenderedImage image, ImageOutputStream output, float quality) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(quality);
+		try {
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(image, null, null), param);
+		}
+		finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Converts any image into an ARGB raster.
+	 * Packed int images become the raster's buffer directly, byte BGR/ABGR and gray images are unpacked in one pass,
+	 * and every other type is converted by a single bulk getRGB call.
+	 * @param image
+	 * @return
+	 */
+	static Raster convertImageToRaster(BufferedImage image) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+
+		switch(image.getType()) {
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_INT_RGB: {
+			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			if(image.getType() == BufferedImage.TYPE_INT_RGB) {
+				for(int pos = 0; pos < width*height; pos++) {
+					pixels[pos] |= 0xFF << 24; // The unused top byte becomes an opaque alpha.
+				}
+			}
+			return new Raster(pixels, width, height, width);
+		}
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_4BYTE_ABGR: {
+			final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			final boolean hasAlphaChannel = image.getType() == BufferedImage.TYPE_4BYTE_ABGR;
+			final int pixelLength = hasAlphaChannel ? 4 : 3;
+			final int offset = hasAlphaChannel ? 1 : 0; // Skip the alpha byte, it is read separately.
+
+			Raster result = new Raster(width, height);
+			int[] data = result.getData();
+			for (int pixel = offset, pos = 0; pos < data.length; pixel += pixelLength, pos++) {
+				int blue = ((int) pixels[pixel] & 0xff); // blue
+				int green = (((int) pixels[pixel + 1] & 0xff)); // green
+				int red = (((int) pixels[pixel + 2] & 0xff)); // red
+				int alpha = hasAlphaChannel ? ((int) pixels[pixel - 1] & 0xff) : 0xff; // alpha
+				data[pos] = Raster.pack(alpha, red, green, blue);
+			}
+			return result;
+		}
+		case BufferedImage.TYPE_BYTE_GRAY: {
+			final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			Raster result = new Raster(width, height);
+			int[] data = result.getData();
+			for (int pos = 0; pos < data.length; pos++) {
+				int gray = (int) pixels[pos] & 0xff; // Taken as is, without getRGB's linear to sRGB conversion.
+				data[pos] = Raster.pack(gray, gray, gray);
+			}
+			return result;
+		}
+		default: { // Indexed, 16 bit and custom layouts.
+			Raster result = new Raster(width, height);
+			image.getRGB(0, 0, width, height, result.getData(), 0, width);
+			return result;
+		}
+		}
+	}
+
+	/**
+	 * Wraps the raster's buffer in an image, without copying it - the image reads the raster's rows through its stride.
+	 * @param raster
+	 * @param withAlpha Whether the image keeps the raster's alpha channel.
+	 * @return
+	 */
+	private static BufferedImage convertRasterToImage(Raster raster, boolean withAlpha) {
+		DirectColorModel colorModel = withAlpha
+				? new DirectColorModel(32, 0xFF0000, 0xFF00, 0xFF, 0xFF000000)
+				: new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+		DataBufferInt buffer = new DataBufferInt(raster.getData(), raster.getData().length);
+		WritableRaster writableRaster = java.awt.image.Raster.createPackedRaster(buffer, raster.getWidth(), raster.getHeight(),
+				raster.getStride(), colorModel.getMasks(), null);
+		return new BufferedImage(colorModel, writableRaster, false, null);
+	}
+}
@@ -1,17 +1,67 @@
 package seam_carving;
 
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
 
 
 /**
- * A class that implements various operations used on images that are in the form of Pixel[][] objects.
- * eg: transposing an image, computing the energy and cost map,
+ * A class that implements various operations used on images that are in the form of packed Raster objects
+ * (the Pixel[][] entry points are kept as compatibility adapters).
+ * eg: computing the energy and cost map,
  * increasing and decreasing the width and height of an image using the seam carving algorithm.
+ * Vertical seams are carved along the rows, and horizontal seams along the columns of the same row-major raster.
  */
 public class ImageOps {
 	
 	private static final double ENTROPY_WEIGHT = 0.5; // The ratio of the local entropy that affects the energy of the pixels.
 	private static final boolean WITH_INTERPOLATION = true; // Determines whether to use interpolation blending when enlarging an image, or not.
+	private static final int PARALLEL_THRESHOLD = 1 << 18; // Cost maps with fewer cells than this are always computed serially.
+	private static final int MIN_BLOCK_WIDTH = 256; // The narrowest column block a row is split into when computing the cost map in parallel.
+	private static final int MIN_ROWS_PER_TASK = 64; // The fewest rows a single task handles when rows are processed in parallel.
+	private static final double UNREACHABLE = Double.POSITIVE_INFINITY; // The cost of stepping out of the image in the cost map recurrence - above any finite cost, masked ones included.
+	private static final int DISJOINT_SEAM_CANDIDATES = 4; // How many last line cells per requested seam findDisjointSeams tries to start from.
+
+	private static int parallelism = Runtime.getRuntime().availableProcessors();
+	private static ForkJoinPool pool = null; // Created on first use, with the current parallelism level.
+
+
+	/**
+	 * Sets the number of threads used for computing cost maps.
+	 * A parallelism of 1 always computes serially. Both paths produce identical cost maps.
+	 * @param parallelism
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1, got "+parallelism+".");
+		}
+		if(pool != null && parallelism != ImageOps.parallelism) {
+			pool.shutdown();
+			pool = null;
+		}
+		ImageOps.parallelism = parallelism;
+	}
+
+
+	/**
+	 * 
+	 * @return The number of threads used for computing cost maps.
+	 */
+	public static synchronized int getParallelism() {
+		return parallelism;
+	}
+
+
+	private static synchronized ForkJoinPool getPool() {
+		if(pool == null) {
+			pool = new ForkJoinPool(parallelism);
+		}
+		return pool;
+	}
 
 	/**
 	 * 
@@ -26,101 +76,44 @@ public class ImageOps {
 	/**
 	 * 
 	 * @param image
-	 * @return The image's height.
+	 * @return The image's width.
 	 */
-	public static int getHeight(Pixel[][] image) {
-		return image.length;
+	public static int getWidth(Raster image) {
+		return image.getWidth();
 	}
 
 
 	/**
-	 * Transposes an image matrix.
-	 * ie. 	if image is a m x n dimentional Pixel matrix, then this method will return a n x m dimentional Pixel matrix called transposed,
-	 * 		where transposed[i][j] == image[j][i].
-	 * @param image A 2-dimentional Pixel matrix.
-	 * @return transposed.
+	 * 
+	 * @param image
+	 * @return The image's height.
 	 */
-	private static Pixel[][] transposeImage(Pixel[][] image) {
-		int originalWidth = getWidth(image);
-		int originalHeight = getHeight(image);
+	public static int getHeight(Pixel[][] image) {
+		return image.length;
+	}
 
-		Pixel[][] transposed = new Pixel[originalWidth][originalHeight];
 
-		// The actual transposition.
-		for(int x = 0; x < originalWidth; x++) {
-			for(int y = 0; y < originalHeight; y++) {
-				transposed[x][y] = image[y][x].returnCopy();
-			}
-		}
-		
-/*		for(int y = 0; y < getHeight(transposed); y++) {
-			for(int x = 0; x < getWidth(transposed); x++) {
-				if(transposed[y][x] == null ) {
-					System.out.println("NULL AT: ("+x+","+y+").");
-				}
-			}
-		}
-		System.out.println("NO NULL.");
-*/
-		return transposed;
-	}
-	
-	
 	/**
-	 * Computes H_xy - the local entropy of Pixel[y][x] over a 9x9 window.
-	 * @param x The x coordinate of the pixel.
-	 * @param y The y coordinate of the pixel.
+	 * 
 	 * @param image
-	 * @return 
+	 * @return The image's height.
 	 */
-	private static double computeLocalEntropy(int x, int y, Pixel[][] image) {
-		int width = getWidth(image);
-		int height = getHeight(image);
-		int n = 0; // Number of neighbors.
-		double h = 0;
-		double p;
-		double p_sum = 0;
-
-		//calculate the sum of grayscale values used for the calculation of p_mn.
-		for(int i = -4; i < 5; i++) {
-			for(int j = -4; j < 5; j++) {
-				if(x+i < 0 || x+i >= width || y+j < 0 || y+j >= height) { // If we're on a boundary.
-					continue;
-				}
-				p_sum += image[y+j][x+i].grayscaleValue();
-				n++;
-			}
-		}
-		p_sum *= (81/n); // Normalize to a 9x9 window.
-		
-		// after that, we can compute H.
-		for(int i = -4; i < 5; i++) {
-			for(int j = -4; j < 5; j++) {
-				if(x+i < 0 || x+i >= width || y+j < 0 || y+j >= height) { // If we're on a boundary.
-					continue;
-				}
-				p = image[y+j][x+i].grayscaleValue()/p_sum; 
-				if(p == 0){
-					continue;
-				}
-				h -= p*Math.log(p)/Math.log(2); // Multiplied by log2(p)
-			}
-		}
-
-		return h*(81/n); // Returned value is as described in the document, normalized to a 9x9 window.
+	public static int getHeight(Raster image) {
+		return image.getHeight();
 	}
-	
-	
+
+
 	/**
 	 * Computes the pixel's average energy, calculating its derivative using its neighbors.
 	 * @param x The x coordinate of the pixel.
 	 * @param y The y coordinate of the pixel.
 	 * @param image
 	 * @param withLocalEntropy
-	 * @return The average energy of Pixel[y][x].
+	 * @param localEntropy The local entropy of the pixel (see LocalEntropy), used only when withLocalEntropy is set.
+	 * @return The average energy of the pixel at (x,y).
 	 */
-	private static double computeEnergy(int x, int y, Pixel[][] image, boolean withLocalEntropy) {
-		Pixel pixel = image[y][x]; // The pixel we want to compute its energy.
+	private static double computeEnergy(int x, int y, Raster image, boolean withLocalEntropy, double localEntropy) {
+		int pixel = image.get(x, y); // The pixel we want to compute its energy.
 		int width = getWidth(image);
 		int height = getHeight(image);
 		double totalEnergy = 0;
@@ -132,12 +125,12 @@ public class ImageOps {
 				if(x+i < 0 || x+i >= width || y+j < 0 || y+j >= height || (i == 0 && j == 0)) { // If we're on a boundary, or on the original pixel (i=0, j=0).
 					continue;
 				}
-				totalEnergy += pixel.singleDerivative(image[y+j][x+i]);
+				totalEnergy += Raster.singleDerivative(pixel, image.get(x+i, y+j));
 				n++;
 			}
 		}
 		if(withLocalEntropy) {
-			ret = (1-ENTROPY_WEIGHT)*totalEnergy/n + ENTROPY_WEIGHT*computeLocalEntropy(x, y, image);
+			ret = (1-ENTROPY_WEIGHT)*totalEnergy/n + ENTROPY_WEIGHT*localEntropy;
 		}
 		else {
 			ret = totalEnergy/n; // Divide by the number of neighbors compared to - to get the average energy.
@@ -149,21 +142,102 @@ public class ImageOps {
 
 	/**
 	 * 
-	 * @param image A 2-dimentional Pixel matrix.
+	 * @param image
+	 * @param withLocalEntropy
+	 * @return
+	 */
+	static double[][] computeEnergyMap(Raster image, boolean withLocalEntropy) {
+		return computeEnergyMap(image, withLocalEntropy, null);
+	}
+
+
+	/**
+	 * Computes the energy map of the image, giving the pixels of a mask their fixed energy without evaluating it.
+	 * @param image
 	 * @param withLocalEntropy
+	 * @param mask The image's mask (see CarvingMask), or null.
 	 * @return
 	 */
-	private static double[][] computeEnergyMap(Pixel[][] image, boolean withLocalEntropy) {
+	static double[][] computeEnergyMap(Raster image, boolean withLocalEntropy, CarvingMask mask) {
 		int width = getWidth(image);
 		int height = getHeight(image);
-
-		double[][] map = new double[height][width];
-		for(int x = 0; x < width; x++) {
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.ENERGY_MAP, (long)width*height);
+		try {
+			double[][] entropyMap = withLocalEntropy ? LocalEntropy.computeMap(image, mask) : null;
+			double[][] map = new double[height][width];
 			for(int y = 0; y < height; y++) {
-				map[y][x] = computeEnergy(x, y, image, withLocalEntropy);
+				for(int x = 0; x < width; x++) {
+					if(mask != null && mask.isFixed(x, y)) {
+						map[y][x] = mask.fixedEnergy(x, y);
+						continue;
+					}
+					map[y][x] = computeEnergy(x, y, image, withLocalEntropy, withLocalEntropy ? entropyMap[y][x] : 0);
+				}
+			}
+			return map;
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+
+	/**
+	 * Turns the energy map of an image into the energy map of another image of the same size, like the next frame of a video.
+	 * Only the pixels whose energy window reaches a changed pixel are recomputed - in every row, the span between the
+	 * leftmost and the rightmost changed pixel of the rows the window covers, widened by the window's radius.
+	 * @param energyMap The energy map of previous, updated in place.
+	 * @param previous
+	 * @param image
+	 * @param withLocalEntropy
+	 * @return The number of pixels that differ between the images.
+	 */
+	static int refreshEnergyMap(double[][] energyMap, Raster previous, Raster image, boolean withLocalEntropy) {
+		int width = getWidth(image);
+		int height = getHeight(image);
+		int radius = withLocalEntropy ? LocalEntropy.RADIUS : 1; // How far a pixel's energy window reaches.
+		int[] minChanged = new int[height];
+		int[] maxChanged = new int[height];
+		int changed = 0;
+
+		for(int y = 0; y < height; y++) {
+			minChanged[y] = width;
+			maxChanged[y] = -1;
+			for(int x = 0; x < width; x++) {
+				if(previous.get(x, y) != image.get(x, y)) {
+					minChanged[y] = Math.min(minChanged[y], x);
+					maxChanged[y] = x;
+					changed++;
+				}
+			}
+		}
+		if(changed == 0) {
+			return 0;
+		}
+
+		double[] localEntropy = withLocalEntropy ? new double[width] : null;
+		int[] sums = withLocalEntropy ? new int[width] : null;
+		double[] entropySums = withLocalEntropy ? new double[width] : null;
+		for(int y = 0; y < height; y++) {
+			int from = width;
+			int to = -1;
+			for(int j = Math.max(0, y-radius); j <= Math.min(height-1, y+radius); j++) {
+				from = Math.min(from, minChanged[j]);
+				to = Math.max(to, maxChanged[j]);
+			}
+			if(to < 0) {
+				continue;
+			}
+			from = Math.max(0, from-radius);
+			to = Math.min(width-1, to+radius);
+			if(withLocalEntropy) {
+				LocalEntropy.computeRow(image, y, from, to, localEntropy, sums, entropySums);
+			}
+			for(int x = from; x <= to; x++) {
+				energyMap[y][x] = computeEnergy(x, y, image, withLocalEntropy, withLocalEntropy ? localEntropy[x] : 0);
 			}
 		}
-		return map;
+		return changed;
 	}
 
 	/**
@@ -172,13 +246,16 @@ public class ImageOps {
 	 * @param y the y coordinate of the pixel.
 	 * @param image
 	 * @param costMap
-	 * @param energyMap
+	 * @param backMap Receives the direction the pixel's cheapest seam comes from (see cheapestDirection).
+	 * @param energy The pixel's energy.
 	 * @param withForwardEnergy - calculate the cell cost using the forward energy principle
+	 * @param gradients The precomputed forward energy terms of the image, or null to compute them here.
 	 */
-	private static void computeCost(int x, int y, Pixel[][] image, double[][] costMap, double[][] energyMap, boolean withForwardEnergy) {
-		int width = energyMap[0].length;
+	private static void computeCost(int x, int y, Raster image, double[][] costMap, byte[][] backMap, double energy, boolean withForwardEnergy, ForwardGradients gradients) {
+		int width = getWidth(image);
 		if(y == 0) { //First row.
-			costMap[0][x] = energyMap[0][x];
+			costMap[0][x] = energy;
+			backMap[0][x] = 0;
 			return;
 		}
 
@@ -186,7 +263,7 @@ public class ImageOps {
 
 		// Compute option1.
 		if(x == 0) {
-			option1 = Integer.MAX_VALUE;
+			option1 = UNREACHABLE;
 		}
 		else {
 			option1 = costMap[y-1][x-1];
@@ -197,28 +274,35 @@ public class ImageOps {
 
 		// Compute option3.
 		if(x == width-1) {
-			option3 = Integer.MAX_VALUE;
+			option3 = UNREACHABLE;
 		}
 		else {
 			option3 = costMap[y-1][x+1];
 		}
+		// Seams are traced along the cheapest accumulated cost of the neighbors, without the forward energy terms - as findKSeams does.
+		backMap[y][x] = cheapestDirection(option1, option2, option3);
 		
 		if(withForwardEnergy) {
 			double cL=0, cU=0, cR=0;
-			if(x == 0) {
+			if(gradients != null) {
+				cL = gradients.costLeft(y, x);
+				cU = gradients.costUp(y, x);
+				cR = gradients.costRight(y, x);
+			}
+			else if(x == 0) {
 				cL = 0;
 				cU = 0;
-				cR = image[y-1][x].singleDerivative(image[y][x+1]);
+				cR = Raster.singleDerivative(image.get(x, y-1), image.get(x+1, y));
 			}
 			else if(x == width-1) {
-				cL = image[y-1][x].singleDerivative(image[y][x-1]);
+				cL = Raster.singleDerivative(image.get(x, y-1), image.get(x-1, y));
 				cU = 0;
 				cR = 0;
 			}
 			else {
-				cL = image[y][x+1].singleDerivative(image[y][x-1]) + image[y-1][x].singleDerivative(image[y][x-1]);
-				cU = image[y][x+1].singleDerivative(image[y][x-1]);
-				cR = image[y][x+1].singleDerivative(image[y][x-1]) + image[y-1][x].singleDerivative(image[y][x+1]);
+				cL = Raster.singleDerivative(image.get(x+1, y), image.get(x-1, y)) + Raster.singleDerivative(image.get(x, y-1), image.get(x-1, y));
+				cU = Raster.singleDerivative(image.get(x+1, y), image.get(x-1, y));
+				cR = Raster.singleDerivative(image.get(x+1, y), image.get(x-1, y)) + Raster.singleDerivative(image.get(x, y-1), image.get(x+1, y));
 			}
 			
 			option1+=cL;
@@ -226,283 +310,1595 @@ public class ImageOps {
 			option3+=cR;
 		}
 
-		double cost = energyMap[y][x] + Math.min(Math.min(option1, option2), option3);
+		double cost = energy + Math.min(Math.min(option1, option2), option3);
 		costMap[y][x] = cost;
 	}
 
 
 	/**
-	 * Computes the cost map of the image.
-	 * @param energyMap
-	 * @param withLocalEntropy
-	 * @param withForwardEnergy - calculate the cost map using the forward energy principle
-	 * @return cost map.
+	 * @param option1
+	 * @param option2
+	 * @param option3
+	 * @return The offset of the cheapest of three options - -1, 0 or +1. Ties go to the first of them.
 	 */
-	private static double[][] computeCostMap(Pixel[][] image, boolean withLocalEntropy, boolean withForwardEnergy) {
-		double[][] energyMap = computeEnergyMap(image, withLocalEntropy);
-		int height = energyMap.length;
-		int width = energyMap[0].length;
-		double[][] costMap = new double[height][width];
-		for(int y = 0; y < height; y++) {
-			for(int x = 0; x < width; x++) {
-				computeCost(x, y, image, costMap, energyMap, withForwardEnergy);
-			}
+	private static byte cheapestDirection(double option1, double option2, double option3) {
+		int index = 0;
+		double min = option1;
+		if(Double.compare(option2, min) < 0) {
+			index = 1;
+			min = option2;
 		}
-
-		return costMap;
+		if(Double.compare(option3, min) < 0) {
+			index = 2;
+		}
+		return (byte)(index-1);
 	}
 
 
-	private static double[] getSumsOfColumns(double[][] energyMap) {
-		double[] sums = new double[energyMap[0].length];
-		for(int i=0;i<sums.length;i++) {
-			for(int j=0;j<energyMap.length;j++) {
-				sums[i] += energyMap[j][i];
-			}
+	/**
+	 * Computes the cost of a single pixel for horizontal seams, using dynamic programming over the columns.
+	 * This is computeCost with the roles of x and y swapped - the pixel continues a seam from one of its three left neighbors.
+	 * @param x the x coordinate of the pixel.
+	 * @param y the y coordinate of the pixel.
+	 * @param image
+	 * @param costMap The cost map in column-major order, ie. costMap[x][y].
+	 * @param backMap Receives the direction the pixel's cheapest seam comes from, in column-major order.
+	 * @param energy The pixel's energy.
+	 * @param withForwardEnergy - calculate the cell cost using the forward energy principle
+	 * @param gradients The precomputed forward energy terms of the image, or null to compute them here.
+	 */
+	private static void computeHorizontalCost(int x, int y, Raster image, double[][] costMap, byte[][] backMap, double energy, boolean withForwardEnergy, ForwardGradients gradients) {
+		int height = getHeight(image);
+		if(x == 0) { //First column.
+			costMap[0][y] = energy;
+			backMap[0][y] = 0;
+			return;
 		}
-		return sums;
-	}
-	
-	private static Pixel[][] straightSeamsRemoval(Pixel[][] image, int[] seamsIndices){
+
+		double option1, option2, option3;
+
+		// Compute option1.
+		if(y == 0) {
+			option1 = UNREACHABLE;
+		}
+		else {
+			option1 = costMap[x-1][y-1];
+		}
+
+		// Compute option2.
+		option2 = costMap[x-1][y];
+
+		// Compute option3.
+		if(y == height-1) {
+			option3 = UNREACHABLE;
+		}
+		else {
+			option3 = costMap[x-1][y+1];
+		}
+		// Seams are traced along the cheapest accumulated cost of the neighbors, without the forward energy terms - as findKSeams does.
+		backMap[x][y] = cheapestDirection(option1, option2, option3);
 		
-		int width = getWidth(image);
-		int height = getHeight(image);
-		Pixel[][] newImage = new Pixel[height][width-seamsIndices.length];
-		int columnIndex=0;
-		for(int newColumnIndex=0;newColumnIndex<getWidth(newImage);newColumnIndex++) {
-			while(Services.arrayContains(seamsIndices,columnIndex)) {
-				columnIndex++;
+		if(withForwardEnergy) {
+			double cL=0, cU=0, cR=0;
+			if(gradients != null) {
+				cL = gradients.costLeft(x, y);
+				cU = gradients.costUp(x, y);
+				cR = gradients.costRight(x, y);
 			}
-			copyColumn(image, newImage, columnIndex, newColumnIndex);
-			columnIndex++;
-		}
-		return newImage;
-	}
-	
-	private static void copyColumn(Pixel[][] image, Pixel[][] newImage, int imageColumnIndex, int newImageColumnIndex) {
-		for(int i=0;i<getHeight(image);i++) {
-			newImage[i][newImageColumnIndex] = image[i][imageColumnIndex].returnCopy();
+			else if(y == 0) {
+				cR = Raster.singleDerivative(image.get(x-1, y), image.get(x, y+1));
+			}
+			else if(y == height-1) {
+				cL = Raster.singleDerivative(image.get(x-1, y), image.get(x, y-1));
+			}
+			else {
+				cU = Raster.singleDerivative(image.get(x, y+1), image.get(x, y-1));
+				cL = cU + Raster.singleDerivative(image.get(x-1, y), image.get(x, y-1));
+				cR = cU + Raster.singleDerivative(image.get(x-1, y), image.get(x, y+1));
+			}
+			
+			option1+=cL;
+			option2+=cU;
+			option3+=cR;
 		}
+
+		double cost = energy + Math.min(Math.min(option1, option2), option3);
+		costMap[x][y] = cost;
 	}
-	
+
+
 	/**
-	 * Decreases the width of an image using straight seams.
-	 * @param image
-	 * @param newWidth
-	 * @return
+	 * Updates a persistent energy map after a vertical seam was removed from the image.
+	 * Every row is compacted over the removed seam pixel, and only the band of columns whose
+	 * neighborhood touched the seam is recomputed - the rest of the map keeps its values.
+	 * @param energyMap The energy map before the removal. Its rows keep their original length, only the first getWidth(image) cells are valid.
+	 * @param image The image after the removal.
+	 * @param seam The removed seam.
+	 * @param withLocalEntropy
 	 */
-	public static Pixel[][] decreaseWidthStraightSeams(Pixel[][] image, int newWidth) {
-		double[][] energyMap = computeEnergyMap(image,false);
-		int width = getWidth(image);
-		int deltaColumns = width - newWidth;
-		//indices of the k min values
-		int[] indicesForRemoval = Services.bottomN(getSumsOfColumns(energyMap),deltaColumns);
-		Pixel[][] newImage = straightSeamsRemoval(image,indicesForRemoval);
-		return newImage;
+	static void updateEnergyMapVertical(double[][] energyMap, Raster image, int[] seam, boolean withLocalEntropy) {
+		updateEnergyMapVertical(energyMap, image, seam, withLocalEntropy, null);
 	}
-	
-	
+
 	/**
-	 * Decreases the height of an image using straight seams.
-	 * @param image
-	 * @param newHeight
-	 * @return
+	 * Updates a persistent energy map after a vertical seam was removed from the image and from its mask.
+	 * @param mask The image's mask after the removal, or null.
 	 */
-	public static Pixel[][] decreaseHeightStraightSeams(Pixel[][] image, int newHeight) {
-		Pixel[][] transposed = transposeImage(image);
-		transposed = decreaseWidthStraightSeams(transposed, newHeight);
-		return transposeImage(transposed);
+	private static void updateEnergyMapVertical(double[][] energyMap, Raster image, int[] seam, boolean withLocalEntropy, CarvingMask mask) {
+		int width = getWidth(image);
+		int height = getHeight(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.ENERGY_UPDATE, height);
+		try {
+			for(int y = 0; y < height; y++) {
+				System.arraycopy(energyMap[y], seam[y]+1, energyMap[y], seam[y], width-seam[y]);
+			}
+			recomputeEnergyBandVertical(energyMap, image, seam, withLocalEntropy, mask);
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
 	}
-	
-	
+
+
 	/**
-	 * Used for decreasing the size of an image - marks all pixels that belongs to a seam as null.
-	 * @param image
-	 * @param seam
+	 * Recomputes the energy of the pixels whose neighborhood touched a removed vertical seam.
+	 * @param energyMap An energy map that is already compacted over the seam.
+	 * @param image The image after the removal.
+	 * @param seam The removed seam, in the coordinates of the image after the removal - seam[y] is the column the pixel right of the seam moved to.
+	 * @param withLocalEntropy
 	 */
-	private static void markGeneralSeam(Pixel[][] image, Integer[] seam){
+	static void recomputeEnergyBandVertical(double[][] energyMap, Raster image, int[] seam, boolean withLocalEntropy) {
+		recomputeEnergyBandVertical(energyMap, image, seam, withLocalEntropy, null);
+	}
+
+	private static void recomputeEnergyBandVertical(double[][] energyMap, Raster image, int[] seam, boolean withLocalEntropy, CarvingMask mask) {
+		int width = getWidth(image);
 		int height = getHeight(image);
+		int radius = withLocalEntropy ? LocalEntropy.RADIUS : 1; // How far a pixel's energy window reaches.
+		double[] localEntropy = withLocalEntropy ? new double[width] : null;
+		// The window sums of LocalEntropy, reused by every row of the band.
+		int[] sums = withLocalEntropy ? new int[width] : null;
+		double[] entropySums = withLocalEntropy ? new double[width] : null;
+
 		for(int y = 0; y < height; y++) {
-			image[y][seam[y]] = null;
+			// The seam's leftmost and rightmost columns within the rows this pixel's window covers.
+			int minSeam = seam[y];
+			int maxSeam = seam[y];
+			for(int j = Math.max(0, y-radius); j <= Math.min(height-1, y+radius); j++) {
+				minSeam = Math.min(minSeam, seam[j]);
+				maxSeam = Math.max(maxSeam, seam[j]);
+			}
+			int from = Math.max(0, minSeam-radius);
+			int to = Math.min(width-1, maxSeam+radius-1);
+			if(withLocalEntropy) {
+				LocalEntropy.computeRow(image, y, from, to, localEntropy, sums, entropySums);
+			}
+			for(int x = from; x <= to; x++) {
+				energyMap[y][x] = mask != null && mask.isFixed(x, y) ? mask.fixedEnergy(x, y)
+						: computeEnergy(x, y, image, withLocalEntropy, withLocalEntropy ? localEntropy[x] : 0);
+			}
 		}
 	}
-	
-	
+
+
 	/**
-	 * Finds and returns k different seams using a given cost map.
-	 * @param costMap
-	 * @param k
-	 * @return
+	 * Updates a persistent energy map after a horizontal seam was removed from the image.
+	 * Every column is compacted over the removed seam pixel, and only the band of rows whose
+	 * neighborhood touched the seam is recomputed - the rest of the map keeps its values.
+	 * @param energyMap The energy map before the removal. Only the first getHeight(image) rows are valid afterwards.
+	 * @param image The image after the removal.
+	 * @param seam The removed seam, seam[x] is the removed row of column x.
+	 * @param withLocalEntropy
 	 */
-	private static Integer[][] findKSeams(double[][] costMap, int k) {
-		
-		int width = costMap[0].length;
-		int height = costMap.length;
-		Integer[][] seamsFound = new Integer[k][height];
-		Integer[] curSeam;
-		int minIndex = 0;
-		
-		// First find the k lowest cost indices at height: height-1, and sort from lowest to highest
-		int[] arr = Services.bottomN(costMap[height-1], k);
-		Integer[] arrInteger = new Integer[k];
-		for(int i = 0; i < k; i++) {
-			arrInteger[i] = (Integer)arr[i];
-		}
-		Arrays.sort(arrInteger);
-		for(int i = 0; i < k; i++) {
-			seamsFound[i][height-1] = (Integer)arrInteger[i];
-		}
-		
-		
-        for(int iter = 0; iter < k; iter++) {
-			double[] valuesArr = new double[3];
-        	minIndex = 0;
-        	curSeam = new Integer[height];
-        	curSeam[height-1] = seamsFound[iter][height-1];
-        	for(int y = height-2; y >= 0; y--) {
-        			if(curSeam[y+1] == 0) {
-        				valuesArr[0] = Double.MAX_VALUE;
-        				valuesArr[2] = costMap[y][curSeam[y + 1]+1];
-
-        			}
-        			else if(curSeam[y+1] == width - 1) {
-        				valuesArr[0] = costMap[y][curSeam[y+1]-1];
-        				valuesArr[2] = Double.MAX_VALUE;
-
-        			}
-        			else {
-        				valuesArr[0] = costMap[y][curSeam[y+1]-1];
-        				valuesArr[2] = costMap[y][curSeam[y+1]+1];
-        			}
-        			valuesArr[1] = costMap[y][curSeam[y+1]];
-        			if(costMap[y][curSeam[y+1]] == Double.MAX_VALUE && curSeam[y+1]+1 < width) {
-        				minIndex = curSeam[y+1]+1;
-        			}
-        			else {
-                		minIndex = curSeam[y+1] + Services.bottomN(valuesArr,1)[0]-1;
-        			}
-        			curSeam[y] = minIndex;
-            		//shift from minIndex - calculated with index of the minimum value of the values array
-            		costMap[y][minIndex] = Double.MAX_VALUE;
-        	}
-    		costMap[height-1][curSeam[height-1]] = Double.MAX_VALUE;
-        	seamsFound[iter] = curSeam;
-        }
-        return seamsFound;
-        
-		
+	static void updateEnergyMapHorizontal(double[][] energyMap, Raster image, int[] seam, boolean withLocalEntropy) {
+		updateEnergyMapHorizontal(energyMap, image, seam, withLocalEntropy, null);
 	}
-	
+
 	/**
-	 * Returns a new image without the marked seams (assuming already marked in the image).
-	 * @param image
-	 * @return
+	 * Updates a persistent energy map after a horizontal seam was removed from the image and from its mask.
+	 * @param mask The image's mask after the removal, or null.
 	 */
-	private static Pixel[][] removeMarkedPixels(Pixel[][] image){
+	private static void updateEnergyMapHorizontal(double[][] energyMap, Raster image, int[] seam, boolean withLocalEntropy, CarvingMask mask) {
 		int width = getWidth(image);
 		int height = getHeight(image);
-		Pixel[][] newImage = new Pixel[height][width-1];
-		
-		for(int y=0;y<height;y++) {
-			for(int newImageIndex=0,imageIndex=0;newImageIndex<width-1;newImageIndex++,imageIndex++) {
-				if(image[y][imageIndex] == null)
-					imageIndex++;
-				newImage[y][newImageIndex] = image[y][imageIndex].returnCopy();
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.ENERGY_UPDATE, width);
+		try {
+			// Row by row, so the compaction reads every row before it is overwritten.
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					if(y >= seam[x]) {
+						energyMap[y][x] = energyMap[y+1][x];
+					}
+				}
 			}
+			recomputeEnergyBandHorizontal(energyMap, image, seam, withLocalEntropy, mask);
+		}
+		finally {
+			CarvingMetrics.end(span);
 		}
-		return newImage;
 	}
-	
-	
+
+
 	/**
-	 * Adds or removes general seams from the image, using a generated cost map of the image.
-	 * @param image
-	 * @param newWidth
+	 * Recomputes the energy of the pixels whose neighborhood touched a removed horizontal seam.
+	 * @param energyMap An energy map that is already compacted over the seam.
+	 * @param image The image after the removal.
+	 * @param seam The removed seam, in the coordinates of the image after the removal - seam[x] is the row the pixel below the seam moved to.
 	 * @param withLocalEntropy
-	 * @param withForwardEnergy
-	 * @return
+	 * @param mask The image's mask after the removal, or null.
 	 */
-	private static Pixel[][] addOrRemoveVerticalSeam(Pixel[][] image, int newWidth, boolean withLocalEntropy, boolean withForwardEnergy){
+	private static void recomputeEnergyBandHorizontal(double[][] energyMap, Raster image, int[] seam, boolean withLocalEntropy, CarvingMask mask) {
 		int width = getWidth(image);
-		Pixel[][] newImage;
-		Integer[] seam;
-		Integer[][] kSeams = null; //Used for increasing image size.
-		int deltaColumns = width - newWidth;
-		boolean decreaseImage = deltaColumns > 0;
-		if(deltaColumns == 0) {
-			return image;
-		}
-		//first iteration
-		double[][] costMap = computeCostMap(image,withLocalEntropy,withForwardEnergy);
-		seam = findKSeams(costMap,1)[0];
-		if(decreaseImage) {
-			markGeneralSeam(image,seam);
-			newImage = removeMarkedPixels(image);
-		}
-		else {
-			deltaColumns *= -1;
-			kSeams = findKSeams(costMap,deltaColumns);
-			newImage = addVerticalSeam(image,kSeams[deltaColumns-1]);
-		}
-		deltaColumns--;
-		
-		while(deltaColumns > 0) {
-			costMap = computeCostMap(newImage,withLocalEntropy, withForwardEnergy);
-			seam = findKSeams(costMap,1)[0];
-			if(decreaseImage) {
-				markGeneralSeam(newImage,seam);
-				newImage = removeMarkedPixels(newImage);
+		int height = getHeight(image);
+		int radius = withLocalEntropy ? LocalEntropy.RADIUS : 1; // How far a pixel's energy window reaches.
+		double[] localEntropy = withLocalEntropy ? new double[height] : null;
+		// The window sums of LocalEntropy, reused by every column of the band.
+		int[] sums = withLocalEntropy ? new int[height] : null;
+		double[] entropySums = withLocalEntropy ? new double[height] : null;
+
+		for(int x = 0; x < width; x++) {
+			// The seam's top and bottom rows within the columns this pixel's window covers.
+			int minSeam = seam[x];
+			int maxSeam = seam[x];
+			for(int i = Math.max(0, x-radius); i <= Math.min(width-1, x+radius); i++) {
+				minSeam = Math.min(minSeam, seam[i]);
+				maxSeam = Math.max(maxSeam, seam[i]);
+			}
+			int from = Math.max(0, minSeam-radius);
+			int to = Math.min(height-1, maxSeam+radius-1);
+			if(withLocalEntropy) {
+				LocalEntropy.computeColumn(image, x, from, to, localEntropy, sums, entropySums);
 			}
-			else { // increase image size
-				newImage = addVerticalSeam(newImage,kSeams[deltaColumns-1]);
+			for(int y = from; y <= to; y++) {
+				energyMap[y][x] = mask != null && mask.isFixed(x, y) ? mask.fixedEnergy(x, y)
+						: computeEnergy(x, y, image, withLocalEntropy, withLocalEntropy ? localEntropy[y] : 0);
 			}
-			deltaColumns--;
 		}
-		
-		return newImage;
+	}
+
+
+	/**
+	 * Computes the cost map of the image.
+	 * For vertical seams the map is row-major and computed row by row, for horizontal seams it is column-major (costMap[x][y])
+	 * and computed column by column. Large maps are computed in parallel - every line is split into blocks,
+	 * since a line only depends on the one before it.
+	 * @param image
+	 * @param energyMap The image's energy map, only the cells inside the image's current bounds are used.
+	 * @param costMap Receives the cost map.
+	 * @param backMap Receives the backpointer of every cell, in the same layout as the cost map.
+	 * @param withForwardEnergy - calculate the cost map using the forward energy principle
+	 * @param horizontal Whether to compute the map for horizontal seams.
+	 */
+	static void computeCostMap(Raster image, double[][] energyMap, double[][] costMap, byte[][] backMap, boolean withForwardEnergy, boolean horizontal) {
+		computeCostMap(image, energyMap, costMap, backMap, withForwardEnergy, null, horizontal);
+	}
+
+	/**
+	 * Computes the cost map of the image, as computeCostMap does, reading the forward energy terms from precomputed planes.
+	 * @param gradients The image's forward energy planes for the seams' direction, or null to compute the terms per cell.
+	 */
+	static void computeCostMap(Raster image, double[][] energyMap, double[][] costMap, byte[][] backMap, boolean withForwardEnergy, ForwardGradients gradients, boolean horizontal) {
+		computeCostMap(image, energyMap, costMap, backMap, withForwardEnergy, gradients, null, horizontal);
+	}
+
+	/**
+	 * Computes the cost map of the image, as computeCostMap does, packing the backpointers of every line once it is done.
+	 * With the maps of rollingCostMap and rollingBackMap, the cost map holds two rows and the backpointers 2 bits per cell.
+	 * @param directions Receives the backpointers, or null to keep them in backMap only.
+	 */
+	static void computeCostMap(Raster image, double[][] energyMap, double[][] costMap, byte[][] backMap, boolean withForwardEnergy, ForwardGradients gradients, SeamDirections directions, boolean horizontal) {
+		computeCostMap(image, energyMap, null, costMap, backMap, withForwardEnergy, gradients, directions, horizontal);
+	}
+
+	/**
+	 * Computes the cost map of the image, as computeCostMap does, taking the energies from energyLine when it is given.
+	 * @param energyMap The energy map, or null with energyLine.
+	 * @param energyLine Computes every line's energies as the cost map reaches the line, or null to read them from energyMap.
+	 */
+	static void computeCostMap(Raster image, double[][] energyMap, EnergyLine energyLine, double[][] costMap, byte[][] backMap, boolean withForwardEnergy, ForwardGradients gradients, SeamDirections directions, boolean horizontal) {
+		int lines = horizontal ? getWidth(image) : getHeight(image);
+		int lineLength = horizontal ? getHeight(image) : getWidth(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.COST_MAP, (long)lines*lineLength);
+		try {
+			int blocks = Math.min(getParallelism(), lineLength/MIN_BLOCK_WIDTH);
+			if(blocks > 1 && (long)lines*lineLength >= PARALLEL_THRESHOLD) {
+				getPool().invoke(new CostMapTask(image, costMap, backMap, energyMap, energyLine, withForwardEnergy, gradients, directions, horizontal, blocks));
+				return;
+			}
+			for(int line = 0; line < lines; line++) {
+				computeCostLine(line, 0, lineLength, image, costMap, backMap, energyMap, energyLine, withForwardEnergy, gradients, horizontal);
+				if(directions != null) {
+					directions.setLine(line, backMap[line], lineLength);
+				}
+			}
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+
+	/**
+	 * @param lines
+	 * @param length
+	 * @return A cost map whose lines alternate between two rows - computeCostMap only reads the line before the one it computes,
+	 * and traceSeam only the last line, so the two rows are all they need.
+	 */
+	static double[][] rollingCostMap(int lines, int length) {
+		double[][] rows = {new double[length], new double[length]};
+		double[][] costMap = new double[lines][];
+		for(int line = 0; line < lines; line++) {
+			costMap[line] = rows[line%2];
+		}
+		return costMap;
+	}
+
+	/**
+	 * @param lines
+	 * @param length
+	 * @return A backpointer map whose lines all share a single row, for computeCostMap to pack into SeamDirections line by line.
+	 */
+	static byte[][] rollingBackMap(int lines, int length) {
+		byte[][] backMap = new byte[lines][];
+		Arrays.fill(backMap, new byte[length]);
+		return backMap;
+	}
+
+
+	/**
+	 * Computes the cost of the pixels (from..to-1, line), or of (line, from..to-1) for horizontal seams.
+	 */
+	static void computeCostLine(int line, int from, int to, Raster image, double[][] costMap, byte[][] backMap, double[][] energyMap, boolean withForwardEnergy, boolean horizontal) {
+		computeCostLine(line, from, to, image, costMap, backMap, energyMap, null, withForwardEnergy, null, horizontal);
+	}
+
+	private static void computeCostLine(int line, int from, int to, Raster image, double[][] costMap, byte[][] backMap, double[][] energyMap, EnergyLine energyLine, boolean withForwardEnergy, ForwardGradients gradients, boolean horizontal) {
+		double[] energies = null;
+		if(energyLine != null) {
+			energies = energyLine.compute(image, line, from, to, horizontal);
+		}
+		if(horizontal) {
+			for(int y = from; y < to; y++) {
+				computeHorizontalCost(line, y, image, costMap, backMap, energies != null ? energies[y] : energyMap[y][line], withForwardEnergy, gradients);
+			}
+			return;
+		}
+		for(int x = from; x < to; x++) {
+			computeCost(x, line, image, costMap, backMap, energies != null ? energies[x] : energyMap[line][x], withForwardEnergy, gradients);
+		}
+	}
+
+	/**
+	 * The energies of a single line of the image, computed as the cost map reaches the line instead of kept in an energy map.
+	 * Low memory removals without local entropy use it (see rollsRows) - every seam then computes the energies again, which
+	 * costs about as much as the cost map itself, but no energy map is kept.
+	 */
+	static class EnergyLine {
+		private final double[] energies;
+		private final CarvingMask mask;
+
+		/**
+		 * @param length The longest line.
+		 * @param mask The mask the energies are fixed by, or null.
+		 */
+		EnergyLine(int length, CarvingMask mask) {
+			this.energies = new double[length];
+			this.mask = mask;
+		}
+
+		/**
+		 * Computes the energies of the cells from..to-1 of a line, as computeEnergyMap does without local entropy.
+		 * Blocks of the same line may be computed concurrently.
+		 * @return The line's energies, energies[i] is the energy of cell i.
+		 */
+		double[] compute(Raster image, int line, int from, int to, boolean horizontal) {
+			for(int i = from; i < to; i++) {
+				int x = horizontal ? line : i;
+				int y = horizontal ? i : line;
+				this.energies[i] = this.mask != null && this.mask.isFixed(x, y) ? this.mask.fixedEnergy(x, y) : computeEnergy(x, y, image, false, 0);
+			}
+			return this.energies;
+		}
+	}
+
+
+	/**
+	 * Computes a whole cost map inside the pool, line by line, forking one task per block of each line.
+	 */
+	private static class CostMapTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Raster image;
+		private final double[][] costMap;
+		private final byte[][] backMap;
+		private final double[][] energyMap;
+		private final EnergyLine energyLine;
+		private final boolean withForwardEnergy;
+		private final ForwardGradients gradients;
+		private final SeamDirections directions;
+		private final boolean horizontal;
+		private final int blocks;
+
+		CostMapTask(Raster image, double[][] costMap, byte[][] backMap, double[][] energyMap, EnergyLine energyLine, boolean withForwardEnergy, ForwardGradients gradients, SeamDirections directions, boolean horizontal, int blocks) {
+			this.image = image;
+			this.costMap = costMap;
+			this.backMap = backMap;
+			this.energyMap = energyMap;
+			this.energyLine = energyLine;
+			this.withForwardEnergy = withForwardEnergy;
+			this.gradients = gradients;
+			this.directions = directions;
+			this.horizontal = horizontal;
+			this.blocks = blocks;
+		}
+
+		@Override
+		protected void compute() {
+			int lines = horizontal ? getWidth(image) : getHeight(image);
+			int lineLength = horizontal ? getHeight(image) : getWidth(image);
+			RecursiveAction[] lineBlocks = new RecursiveAction[blocks];
+			for(int l = 0; l < lines; l++) {
+				final int line = l;
+				for(int b = 0; b < blocks; b++) {
+					final int from = (int)((long)lineLength*b/blocks);
+					final int to = (int)((long)lineLength*(b+1)/blocks);
+					lineBlocks[b] = new RecursiveAction() {
+						private static final long serialVersionUID = 1L;
+						@Override
+						protected void compute() {
+							computeCostLine(line, from, to, image, costMap, backMap, energyMap, energyLine, withForwardEnergy, gradients, horizontal);
+						}
+					};
+				}
+				invokeAll(lineBlocks); // Waits for the whole line before moving to the next one.
+				if(directions != null) {
+					directions.setLine(line, backMap[line], lineLength);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Runs action on every index in [0, count), splitting the range among the pool's threads when the work is large enough.
+	 * @param count
+	 * @param grain The fewest indices a single task handles.
+	 * @param cells The number of pixels the whole range touches, used to decide whether to go parallel.
+	 * @param action
+	 */
+	private static void forEach(int count, int grain, long cells, IntConsumer action) {
+		if(getParallelism() > 1 && count >= 2*grain && cells >= PARALLEL_THRESHOLD) {
+			getPool().invoke(new RangeTask(action, grain, 0, count));
+			return;
+		}
+		for(int i = 0; i < count; i++) {
+			action.accept(i);
+		}
+	}
+
+
+	/**
+	 * Runs an action on the indices [from, to), splitting the range in halves down to grain indices.
+	 */
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final IntConsumer action;
+		private final int grain;
+		private final int from;
+		private final int to;
+
+		RangeTask(IntConsumer action, int grain, int from, int to) {
+			this.action = action;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to-from <= grain) {
+				for(int i = from; i < to; i++) {
+					action.accept(i);
+				}
+				return;
+			}
+			int middle = (from+to) >>> 1;
+			invokeAll(new RangeTask(action, grain, from, middle), new RangeTask(action, grain, middle, to));
+		}
+	}
+
+
+	private static double[] getSumsOfColumns(double[][] energyMap) {
+		double[] sums = new double[energyMap[0].length];
+		for(int i=0;i<sums.length;i++) {
+			for(int j=0;j<energyMap.length;j++) {
+				sums[i] += energyMap[j][i];
+			}
+		}
+		return sums;
+	}
+	
+	private static double[] getSumsOfRows(double[][] energyMap) {
+		double[] sums = new double[energyMap.length];
+		for(int i=0;i<sums.length;i++) {
+			for(int j=0;j<energyMap[0].length;j++) {
+				sums[i] += energyMap[i][j];
+			}
+		}
+		return sums;
+	}
+	
+	private static Raster straightSeamsRemoval(Raster image, int[] seamsIndices){
+		
+		int width = getWidth(image);
+		int height = getHeight(image);
+		Raster newImage = new Raster(width-seamsIndices.length, height);
+		BitSet removed = Services.indexSet(seamsIndices);
+		int[] data = image.getData();
+		int[] newData = newImage.getData();
+		// Row by row, copying the runs of kept columns between the removed ones.
+		for(int y=0;y<height;y++) {
+			int offset = image.rowOffset(y);
+			int newOffset = newImage.rowOffset(y);
+			for(int x = removed.nextClearBit(0); x < width; ) {
+				int end = removed.nextSetBit(x);
+				if(end < 0) {
+					end = width;
+				}
+				System.arraycopy(data, offset+x, newData, newOffset, end-x);
+				newOffset += end-x;
+				x = removed.nextClearBit(end);
+			}
+		}
+		return newImage;
+	}
+	
+	private static Raster straightHorizontalSeamsRemoval(Raster image, int[] seamsIndices){
+		
+		int width = getWidth(image);
+		int height = getHeight(image);
+		Raster newImage = new Raster(width, height-seamsIndices.length);
+		BitSet removed = Services.indexSet(seamsIndices);
+		int rowIndex=removed.nextClearBit(0);
+		for(int newRowIndex=0;newRowIndex<getHeight(newImage);newRowIndex++) {
+			System.arraycopy(image.getData(), image.rowOffset(rowIndex), newImage.getData(), newImage.rowOffset(newRowIndex), width);
+			rowIndex=removed.nextClearBit(rowIndex+1);
+		}
+		return newImage;
+	}
+	
+	/**
+	 * Decreases the width of an image using straight seams.
+	 * @param image
+	 * @param newWidth
+	 * @return
+	 */
+	public static Pixel[][] decreaseWidthStraightSeams(Pixel[][] image, int newWidth) {
+		return decreaseWidthStraightSeams(Raster.fromPixels(image), newWidth).toPixels();
+	}
+	
+	
+	/**
+	 * Decreases the width of an image using straight seams.
+	 * @param image
+	 * @param newWidth
+	 * @return
+	 */
+	public static Raster decreaseWidthStraightSeams(Raster image, int newWidth) {
+		double[][] energyMap = computeEnergyMap(image,false);
+		int width = getWidth(image);
+		int deltaColumns = width - newWidth;
+		//indices of the k min values
+		int[] indicesForRemoval = Services.bottomN(getSumsOfColumns(energyMap),deltaColumns);
+		Raster newImage = straightSeamsRemoval(image,indicesForRemoval);
+		return newImage;
+	}
+	
+	
+	/**
+	 * Decreases the height of an image using straight seams.
+	 * @param image
+	 * @param newHeight
+	 * @return
+	 */
+	public static Pixel[][] decreaseHeightStraightSeams(Pixel[][] image, int newHeight) {
+		return decreaseHeightStraightSeams(Raster.fromPixels(image), newHeight).toPixels();
+	}
+	
+	
+	/**
+	 * Decreases the height of an image using straight seams.
+	 * @param image
+	 * @param newHeight
+	 * @return
+	 */
+	public static Raster decreaseHeightStraightSeams(Raster image, int newHeight) {
+		double[][] energyMap = computeEnergyMap(image,false);
+		int height = getHeight(image);
+		int deltaRows = height - newHeight;
+		//indices of the k min values
+		int[] indicesForRemoval = Services.bottomN(getSumsOfRows(energyMap),deltaRows);
+		Raster newImage = straightHorizontalSeamsRemoval(image,indicesForRemoval);
+		return newImage;
+	}
+	
+	
+	
+	
+	/**
+	 * Traces the cheapest seam of a cost map back from its last line, following the backpointers the cost map recorded.
+	 * For horizontal seams the maps are column-major, so the same walk runs over their columns.
+	 * @param costMap
+	 * @param backMap
+	 * @param length The number of valid cells in each line of the cost map.
+	 * @param seam Receives the seam, seam[line] is the seam's cell in that line.
+	 */
+	static void traceSeam(double[][] costMap, byte[][] backMap, int length, int[] seam) {
+		int lines = costMap.length;
+		seam[lines-1] = Services.indexOfMin(costMap[lines-1], 0, length);
+		for(int line = lines-1; line > 0; line--) {
+			seam[line-1] = seam[line] + backMap[line][seam[line]];
+		}
+	}
+
+	/**
+	 * Traces the cheapest seam of a cost map back from its last line, as traceSeam does, following packed backpointers.
+	 * @param costMap Only its last line is read.
+	 * @param directions
+	 * @param length
+	 * @param seam
+	 */
+	static void traceSeam(double[][] costMap, SeamDirections directions, int length, int[] seam) {
+		int lines = costMap.length;
+		seam[lines-1] = Services.indexOfMin(costMap[lines-1], 0, length);
+		for(int line = lines-1; line > 0; line--) {
+			seam[line-1] = seam[line] + directions.get(line, seam[line]);
+		}
+	}
+
+
+	/**
+	 * Finds the cheapest seam inside a corridor around a guide seam - the cost map is only computed for the cells
+	 * within corridorRadius of the guide in every line, and the cells right outside the corridor are blocked.
+	 * The guide's cells are clamped to the current line length, and to one cell from the previous line's corridor center,
+	 * so the corridors always form a connected seam.
+	 * @param image
+	 * @param energyMap
+	 * @param costMap Only the cells inside the corridor are computed, in the layout of computeCostMap.
+	 * @param backMap
+	 * @param guide The seam to search around. It may be the same array as seam.
+	 * @param corridorRadius
+	 * @param continuityWeight The cost added to a cell for every cell it is away from the corridor center, or 0.
+	 * @param penaltyMap Receives the penalized energies of the corridor cells, in the layout of energyMap. Unused when continuityWeight is 0.
+	 * @param withForwardEnergy
+	 * @param horizontal
+	 * @param seam Receives the seam.
+	 * @return The accumulated cost of the seam, penalties included.
+	 */
+	static double findCorridorSeam(Raster image, double[][] energyMap, double[][] costMap, byte[][] backMap, int[] guide, int corridorRadius,
+			double continuityWeight, double[][] penaltyMap, boolean withForwardEnergy, boolean horizontal, int[] seam) {
+		int lines = horizontal ? getWidth(image) : getHeight(image);
+		int length = horizontal ? getHeight(image) : getWidth(image);
+		double[][] costEnergyMap = continuityWeight > 0 ? penaltyMap : energyMap;
+		int previousFrom = 0;
+		int previousTo = -1;
+
+		for(int line = 0; line < lines; line++) {
+			int center = Math.min(length-1, Math.max(0, guide[line]));
+			if(line > 0) { // Keeps the corridor centers a connected seam, so every corridor can be reached from the one before it.
+				center = Math.max(seam[line-1]-1, Math.min(seam[line-1]+1, center));
+			}
+			seam[line] = center;
+			int from = Math.max(0, center-corridorRadius);
+			int to = Math.min(length-1, center+corridorRadius);
+			if(line > 0) {
+				// The previous line's cells outside its corridor hold stale costs - block the ones this line reads.
+				for(int i = Math.max(0, from-1); i <= Math.min(length-1, to+1); i++) {
+					if(i < previousFrom || i > previousTo) {
+						costMap[line-1][i] = Double.MAX_VALUE;
+					}
+				}
+			}
+			if(continuityWeight > 0) {
+				for(int i = from; i <= to; i++) {
+					double penalty = continuityWeight*Math.abs(i-center);
+					if(horizontal) {
+						penaltyMap[i][line] = energyMap[i][line] + penalty;
+					}
+					else {
+						penaltyMap[line][i] = energyMap[line][i] + penalty;
+					}
+				}
+			}
+			computeCostLine(line, from, to+1, image, costMap, backMap, costEnergyMap, withForwardEnergy, horizontal);
+			previousFrom = from;
+			previousTo = to;
+		}
+
+		// Trace back from the cheapest cell of the last corridor, as traceSeam does over the whole line.
+		double[] lastLine = costMap[lines-1];
+		int minIndex = Services.indexOfMin(lastLine, previousFrom, previousTo+1);
+		seam[lines-1] = minIndex;
+		for(int line = lines-1; line > 0; line--) {
+			seam[line-1] = seam[line] + backMap[line][seam[line]];
+		}
+		return lastLine[minIndex];
+	}
+
+
+	/**
+	 * Finds and returns k different seams using a given cost map.
+	 * Every seam found is blocked in the cost map (set to Double.MAX_VALUE), so the following seams go around it.
+	 * For horizontal seams the cost map is column-major, so the same search runs over its columns.
+	 * @param costMap
+	 * @param width The number of valid cells in each row of the cost map.
+	 * @param k
+	 * @return
+	 */
+	static int[][] findKSeams(double[][] costMap, int width, int k) {
+		
+		int height = costMap.length;
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.FIND_SEAMS, (long)k*height);
+		try {
+			int[][] seamsFound = new int[k][];
+			int[] curSeam;
+			int minIndex = 0;
+		
+			// First find the k lowest cost indices at height: height-1, and sort from lowest to highest
+			int[] lastRowIndices = Services.bottomN(costMap[height-1], width, k);
+			Arrays.sort(lastRowIndices);
+		
+	        for(int iter = 0; iter < k; iter++) {
+	        	curSeam = new int[height];
+	        	curSeam[height-1] = lastRowIndices[iter];
+	        	for(int y = height-2; y >= 0; y--) {
+	        			int x = curSeam[y+1];
+	        			if(costMap[y][x] == Double.MAX_VALUE && x+1 < width) {
+	        				minIndex = x+1;
+	        			}
+	        			else {
+	        				double left = x == 0 ? Double.MAX_VALUE : costMap[y][x-1];
+	        				double right = x == width-1 ? Double.MAX_VALUE : costMap[y][x+1];
+	                		minIndex = x + cheapestDirection(left, costMap[y][x], right);
+	        			}
+	        			curSeam[y] = minIndex;
+	            		costMap[y][minIndex] = Double.MAX_VALUE;
+	        	}
+	    		costMap[height-1][curSeam[height-1]] = Double.MAX_VALUE;
+	        	seamsFound[iter] = curSeam;
+	        }
+	        return seamsFound;
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+	
+	/**
+	 * Finds up to k pixel-disjoint seams of a cost map, to be removed together.
+	 * The search starts from the cheapest cells of the last line and walks up to the cheapest neighbor, like traceSeam,
+	 * and every seam found is blocked in the cost map (set to Double.MAX_VALUE) as in findKSeams, so the following seams go around it.
+	 * A seam that runs into blocked cells only is dropped, and its cells are restored.
+	 * The first seam found is always the one traceSeam finds.
+	 * For horizontal seams the cost map is column-major, so the same search runs over its columns.
+	 * @param costMap
+	 * @param width The number of valid cells in each row of the cost map.
+	 * @param k
+	 * @return The seams found - at least one and at most k.
+	 */
+	static int[][] findDisjointSeams(double[][] costMap, int width, int k) {
+		int height = costMap.length;
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.FIND_SEAMS, (long)k*height);
+		try {
+			int[] candidates = Services.bottomN(costMap[height-1], width, Math.min(width, DISJOINT_SEAM_CANDIDATES*k));
+			int[][] seamsFound = new int[k][];
+			int found = 0;
+			int[] curSeam = new int[height];
+			double[] blockedCosts = new double[height]; // The costs the current seam overwrote.
+
+			for(int c = 0; c < candidates.length && found < k; c++) {
+				int x = candidates[c];
+				curSeam[height-1] = x;
+				blockedCosts[height-1] = costMap[height-1][x];
+				costMap[height-1][x] = Double.MAX_VALUE;
+				int y = height-2;
+				for(; y >= 0; y--) {
+					double left = x == 0 ? Double.MAX_VALUE : costMap[y][x-1];
+					double middle = costMap[y][x];
+					double right = x == width-1 ? Double.MAX_VALUE : costMap[y][x+1];
+					if(left == Double.MAX_VALUE && middle == Double.MAX_VALUE && right == Double.MAX_VALUE) { // Boxed in by the seams already found.
+						break;
+					}
+					x += cheapestDirection(left, middle, right);
+					curSeam[y] = x;
+					blockedCosts[y] = costMap[y][x];
+					costMap[y][x] = Double.MAX_VALUE;
+				}
+				if(y >= 0) {
+					for(int j = y+1; j < height; j++) {
+						costMap[j][curSeam[j]] = blockedCosts[j];
+					}
+					continue;
+				}
+				seamsFound[found++] = curSeam.clone();
+			}
+			return Arrays.copyOf(seamsFound, found);
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+	
+	
+	/**
+	 * Finds up to k pixel-disjoint seams of a cost map, to be inserted together (see insertVerticalSeams).
+	 * The search starts from the cheapest cells of the last line and walks up to the cheapest neighbor, as findDisjointSeams does,
+	 * and every seam found is blocked in the cost map. A seam boxed in by the seams found before it is dropped and its cells
+	 * are freed again, and the search goes on from the next cheapest cell of the last line - so every seam is 8-connected,
+	 * and fewer than k are returned when the line runs out of cells to start from. The seams come cheapest start first.
+	 * For horizontal seams the cost map is column-major, so the same search runs over its columns.
+	 * @param costMap
+	 * @param width The number of valid cells in each row of the cost map.
+	 * @param k At most width.
+	 * @return
+	 */
+	static int[][] findInsertionSeams(double[][] costMap, int width, int k) {
+		int height = costMap.length;
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.FIND_SEAMS, (long)k*height);
+		try {
+			double[] lastRow = Arrays.copyOf(costMap[height-1], width); // The start order, before the seams block their cells.
+			int[] starts = Services.bottomN(lastRow, width, k);
+			boolean[] started = null; // The cells of the first starts, once more starts are needed.
+			int[][] seamsFound = new int[k][];
+			double[] blockedCosts = new double[height]; // The costs a seam blocked, restored when it is dropped.
+			int found = 0;
+
+			for(int s = 0; found < k; s++) {
+				if(s == starts.length) { // Some seams were dropped, the search goes on from the next cheapest cells.
+					if(started != null) {
+						break;
+					}
+					started = new boolean[width];
+					for(int x : starts) {
+						started[x] = true;
+					}
+					starts = Services.bottomN(lastRow, width, width);
+					s = 0;
+				}
+				int x = starts[s];
+				if(started != null && started[x]) {
+					continue;
+				}
+				int[] curSeam = new int[height];
+				int y = height-1;
+				for(; y >= 0; y--) {
+					double[] row = costMap[y];
+					if(y < height-1) {
+						double left = x == 0 ? Double.MAX_VALUE : row[x-1];
+						double right = x == width-1 ? Double.MAX_VALUE : row[x+1];
+						x += cheapestDirection(left, row[x], right);
+					}
+					if(x < 0 || x >= width || row[x] == Double.MAX_VALUE) { // Boxed in by the seams already found.
+						break;
+					}
+					curSeam[y] = x;
+					blockedCosts[y] = row[x];
+					row[x] = Double.MAX_VALUE;
+				}
+				if(y >= 0) {
+					for(int blocked = y+1; blocked < height; blocked++) {
+						costMap[blocked][curSeam[blocked]] = blockedCosts[blocked];
+					}
+					continue;
+				}
+				seamsFound[found++] = curSeam;
+			}
+			return found == k ? seamsFound : Arrays.copyOf(seamsFound, found);
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+
+	/**
+	 * Converts pixel-disjoint seams that were removed together to the coordinates of the image after the removal:
+	 * in every line, a seam's cell moves back by the number of removed seams before it.
+	 * @param seams
+	 */
+	private static void toCompactedCoordinates(int[][] seams) {
+		int[] shifts = new int[seams.length];
+		for(int line = 0; line < seams[0].length; line++) {
+			for(int i = 0; i < seams.length; i++) {
+				shifts[i] = 0;
+				for(int j = 0; j < seams.length; j++) {
+					if(seams[j][line] < seams[i][line]) {
+						shifts[i]++;
+					}
+				}
+			}
+			for(int i = 0; i < seams.length; i++) {
+				seams[i][line] -= shifts[i];
+			}
+		}
+	}
+	
+	
+	/**
+	 * Removes several pixel-disjoint vertical seams from the image and from its energy map together, in place.
+	 * The seams' cells must be the ones blocked in the cost map (see findDisjointSeams), so every row is compacted
+	 * past its blocked cells in a single pass. Afterwards the energy is recomputed around every seam.
+	 * @param image
+	 * @param energyMap
+	 * @param costMap
+	 * @param seams
+	 * @param withLocalEntropy
+	 * @param mask The image's mask, the seams are removed from it as well. Or null.
+	 */
+	private static void removeVerticalSeams(Raster image, double[][] energyMap, double[][] costMap, int[][] seams, boolean withLocalEntropy, CarvingMask mask) {
+		int width = getWidth(image);
+		int height = getHeight(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.REMOVE_SEAM, (long)width*height);
+		try {
+			int[] data = image.getData();
+		
+			forEach(height, MIN_ROWS_PER_TASK, (long)width*height, y -> {
+				int offset = image.rowOffset(y);
+				double[] costRow = costMap[y];
+				double[] energyRow = energyMap[y];
+				int newX = 0;
+				for(int x = 0; x < width; x++) {
+					if(costRow[x] != Double.MAX_VALUE) {
+						data[offset+newX] = data[offset+x];
+						energyRow[newX] = energyRow[x];
+						newX++;
+					}
+				}
+			});
+			image.setWidth(width-seams.length);
+			if(mask != null) {
+				mask.removeVerticalSeams(seams);
+			}
+			toCompactedCoordinates(seams);
+			for(int[] seam : seams) {
+				recomputeEnergyBandVertical(energyMap, image, seam, withLocalEntropy, mask);
+			}
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+	
+	
+	/**
+	 * Removes several pixel-disjoint horizontal seams from the image and from its energy map together, in place.
+	 * The seams' cells must be the ones blocked in the column-major cost map (see findDisjointSeams), so every column
+	 * is compacted past its blocked cells in a single pass. Afterwards the energy is recomputed around every seam.
+	 * @param image
+	 * @param energyMap
+	 * @param costMap
+	 * @param seams
+	 * @param withLocalEntropy
+	 * @param mask The image's mask, the seams are removed from it as well. Or null.
+	 */
+	private static void removeHorizontalSeams(Raster image, double[][] energyMap, double[][] costMap, int[][] seams, boolean withLocalEntropy, CarvingMask mask) {
+		int width = getWidth(image);
+		int height = getHeight(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.REMOVE_SEAM, (long)width*height);
+		try {
+			int stride = image.getStride();
+			int[] data = image.getData();
+			int blocks = (width+MIN_BLOCK_WIDTH-1)/MIN_BLOCK_WIDTH;
+		
+			forEach(blocks, 1, (long)width*height, b -> {
+				for(int x = b*MIN_BLOCK_WIDTH; x < Math.min(width, (b+1)*MIN_BLOCK_WIDTH); x++) {
+					double[] costColumn = costMap[x];
+					int newY = 0;
+					for(int y = 0; y < height; y++) {
+						if(costColumn[y] != Double.MAX_VALUE) {
+							data[newY*stride+x] = data[y*stride+x];
+							energyMap[newY][x] = energyMap[y][x];
+							newY++;
+						}
+					}
+				}
+			});
+			image.setHeight(height-seams.length);
+			if(mask != null) {
+				mask.removeHorizontalSeams(seams);
+			}
+			toCompactedCoordinates(seams);
+			for(int[] seam : seams) {
+				recomputeEnergyBandHorizontal(energyMap, image, seam, withLocalEntropy, mask);
+			}
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+	
+	
+	/**
+	 * Removes a vertical seam from the image in place - every row is shifted left past its seam pixel inside the same buffer,
+	 * and the image's width shrinks by one. Rows are shifted in parallel on large images.
+	 * @param image
+	 * @param seam
+	 */
+	static void removeVerticalSeam(Raster image, int[] seam){
+		int width = getWidth(image);
+		int height = getHeight(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.REMOVE_SEAM, (long)width*height);
+		try {
+			int[] data = image.getData();
+		
+			forEach(height, MIN_ROWS_PER_TASK, (long)width*height, y -> {
+				int offset = image.rowOffset(y);
+				int seamX = seam[y];
+				System.arraycopy(data, offset+seamX+1, data, offset+seamX, width-1-seamX);
+			});
+			image.setWidth(width-1);
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+	
+	
+	/**
+	 * Removes a horizontal seam from the image in place - in every column the pixels below the seam pixel move up by one row,
+	 * and the image's height shrinks by one. The columns are split into blocks that are shifted in parallel on large images.
+	 * @param image
+	 * @param seam seam[x] is the row of the seam pixel in column x.
+	 */
+	static void removeHorizontalSeam(Raster image, int[] seam){
+		int width = getWidth(image);
+		int height = getHeight(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.REMOVE_SEAM, (long)width*height);
+		try {
+			int[] data = image.getData();
+			int blocks = (width+MIN_BLOCK_WIDTH-1)/MIN_BLOCK_WIDTH;
+		
+			forEach(blocks, 1, (long)width*height, b -> {
+				int from = b*MIN_BLOCK_WIDTH;
+				int to = Math.min(width, from+MIN_BLOCK_WIDTH);
+				// Row by row, so every row is read before it is overwritten.
+				for(int y = 0; y < height-1; y++) {
+					int offset = image.rowOffset(y);
+					int nextOffset = image.rowOffset(y+1);
+					for(int x = from; x < to; x++) {
+						if(y >= seam[x]) {
+							data[offset+x] = data[nextOffset+x];
+						}
+					}
+				}
+			});
+			image.setHeight(height-1);
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+	
+	
+	/**
+	 * The state of a carving run that is kept between seams and between the width and the height passes.
+	 */
+	private static class CarvingState {
+		Raster image;
+		boolean ownsImage; // Whether image is a private working copy that can be changed in place.
+		double[][] energyMap; // The energy map of image, or null when it has to be recomputed.
+		int[][] integerEnergyMap; // The scaled energy map of image for IntegerKernels, or null when it has to be recomputed.
+		Consumer<int[][]> removalListener; // Notified of every removal, or null.
+		CarvingMask mask; // The image's mask, carved along with it, or null.
+		ObjIntConsumer<Raster> seamListener; // Called with the image and the number of seams after every removal or insertion, or null. May throw to stop the carving.
+
+		CarvingState(Raster image) {
+			this.image = image;
+		}
+
+		/**
+		 * Reports seams that were just removed from the image or inserted to it.
+		 */
+		void seamsDone(Raster image, int seams) {
+			if(seamListener != null) {
+				seamListener.accept(image, seams);
+			}
+		}
+
+		/**
+		 * Makes sure image is a private working copy, copying the caller's image on first use.
+		 */
+		Raster ownImage() {
+			if(!ownsImage) {
+				image = image.copy();
+				ownsImage = true;
+			}
+			return image;
+		}
+	}
+	
+	
+	/**
+	 * Adds or removes general seams from the image, using a generated cost map of the image.
+	 * The energy map is computed once for the whole run and updated around each removed seam.
+	 * @param state
+	 * @param newWidth
+	 * @param options
+	 */
+	private static void addOrRemoveVerticalSeam(CarvingState state, int newWidth, CarvingOptions options){
+		boolean withLocalEntropy = options.withLocalEntropy();
+		boolean withForwardEnergy = options.withForwardEnergy();
+		Raster image = state.image;
+		int width = getWidth(image);
+		int height = getHeight(image);
+		Raster newImage;
+		int deltaColumns = width - newWidth;
+		boolean decreaseImage = deltaColumns > 0;
+		if(deltaColumns == 0) {
+			return;
+		}
+		CarvingMask mask = state.mask;
+		if(decreaseImage && mask == null && options.withIntegerKernels() && IntegerKernels.supports(options, height)) {
+			removeVerticalSeamsInteger(state, deltaColumns, options);
+			return;
+		}
+		state.integerEnergyMap = null; // Falls behind the image from here on.
+		// With low memory, exact single seams keep two rows of the cost map and 2-bit backpointers,
+		// and without local entropy compute the energies line by line instead of keeping an energy map.
+		SeamDirections directions = decreaseImage && rollsRows(options) ? new SeamDirections(height,width) : null;
+		EnergyLine energyLine = directions != null && !withLocalEntropy ? new EnergyLine(width,mask) : null;
+		if(energyLine != null) {
+			state.energyMap = null;
+		}
+		else if(state.energyMap == null) {
+			state.energyMap = computeEnergyMap(image,withLocalEntropy,mask);
+		}
+		double[][] energyMap = state.energyMap;
+		double[][] costMap = directions != null ? rollingCostMap(height,width) : new double[height][width]; // Only the first getWidth(newImage) cells of each row are used.
+		byte[][] backMap = directions != null ? rollingBackMap(height,width) : new byte[height][width];
+		if(decreaseImage) {
+			// The only buffers of the run - seams are removed from them in place.
+			newImage = state.ownImage();
+			int[] seam = new int[height];
+			SeamPyramid pyramid = options.pyramidLevels() > 0 ? new SeamPyramid(newImage,options.pyramidLevels(),options.corridorRadius(),false,withForwardEnergy) : null;
+			// Kept up to date seam by seam, for the full cost maps of single seams.
+			ForwardGradients gradients = withForwardEnergy && pyramid == null && options.seamsPerPass() == 1 && directions == null ? new ForwardGradients(newImage,false) : null;
+			while(deltaColumns > 0) {
+				int seamsPerPass = Math.min(options.seamsPerPass(), deltaColumns);
+				if(seamsPerPass > 1) {
+					computeCostMap(newImage,energyMap,costMap,backMap,withForwardEnergy,false);
+					int[][] seams = findDisjointSeams(costMap,getWidth(newImage),seamsPerPass);
+					if(state.removalListener != null) {
+						state.removalListener.accept(seams);
+					}
+					removeVerticalSeams(newImage,energyMap,costMap,seams,withLocalEntropy,mask);
+					deltaColumns -= seams.length;
+					state.seamsDone(newImage,seams.length);
+					continue;
+				}
+				if(pyramid != null) {
+					pyramid.findSeam(newImage,energyMap,costMap,backMap,seam);
+				}
+				else if(directions != null) {
+					computeCostMap(newImage,energyMap,energyLine,costMap,backMap,withForwardEnergy,null,directions,false);
+					traceSeam(costMap,directions,getWidth(newImage),seam);
+				}
+				else {
+					computeCostMap(newImage,energyMap,costMap,backMap,withForwardEnergy,gradients,false);
+					traceSeam(costMap,backMap,getWidth(newImage),seam);
+				}
+				if(state.removalListener != null) {
+					state.removalListener.accept(new int[][] {seam});
+				}
+				removeVerticalSeam(newImage,seam);
+				if(mask != null) {
+					mask.removeVerticalSeams(new int[][] {seam});
+				}
+				if(energyMap != null) {
+					updateEnergyMapVertical(energyMap,newImage,seam,withLocalEntropy,mask);
+				}
+				if(gradients != null) {
+					gradients.removeSeam(newImage,seam);
+				}
+				deltaColumns--;
+				state.seamsDone(newImage,1);
+			}
+			return;
+		}
+		// Every batch inserts up to the current width in seams, larger enlargements repeat batches on the enlarged image.
+		deltaColumns *= -1;
+		newImage = image;
+		while(deltaColumns > 0) {
+			int batchWidth = getWidth(newImage);
+			if(newImage != image) {
+				energyMap = computeEnergyMap(newImage,withLocalEntropy,mask);
+				costMap = new double[height][batchWidth];
+				backMap = new byte[height][batchWidth];
+			}
+			computeCostMap(newImage,energyMap,costMap,backMap,withForwardEnergy,false);
+			int[][] seams = findInsertionSeams(costMap,batchWidth,Math.min(deltaColumns,batchWidth));
+			newImage = insertVerticalSeams(newImage,seams);
+			if(mask != null) {
+				mask.insertVerticalSeams(seams);
+			}
+			deltaColumns -= seams.length;
+			state.seamsDone(newImage,seams.length);
+		}
+		state.image = newImage;
+		state.ownsImage = true;
+		state.energyMap = null;
+	}
+	
+	
+	/**
+	 * @return Whether a removal with these options finds its seams with rolling cost rows - only exact single seams do,
+	 * the batch and pyramid searches read whole cost maps.
+	 */
+	private static boolean rollsRows(CarvingOptions options) {
+		return options.withLowMemory() && options.seamsPerPass() == 1 && options.pyramidLevels() == 0;
+	}
+
+
+	/**
+	 * Removes vertical seams one at a time with the int maps of IntegerKernels, which find the same seams as the double maps
+	 * up to ties the double sums round apart.
+	 * @param state
+	 * @param count The number of seams to remove.
+	 * @param options
+	 */
+	private static void removeVerticalSeamsInteger(CarvingState state, int count, CarvingOptions options) {
+		Raster image = state.ownImage();
+		int width = getWidth(image);
+		int height = getHeight(image);
+		if(state.integerEnergyMap == null) {
+			state.integerEnergyMap = IntegerKernels.computeEnergyMap(image);
+		}
+		state.energyMap = null; // Falls behind the image from here on.
+		int[][] energyMap = state.integerEnergyMap;
+		int[][] costMap = new int[height][width];
+		byte[][] backMap = new byte[height][width];
+		int[] seam = new int[height];
+		for(; count > 0; count--) {
+			IntegerKernels.computeCostMap(image,energyMap,costMap,backMap,options.withForwardEnergy(),false);
+			IntegerKernels.traceSeam(costMap,backMap,getWidth(image),seam);
+			if(state.removalListener != null) {
+				state.removalListener.accept(new int[][] {seam});
+			}
+			removeVerticalSeam(image,seam);
+			IntegerKernels.updateEnergyMapVertical(energyMap,image,seam);
+			state.seamsDone(image,1);
+		}
+	}
+
+
+	/**
+	 * Removes horizontal seams one at a time with the int maps of IntegerKernels, as removeVerticalSeamsInteger does.
+	 * @param state
+	 * @param count The number of seams to remove.
+	 * @param options
+	 */
+	private static void removeHorizontalSeamsInteger(CarvingState state, int count, CarvingOptions options) {
+		Raster image = state.ownImage();
+		int width = getWidth(image);
+		int height = getHeight(image);
+		if(state.integerEnergyMap == null) {
+			state.integerEnergyMap = IntegerKernels.computeEnergyMap(image);
+		}
+		state.energyMap = null; // Falls behind the image from here on.
+		int[][] energyMap = state.integerEnergyMap;
+		int[][] costMap = new int[width][height]; // Column-major, as for the double maps.
+		byte[][] backMap = new byte[width][height];
+		int[] seam = new int[width];
+		for(; count > 0; count--) {
+			IntegerKernels.computeCostMap(image,energyMap,costMap,backMap,options.withForwardEnergy(),true);
+			IntegerKernels.traceSeam(costMap,backMap,getHeight(image),seam);
+			removeHorizontalSeam(image,seam);
+			IntegerKernels.updateEnergyMapHorizontal(energyMap,image,seam);
+			state.seamsDone(image,1);
+		}
+	}
+
+
+	/**
+	 * Adds or removes general horizontal seams from the image, using a column-major cost map of the image.
+	 * Works on the row-major image directly, and reuses the energy map the width pass left behind.
+	 * @param state
+	 * @param newHeight
+	 * @param options
+	 */
+	private static void addOrRemoveHorizontalSeam(CarvingState state, int newHeight, CarvingOptions options){
+		boolean withLocalEntropy = options.withLocalEntropy();
+		boolean withForwardEnergy = options.withForwardEnergy();
+		Raster image = state.image;
+		int width = getWidth(image);
+		int height = getHeight(image);
+		Raster newImage;
+		int deltaRows = height - newHeight;
+		boolean decreaseImage = deltaRows > 0;
+		if(deltaRows == 0) {
+			return;
+		}
+		CarvingMask mask = state.mask;
+		if(decreaseImage && mask == null && options.withIntegerKernels() && IntegerKernels.supports(options, width)) {
+			removeHorizontalSeamsInteger(state, deltaRows, options);
+			return;
+		}
+		state.integerEnergyMap = null; // Falls behind the image from here on.
+		SeamDirections directions = decreaseImage && rollsRows(options) ? new SeamDirections(width,height) : null;
+		EnergyLine energyLine = directions != null && !withLocalEntropy ? new EnergyLine(height,mask) : null;
+		if(energyLine != null) {
+			state.energyMap = null;
+		}
+		else if(state.energyMap == null) {
+			state.energyMap = computeEnergyMap(image,withLocalEntropy,mask);
+		}
+		double[][] energyMap = state.energyMap;
+		double[][] costMap = directions != null ? rollingCostMap(width,height) : new double[width][height]; // Column-major, only the first getHeight(newImage) cells of each column are used.
+		byte[][] backMap = directions != null ? rollingBackMap(width,height) : new byte[width][height];
+		if(decreaseImage) {
+			newImage = state.ownImage();
+			int[] seam = new int[width];
+			SeamPyramid pyramid = options.pyramidLevels() > 0 ? new SeamPyramid(newImage,options.pyramidLevels(),options.corridorRadius(),true,withForwardEnergy) : null;
+			// Kept up to date seam by seam, for the full cost maps of single seams.
+			ForwardGradients gradients = withForwardEnergy && pyramid == null && options.seamsPerPass() == 1 && directions == null ? new ForwardGradients(newImage,true) : null;
+			while(deltaRows > 0) {
+				int seamsPerPass = Math.min(options.seamsPerPass(), deltaRows);
+				if(seamsPerPass > 1) {
+					computeCostMap(newImage,energyMap,costMap,backMap,withForwardEnergy,true);
+					int[][] seams = findDisjointSeams(costMap,getHeight(newImage),seamsPerPass);
+					removeHorizontalSeams(newImage,energyMap,costMap,seams,withLocalEntropy,mask);
+					deltaRows -= seams.length;
+					state.seamsDone(newImage,seams.length);
+					continue;
+				}
+				if(pyramid != null) {
+					pyramid.findSeam(newImage,energyMap,costMap,backMap,seam);
+				}
+				else if(directions != null) {
+					computeCostMap(newImage,energyMap,energyLine,costMap,backMap,withForwardEnergy,null,directions,true);
+					traceSeam(costMap,directions,getHeight(newImage),seam);
+				}
+				else {
+					computeCostMap(newImage,energyMap,costMap,backMap,withForwardEnergy,gradients,true);
+					traceSeam(costMap,backMap,getHeight(newImage),seam);
+				}
+				removeHorizontalSeam(newImage,seam);
+				if(mask != null) {
+					mask.removeHorizontalSeams(new int[][] {seam});
+				}
+				if(energyMap != null) {
+					updateEnergyMapHorizontal(energyMap,newImage,seam,withLocalEntropy,mask);
+				}
+				if(gradients != null) {
+					gradients.removeSeam(newImage,seam);
+				}
+				deltaRows--;
+				state.seamsDone(newImage,1);
+			}
+			return;
+		}
+		// Every batch inserts up to the current height in seams, larger enlargements repeat batches on the enlarged image.
+		deltaRows *= -1;
+		newImage = image;
+		while(deltaRows > 0) {
+			int batchHeight = getHeight(newImage);
+			if(newImage != image) {
+				energyMap = computeEnergyMap(newImage,withLocalEntropy,mask);
+				costMap = new double[width][batchHeight];
+				backMap = new byte[width][batchHeight];
+			}
+			computeCostMap(newImage,energyMap,costMap,backMap,withForwardEnergy,true);
+			int[][] seams = findInsertionSeams(costMap,batchHeight,Math.min(deltaRows,batchHeight));
+			newImage = insertHorizontalSeams(newImage,seams);
+			if(mask != null) {
+				mask.insertHorizontalSeams(seams);
+			}
+			deltaRows -= seams.length;
+			state.seamsDone(newImage,seams.length);
+		}
+		state.image = newImage;
+		state.ownsImage = true;
+		state.energyMap = null;
 	}
 	
 	
+	/**
+	 * Measures how far the pyramid search of the given options is from the exact search on an image -
+	 * both search the image's cheapest seam, and the error is the pyramid seam's extra cost relative to the exact seam's cost.
+	 * A flat image has a seam of cost 0, the error is then the pyramid seam's absolute extra cost, 0 when it is free as well.
+	 * @param image
+	 * @param options
+	 * @param horizontal Whether to compare horizontal seams.
+	 * @return 0 when the pyramid search finds a seam as cheap as the exact one, eg. 0.05 for a seam 5% more expensive.
+	 */
+	public static double pyramidSeamError(Raster image, CarvingOptions options, boolean horizontal) {
+		int lines = horizontal ? getWidth(image) : getHeight(image);
+		int length = horizontal ? getHeight(image) : getWidth(image);
+		double[][] energyMap = computeEnergyMap(image,options.withLocalEntropy());
+		double[][] costMap = new double[lines][length];
+		byte[][] backMap = new byte[lines][length];
+		int[] seam = new int[lines];
+
+		computeCostMap(image,energyMap,costMap,backMap,options.withForwardEnergy(),horizontal);
+		traceSeam(costMap,backMap,length,seam);
+		double exactCost = costMap[lines-1][seam[lines-1]];
+		SeamPyramid pyramid = new SeamPyramid(image,options.pyramidLevels(),options.corridorRadius(),horizontal,options.withForwardEnergy());
+		pyramid.findSeam(image,energyMap,costMap,backMap,seam);
+		double extraCost = pyramid.getSeamCost()-exactCost;
+		return exactCost == 0 ? extraCost : extraCost/exactCost;
+	}
+
+
 	/**
 	 * Inserts one vertical seam to an image.
 	 * @param image
 	 * @param seam
 	 * @return
 	 */
-	private static Pixel[][] addVerticalSeam(Pixel[][] image, Integer[] seam) {
+	static Raster addVerticalSeam(Raster image, int[] seam) {
 		int width = getWidth(image);
 		int height = getHeight(image);
-		Pixel[][] newImage = new Pixel[height][width+1];
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.INSERT_SEAM, (long)width*height);
+		try {
+			int[] data = image.getData();
+			Raster newImage = new Raster(width+1, height);
+			int[] newData = newImage.getData();
 		
-		for(int y = 0; y < height; y++) {
-			for(int x = 0; x < width+1; x++) {
+			for(int y = 0; y < height; y++) {
+				int offset = image.rowOffset(y);
+				int newOffset = newImage.rowOffset(y);
+				int seamX = seam[y];
+				// Pixels that are before the seam, including the seam pixel itself.
+				System.arraycopy(data, offset, newData, newOffset, seamX+1);
+				// Pixels after seam
+				System.arraycopy(data, offset+seamX, newData, newOffset+seamX+1, width-seamX);
 				if(WITH_INTERPOLATION) { // Blending added seam with adjacent pixels
-					if(x <= seam[y]) { // Pixels that are before the seam
-						newImage[y][x] = image[y][x].returnCopy();
+					int x = seamX+1;
+					if(x <= width-1) { // pixels next to the seam
+						int left = data[offset+x-1];
+						int right = data[offset+x];
+						newData[newOffset+x] = blend(left, right); //Finding the average color of adjacent pixels.
+					}
+				}
+			}
+			return newImage;
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+
+	/**
+	 * Inserts one horizontal seam to an image.
+	 * @param image
+	 * @param seam seam[x] is the row of the seam pixel in column x.
+	 * @return
+	 */
+	static Raster addHorizontalSeam(Raster image, int[] seam) {
+		int width = getWidth(image);
+		int height = getHeight(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.INSERT_SEAM, (long)width*height);
+		try {
+			Raster newImage = new Raster(width, height+1);
+		
+			for(int y = 0; y < height+1; y++) {
+				for(int x = 0; x < width; x++) {
+					if(y <= seam[x]) { // Pixels that are above the seam, including the seam pixel itself.
+						newImage.set(x, y, image.get(x, y));
 					}
-					else if (x == seam[y]+1 && x > 0 && x <= width-1) {  // pixels next to the seam
-						int red, green, blue; //Finding the average color of adjacent pixels.
-						red = (image[y][x-1].R() + image[y][x].R())/2;
-						green = (image[y][x-1].G() + image[y][x].G())/2;
-						blue = (image[y][x-1].B() + image[y][x].B())/2;
-						Pixel pixel = new Pixel(red, green, blue);
-						newImage[y][x] = pixel;
+					else if(WITH_INTERPOLATION && y <= height-1 && y == seam[x]+1) { // pixels next to the seam
+						int above = image.get(x, y-1);
+						int below = image.get(x, y);
+						newImage.set(x, y, blend(above, below)); //Finding the average color of adjacent pixels.
 					}
-					else { // Pixels after seam
-						newImage[y][x] = image[y][x-1].returnCopy();
+					else { // Pixels below the seam
+						newImage.set(x, y, image.get(x, y-1));
 					}
 				}
-				else { // No iterpolation
-					if(x <= seam[y]){ // Pixels that are before the seam
-						newImage[y][x] = image[y][x].returnCopy();
+			}
+			return newImage;
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+
+	/**
+	 * Inserts several vertical seams to an image in a single pass over its pixels, instead of a new image per seam.
+	 * Every seam pixel is followed by an inserted pixel, so in every row a seam lands at its column plus the number
+	 * of seams inserted left of it. The inserted pixel blends with its right neighbor, as in addVerticalSeam.
+	 * @param image
+	 * @param seams Pixel-disjoint seams in the image's coordinates (see findDisjointSeams).
+	 * @return A new raster, seams.length columns wider.
+	 */
+	static Raster insertVerticalSeams(Raster image, int[][] seams) {
+		int width = getWidth(image);
+		int height = getHeight(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.INSERT_SEAM, (long)width*height);
+		try {
+			int[] data = image.getData();
+			Raster newImage = new Raster(width+seams.length, height);
+			int[] newData = newImage.getData();
+			boolean[] onSeam = new boolean[width];
+
+			for(int y = 0; y < height; y++) {
+				for(int[] seam : seams) {
+					onSeam[seam[y]] = true;
+				}
+				int offset = image.rowOffset(y);
+				int newOffset = newImage.rowOffset(y);
+				for(int x = 0; x < width; x++) {
+					int pixel = data[offset+x];
+					newData[newOffset++] = pixel;
+					if(onSeam[x]) {
+						newData[newOffset++] = WITH_INTERPOLATION && x < width-1 ? blend(pixel, data[offset+x+1]) : pixel;
+						onSeam[x] = false;
 					}
-					else { // Pixels after seam
-						newImage[y][x] = image[y][x-1].returnCopy();
+				}
+			}
+			return newImage;
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+
+	/**
+	 * Inserts several horizontal seams to an image in a single pass over its pixels, instead of a new image per seam.
+	 * Every seam pixel is followed by an inserted pixel below it, so in every column a seam lands at its row plus the number
+	 * of seams inserted above it. The inserted pixel blends with the pixel below it, as in addHorizontalSeam.
+	 * @param image
+	 * @param seams Pixel-disjoint seams in the image's coordinates (see findDisjointSeams), seam[x] is the row of the seam pixel in column x.
+	 * @return A new raster, seams.length rows higher.
+	 */
+	static Raster insertHorizontalSeams(Raster image, int[][] seams) {
+		int width = getWidth(image);
+		int height = getHeight(image);
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.INSERT_SEAM, (long)width*height);
+		try {
+			int[] data = image.getData();
+			Raster newImage = new Raster(width, height+seams.length);
+			int[] newData = newImage.getData();
+			boolean[][] onSeam = new boolean[height][width];
+			for(int[] seam : seams) {
+				for(int x = 0; x < width; x++) {
+					onSeam[seam[x]][x] = true;
+				}
+			}
+			int[] shifts = new int[width]; // The number of pixels inserted above the current row, per column.
+
+			for(int y = 0; y < height; y++) {
+				int offset = image.rowOffset(y);
+				boolean[] seamRow = onSeam[y];
+				for(int x = 0; x < width; x++) {
+					int pixel = data[offset+x];
+					int newY = y+shifts[x];
+					newData[newImage.rowOffset(newY)+x] = pixel;
+					if(seamRow[x]) {
+						newData[newImage.rowOffset(newY+1)+x] = WITH_INTERPOLATION && y < height-1 ? blend(pixel, data[image.rowOffset(y+1)+x]) : pixel;
+						shifts[x]++;
 					}
 				}
 			}
+			return newImage;
 		}
-		return newImage;
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+
+	/**
+	 * @return The average color and alpha of two pixels, as the inserted pixels of a seam are filled.
+	 */
+	private static int blend(int argb, int other) {
+		int red = (Raster.red(argb) + Raster.red(other))/2;
+		int green = (Raster.green(argb) + Raster.green(other))/2;
+		int blue = (Raster.blue(argb) + Raster.blue(other))/2;
+		int alpha = (Raster.alpha(argb) + Raster.alpha(other))/2;
+		return Raster.pack(alpha, red, green, blue);
 	}
 
 
@@ -515,7 +1911,65 @@ public class ImageOps {
 	 * @param withForwardEnergy - calculate the cost map using the forward energy principle
 	 */
 	public static Pixel[][] changeWidthGeneralSeams(Pixel[][] image, int newWidth, boolean withLocalEntropy, boolean withForwardEnergy) {
-		return addOrRemoveVerticalSeam(image, newWidth, withLocalEntropy, withForwardEnergy);
+		return changeWidthGeneralSeams(Raster.fromPixels(image), newWidth, withLocalEntropy, withForwardEnergy).toPixels();
+	}
+	
+	
+	/**
+	 * Increases or decreases the width of an image to newWidth.
+	 * @param image
+	 * @param newWidth
+	 * @param withLocalEntropy
+	 * @return The updated image with a width of newWidth.
+	 * @param withForwardEnergy - calculate the cost map using the forward energy principle
+	 */
+	public static Raster changeWidthGeneralSeams(Raster image, int newWidth, boolean withLocalEntropy, boolean withForwardEnergy) {
+		return changeWidthGeneralSeams(image, newWidth, new CarvingOptions(withLocalEntropy, withForwardEnergy));
+	}
+	
+	
+	/**
+	 * Increases or decreases the width of an image to newWidth.
+	 * @param image
+	 * @param newWidth
+	 * @param options
+	 * @return The updated image with a width of newWidth.
+	 */
+	public static Raster changeWidthGeneralSeams(Raster image, int newWidth, CarvingOptions options) {
+		return changeWidthGeneralSeams(image, newWidth, options, (CarvingMask)null);
+	}
+	
+	
+	/**
+	 * Increases or decreases the width of an image to newWidth, going around the protected pixels of a mask and through its removed pixels.
+	 * @param image
+	 * @param newWidth
+	 * @param options
+	 * @param mask The image's mask, carved along with the image. Or null.
+	 * @return The updated image with a width of newWidth.
+	 */
+	public static Raster changeWidthGeneralSeams(Raster image, int newWidth, CarvingOptions options, CarvingMask mask) {
+		CarvingState state = new CarvingState(image);
+		state.mask = checkMask(image, mask);
+		addOrRemoveVerticalSeam(state, newWidth, options);
+		return state.image;
+	}
+	
+	
+	/**
+	 * Decreases or increases the width of an image to newWidth, reporting every removal to a listener.
+	 * @param image
+	 * @param newWidth
+	 * @param options
+	 * @param removalListener Receives the seams of every removal, in the coordinates of the image right before it -
+	 * one seam at a time, or several pixel-disjoint seams removed together when options.seamsPerPass() > 1.
+	 * @return The updated image with a width of newWidth.
+	 */
+	static Raster changeWidthGeneralSeams(Raster image, int newWidth, CarvingOptions options, Consumer<int[][]> removalListener) {
+		CarvingState state = new CarvingState(image);
+		state.removalListener = removalListener;
+		addOrRemoveVerticalSeam(state, newWidth, options);
+		return state.image;
 	}
 	
 	
@@ -528,9 +1982,198 @@ public class ImageOps {
 	 * @return The updated image with a height of newHeight.
 	 */
 	public static Pixel[][] changeHeightGeneralSeams(Pixel[][] image, int newHeight, boolean addLocalEntropy, boolean withForwardEnergy) {
-		Pixel[][] transposed = transposeImage(image);
-		transposed = addOrRemoveVerticalSeam(transposed, newHeight, addLocalEntropy, withForwardEnergy);
-		return transposeImage(transposed);
+		return changeHeightGeneralSeams(Raster.fromPixels(image), newHeight, addLocalEntropy, withForwardEnergy).toPixels();
+	}
+	
+	
+	/**
+	 * Increases or decreases the height of an image to newHeight.
+	 * @param image
+	 * @param newHeight
+	 * @param addLocalEntropy
+	 * @param withForwardEnergy - calculate the cost map using the forward energy principle
+	 * @return The updated image with a height of newHeight.
+	 */
+	public static Raster changeHeightGeneralSeams(Raster image, int newHeight, boolean addLocalEntropy, boolean withForwardEnergy) {
+		return changeHeightGeneralSeams(image, newHeight, new CarvingOptions(addLocalEntropy, withForwardEnergy));
+	}
+	
+	
+	/**
+	 * Increases or decreases the height of an image to newHeight.
+	 * @param image
+	 * @param newHeight
+	 * @param options
+	 * @return The updated image with a height of newHeight.
+	 */
+	public static Raster changeHeightGeneralSeams(Raster image, int newHeight, CarvingOptions options) {
+		return changeHeightGeneralSeams(image, newHeight, options, null);
+	}
+	
+	
+	/**
+	 * Increases or decreases the height of an image to newHeight, going around the protected pixels of a mask and through its removed pixels.
+	 * @param image
+	 * @param newHeight
+	 * @param options
+	 * @param mask The image's mask, carved along with the image. Or null.
+	 * @return The updated image with a height of newHeight.
+	 */
+	public static Raster changeHeightGeneralSeams(Raster image, int newHeight, CarvingOptions options, CarvingMask mask) {
+		CarvingState state = new CarvingState(image);
+		state.mask = checkMask(image, mask);
+		addOrRemoveHorizontalSeam(state, newHeight, options);
+		return state.image;
+	}
+	
+	
+	/**
+	 * Changes the width of an image to newWidth and then its height to newHeight.
+	 * The energy map the width pass leaves behind is reused by the height pass.
+	 * @param image
+	 * @param newWidth
+	 * @param newHeight
+	 * @param withLocalEntropy
+	 * @param withForwardEnergy - calculate the cost map using the forward energy principle
+	 * @return The updated image with a size of newWidth x newHeight.
+	 */
+	public static Pixel[][] changeSizeGeneralSeams(Pixel[][] image, int newWidth, int newHeight, boolean withLocalEntropy, boolean withForwardEnergy) {
+		return changeSizeGeneralSeams(Raster.fromPixels(image), newWidth, newHeight, withLocalEntropy, withForwardEnergy).toPixels();
+	}
+	
+	
+	/**
+	 * Changes the width of an image to newWidth and then its height to newHeight.
+	 * The energy map the width pass leaves behind is reused by the height pass.
+	 * @param image
+	 * @param newWidth
+	 * @param newHeight
+	 * @param withLocalEntropy
+	 * @param withForwardEnergy - calculate the cost map using the forward energy principle
+	 * @return The updated image with a size of newWidth x newHeight.
+	 */
+	public static Raster changeSizeGeneralSeams(Raster image, int newWidth, int newHeight, boolean withLocalEntropy, boolean withForwardEnergy) {
+		return changeSizeGeneralSeams(image, newWidth, newHeight, new CarvingOptions(withLocalEntropy, withForwardEnergy));
+	}
+	
+	
+	/**
+	 * Changes the width of an image to newWidth and then its height to newHeight.
+	 * The energy map the width pass leaves behind is reused by the height pass.
+	 * @param image
+	 * @param newWidth
+	 * @param newHeight
+	 * @param options
+	 * @return The updated image with a size of newWidth x newHeight.
+	 */
+	public static Raster changeSizeGeneralSeams(Raster image, int newWidth, int newHeight, CarvingOptions options) {
+		return changeSizeGeneralSeams(image, newWidth, newHeight, options, (CarvingMask)null);
+	}
+	
+	
+	/**
+	 * Changes the width of an image to newWidth and then its height to newHeight, going around the protected pixels of a mask
+	 * and through its removed pixels.
+	 * @param image
+	 * @param newWidth
+	 * @param newHeight
+	 * @param options
+	 * @param mask The image's mask, carved along with the image. Or null.
+	 * @return The updated image with a size of newWidth x newHeight.
+	 */
+	public static Raster changeSizeGeneralSeams(Raster image, int newWidth, int newHeight, CarvingOptions options, CarvingMask mask) {
+		return changeSizeGeneralSeams(image, newWidth, newHeight, options, mask, null);
+	}
+	
+	
+	/**
+	 * Changes the width of an image to newWidth and then its height to newHeight, reporting every removal and insertion to a listener.
+	 * @param image
+	 * @param newWidth
+	 * @param newHeight
+	 * @param options
+	 * @param mask The image's mask, carved along with the image. Or null.
+	 * @param seamListener Called on the carving thread with the image and the number of seams after every removal or insertion -
+	 * one seam at a time, or several when they are removed or inserted together. The image is the carving's working copy,
+	 * it must not be kept or changed. An exception the listener throws stops the carving.
+	 * @return The updated image with a size of newWidth x newHeight.
+	 */
+	static Raster changeSizeGeneralSeams(Raster image, int newWidth, int newHeight, CarvingOptions options, CarvingMask mask, ObjIntConsumer<Raster> seamListener) {
+		CarvingState state = new CarvingState(image);
+		state.mask = checkMask(image, mask);
+		state.seamListener = seamListener;
+		addOrRemoveVerticalSeam(state, newWidth, options);
+		addOrRemoveHorizontalSeam(state, newHeight, options);
+		return state.image;
+	}
+	
+	
+	/**
+	 * Changes the width of an image to newWidth and then its height to newHeight, handing the image between the passes to a listener.
+	 * @param image
+	 * @param newWidth
+	 * @param newHeight
+	 * @param options
+	 * @param widthPassListener Receives the image after the width pass. It is the carving's working copy, the height pass changes it.
+	 * @return The updated image with a size of newWidth x newHeight.
+	 */
+	static Raster changeSizeGeneralSeams(Raster image, int newWidth, int newHeight, CarvingOptions options, Consumer<Raster> widthPassListener) {
+		CarvingState state = new CarvingState(image);
+		addOrRemoveVerticalSeam(state, newWidth, options);
+		widthPassListener.accept(state.image);
+		addOrRemoveHorizontalSeam(state, newHeight, options);
+		return state.image;
+	}
+	
+	
+	/**
+	 * Removes the pixels a mask marks for removal, eg. an unwanted object, with as few seams as it takes.
+	 * The seams run across the removed region's thinner side - vertical seams when its widest row has fewer pixels than
+	 * its highest column, horizontal seams otherwise. Every pass removes as many seams as the region is thick, and passes
+	 * repeat until no removed pixel is left. The protected pixels of the mask are kept.
+	 * @param image
+	 * @param mask The image's mask, carved along with the image.
+	 * @param options
+	 * @param restoreSize Whether to enlarge the result back to the image's size, inserting seams around the protected pixels.
+	 * @return A new raster of the image without the removed pixels.
+	 */
+	public static Raster removeObject(Raster image, CarvingMask mask, CarvingOptions options, boolean restoreSize) {
+		if(mask == null) {
+			throw new IllegalArgumentException("Object removal needs a mask.");
+		}
+		CarvingState state = new CarvingState(image);
+		state.mask = checkMask(image, mask);
+		boolean horizontal = mask.maxRemovedPerColumn() < mask.maxRemovedPerRow();
+		while(mask.getRemovedPixels() > 0) {
+			int removedPixels = mask.getRemovedPixels();
+			if(horizontal) {
+				addOrRemoveHorizontalSeam(state, Math.max(1, getHeight(state.image)-mask.maxRemovedPerColumn()), options);
+			}
+			else {
+				addOrRemoveVerticalSeam(state, Math.max(1, getWidth(state.image)-mask.maxRemovedPerRow()), options);
+			}
+			if(mask.getRemovedPixels() == removedPixels) { // The approximate searches can miss the region, or the image is down to a single line.
+				break;
+			}
+		}
+		if(restoreSize) {
+			addOrRemoveVerticalSeam(state, getWidth(image), options);
+			addOrRemoveHorizontalSeam(state, getHeight(image), options);
+		}
+		return state.ownImage();
+	}
+	
+	
+	/**
+	 * @param image
+	 * @param mask
+	 * @return The mask, if it is null or of the image's size.
+	 */
+	private static CarvingMask checkMask(Raster image, CarvingMask mask) {
+		if(mask != null && (mask.getWidth() != getWidth(image) || mask.getHeight() != getHeight(image))) {
+			throw new IllegalArgumentException("The mask is "+mask.getWidth()+"x"+mask.getHeight()+", the image is "+getWidth(image)+"x"+getHeight(image)+".");
+		}
+		return mask;
 	}
 	
-}
+}
\ No newline at end of file
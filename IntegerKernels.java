@@ -0,0 +1,357 @@
+package seam_carving;
+
+import java.util.Arrays;
+
+/**
+ * Integer versions of the energy and cost map kernels of ImageOps, for carving with int maps instead of double maps.
+ * Every energy of ImageOps is an average of singleDerivative()s - a sum of three channel differences divided by 3,
+ * averaged over 1, 2, 3, 5 or 8 neighbors - so SCALE times an energy is an exact integer, and so are the forward energy terms.
+ * The int maps hold exactly SCALE times the values the double maps approximate, and the cost sums are exact,
+ * at half the memory traffic of the double maps. The interior of every energy row is a branch-free loop of int
+ * differences over channel planes, and the interior of every cost row a loop of int minimums. They are plain scalar loops -
+ * there are no Vector API kernels, and whether the JIT vectorizes the loops is not checked.
+ *
+ * The double kernels stay the reference implementation - see SeamCarvingCheck for the comparison of the two.
+ * Local entropy is not a sum of channel differences, so it has no integer kernel, and the cost sums must fit an int (see supports()).
+ */
+class IntegerKernels {
+
+	static final int SCALE = 360; // The integer maps hold SCALE times the energies - 3 channels times 120, a multiple of every neighbor count.
+	private static final int NEIGHBOR_SCALE = SCALE/3;
+	private static final int MAX_ENERGY = 3*255*NEIGHBOR_SCALE; // The largest scaled energy, and the largest scaled singleDerivative.
+	private static final int UNREACHABLE = Integer.MAX_VALUE; // The cost of stepping out of the image, as in ImageOps.
+
+	/**
+	 * @param options
+	 * @param lines The number of lines a seam crosses.
+	 * @return Whether the integer kernels can carve with these options - without local entropy,
+	 * one exact seam at a time, and with cost sums that cannot overflow an int.
+	 */
+	static boolean supports(CarvingOptions options, int lines) {
+		long maxLineCost = MAX_ENERGY + (options.withForwardEnergy() ? 2L*MAX_ENERGY : 0);
+		return !options.withLocalEntropy() && options.seamsPerPass() == 1 && options.pyramidLevels() == 0
+				&& lines*maxLineCost < UNREACHABLE;
+	}
+
+	/**
+	 * @return The sum of the absolute channel differences of two pixels - 3 times Raster.singleDerivative.
+	 */
+	private static int derivative(int argb, int other) {
+		return Math.abs(Raster.red(argb) - Raster.red(other)) + Math.abs(Raster.green(argb) - Raster.green(other))
+				+ Math.abs(Raster.blue(argb) - Raster.blue(other));
+	}
+
+	/**
+	 * @return The scaled energy of pixel (x,y), for any pixel - the general form the interior loop of computeEnergyMap specializes.
+	 */
+	private static int energyAt(Raster image, int x, int y) {
+		int pixel = image.get(x, y);
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int sum = 0;
+		int n = 0; // Number of neighbors.
+		for(int i = -1; i < 2; i++) {
+			for(int j = -1; j < 2; j++) {
+				if(x+i < 0 || x+i >= width || y+j < 0 || y+j >= height || (i == 0 && j == 0)) {
+					continue;
+				}
+				sum += derivative(pixel, image.get(x+i, y+j));
+				n++;
+			}
+		}
+		return n == 0 ? 0 : sum*(NEIGHBOR_SCALE/n);
+	}
+
+	/**
+	 * Computes the scaled energy map of the image.
+	 * The interior rows are computed from three rolling rows of red, green and blue planes, the border pixels one by one.
+	 * @param image
+	 * @return
+	 */
+	static int[][] computeEnergyMap(Raster image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.ENERGY_MAP, (long)width*height);
+		try {
+			int[][] map = new int[height][width];
+
+			if(width >= 3 && height >= 3) {
+				int[][] red = new int[3][width]; // Rows y-1, y and y+1, at index row%3.
+				int[][] green = new int[3][width];
+				int[][] blue = new int[3][width];
+				unpackRow(image, 0, red[0], green[0], blue[0]);
+				unpackRow(image, 1, red[1], green[1], blue[1]);
+				for(int y = 1; y < height-1; y++) {
+					int above = (y-1)%3;
+					int row = y%3;
+					int below = (y+1)%3;
+					unpackRow(image, y+1, red[below], green[below], blue[below]);
+					interiorEnergyRow(red[above], red[row], red[below], green[above], green[row], green[below],
+							blue[above], blue[row], blue[below], map[y], width);
+				}
+			}
+			// The border pixels, which have fewer neighbors.
+			for(int x = 0; x < width; x++) {
+				map[0][x] = energyAt(image, x, 0);
+				map[height-1][x] = energyAt(image, x, height-1);
+			}
+			for(int y = 1; y < height-1; y++) {
+				map[y][0] = energyAt(image, 0, y);
+				map[y][width-1] = energyAt(image, width-1, y);
+			}
+			return map;
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+	private static void unpackRow(Raster image, int y, int[] red, int[] green, int[] blue) {
+		int[] data = image.getData();
+		int offset = image.rowOffset(y);
+		for(int x = 0; x < red.length; x++) {
+			int pixel = data[offset+x];
+			red[x] = Raster.red(pixel);
+			green[x] = Raster.green(pixel);
+			blue[x] = Raster.blue(pixel);
+		}
+	}
+
+	/**
+	 * Computes the scaled energy of the pixels 1..width-2 of a row, which all have 8 neighbors.
+	 */
+	private static void interiorEnergyRow(int[] redAbove, int[] red, int[] redBelow, int[] greenAbove, int[] green, int[] greenBelow,
+			int[] blueAbove, int[] blue, int[] blueBelow, int[] energy, int width) {
+		for(int x = 1; x < width-1; x++) {
+			int r = red[x];
+			int g = green[x];
+			int b = blue[x];
+			int sum = Math.abs(r-redAbove[x-1]) + Math.abs(r-redAbove[x]) + Math.abs(r-redAbove[x+1])
+					+ Math.abs(r-red[x-1]) + Math.abs(r-red[x+1])
+					+ Math.abs(r-redBelow[x-1]) + Math.abs(r-redBelow[x]) + Math.abs(r-redBelow[x+1])
+					+ Math.abs(g-greenAbove[x-1]) + Math.abs(g-greenAbove[x]) + Math.abs(g-greenAbove[x+1])
+					+ Math.abs(g-green[x-1]) + Math.abs(g-green[x+1])
+					+ Math.abs(g-greenBelow[x-1]) + Math.abs(g-greenBelow[x]) + Math.abs(g-greenBelow[x+1])
+					+ Math.abs(b-blueAbove[x-1]) + Math.abs(b-blueAbove[x]) + Math.abs(b-blueAbove[x+1])
+					+ Math.abs(b-blue[x-1]) + Math.abs(b-blue[x+1])
+					+ Math.abs(b-blueBelow[x-1]) + Math.abs(b-blueBelow[x]) + Math.abs(b-blueBelow[x+1]);
+			energy[x] = sum*(NEIGHBOR_SCALE/8);
+		}
+	}
+
+	/**
+	 * Updates a persistent scaled energy map after a vertical seam was removed, as ImageOps.updateEnergyMapVertical does.
+	 * @param energyMap
+	 * @param image The image after the removal.
+	 * @param seam The removed seam.
+	 */
+	static void updateEnergyMapVertical(int[][] energyMap, Raster image, int[] seam) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.ENERGY_UPDATE, height);
+		try {
+			for(int y = 0; y < height; y++) {
+				System.arraycopy(energyMap[y], seam[y]+1, energyMap[y], seam[y], width-seam[y]);
+			}
+			for(int y = 0; y < height; y++) {
+				// The seam's leftmost and rightmost columns within the rows this pixel's window covers.
+				int minSeam = seam[y];
+				int maxSeam = seam[y];
+				for(int j = Math.max(0, y-1); j <= Math.min(height-1, y+1); j++) {
+					minSeam = Math.min(minSeam, seam[j]);
+					maxSeam = Math.max(maxSeam, seam[j]);
+				}
+				for(int x = Math.max(0, minSeam-1); x <= Math.min(width-1, maxSeam); x++) {
+					energyMap[y][x] = energyAt(image, x, y);
+				}
+			}
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+	/**
+	 * Updates a persistent scaled energy map after a horizontal seam was removed, as ImageOps.updateEnergyMapHorizontal does.
+	 * @param energyMap
+	 * @param image The image after the removal.
+	 * @param seam The removed seam, seam[x] is the removed row of column x.
+	 */
+	static void updateEnergyMapHorizontal(int[][] energyMap, Raster image, int[] seam) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.ENERGY_UPDATE, width);
+		try {
+			// Row by row, so the compaction reads every row before it is overwritten.
+			for(int y = 0; y < height; y++) {
+				for(int x = 0; x < width; x++) {
+					if(y >= seam[x]) {
+						energyMap[y][x] = energyMap[y+1][x];
+					}
+				}
+			}
+			for(int x = 0; x < width; x++) {
+				// The seam's top and bottom rows within the columns this pixel's window covers.
+				int minSeam = seam[x];
+				int maxSeam = seam[x];
+				for(int i = Math.max(0, x-1); i <= Math.min(width-1, x+1); i++) {
+					minSeam = Math.min(minSeam, seam[i]);
+					maxSeam = Math.max(maxSeam, seam[i]);
+				}
+				for(int y = Math.max(0, minSeam-1); y <= Math.min(height-1, maxSeam); y++) {
+					energyMap[y][x] = energyAt(image, x, y);
+				}
+			}
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+	/**
+	 * Computes the scaled cost map of the image, in the layout of ImageOps.computeCostMap - column-major for horizontal seams.
+	 * @param image
+	 * @param energyMap The scaled energy map.
+	 * @param costMap Receives the cost map.
+	 * @param backMap Receives the backpointer of every cell.
+	 * @param withForwardEnergy
+	 * @param horizontal
+	 */
+	static void computeCostMap(Raster image, int[][] energyMap, int[][] costMap, byte[][] backMap, boolean withForwardEnergy, boolean horizontal) {
+		int lines = horizontal ? image.getWidth() : image.getHeight();
+		int lineLength = horizontal ? image.getHeight() : image.getWidth();
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.COST_MAP, (long)lines*lineLength);
+		try {
+			for(int line = 0; line < lines; line++) {
+				if(horizontal) {
+					computeHorizontalCostLine(line, image, energyMap, costMap, backMap, withForwardEnergy);
+				}
+				else {
+					computeCostRow(line, image, energyMap, costMap, backMap, withForwardEnergy);
+				}
+			}
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+	private static void computeCostRow(int y, Raster image, int[][] energyMap, int[][] costMap, byte[][] backMap, boolean withForwardEnergy) {
+		int width = image.getWidth();
+		int[] energy = energyMap[y];
+		int[] cost = costMap[y];
+		byte[] back = backMap[y];
+		if(y == 0) {
+			System.arraycopy(energy, 0, cost, 0, width);
+			Arrays.fill(back, 0, width, (byte)0);
+			return;
+		}
+		int[] previous = costMap[y-1];
+		for(int x = 0; x < width; x++) {
+			int option1 = x == 0 ? UNREACHABLE : previous[x-1];
+			int option3 = x == width-1 ? UNREACHABLE : previous[x+1];
+			back[x] = cheapestDirection(option1, previous[x], option3);
+		}
+		if(!withForwardEnergy) {
+			cost[0] = energy[0] + (width > 1 ? Math.min(previous[0], previous[1]) : previous[0]);
+			for(int x = 1; x < width-1; x++) {
+				cost[x] = energy[x] + Math.min(Math.min(previous[x-1], previous[x]), previous[x+1]);
+			}
+			if(width > 1) {
+				cost[width-1] = energy[width-1] + Math.min(previous[width-2], previous[width-1]);
+			}
+			return;
+		}
+		for(int x = 0; x < width; x++) {
+			int option1 = x == 0 ? UNREACHABLE : previous[x-1];
+			int option2 = previous[x];
+			int option3 = x == width-1 ? UNREACHABLE : previous[x+1];
+			if(x == 0) {
+				option3 += width > 1 ? NEIGHBOR_SCALE*derivative(image.get(x, y-1), image.get(x+1, y)) : 0;
+			}
+			else if(x == width-1) {
+				option1 += NEIGHBOR_SCALE*derivative(image.get(x, y-1), image.get(x-1, y));
+			}
+			else {
+				int cU = NEIGHBOR_SCALE*derivative(image.get(x+1, y), image.get(x-1, y));
+				option1 += cU + NEIGHBOR_SCALE*derivative(image.get(x, y-1), image.get(x-1, y));
+				option2 += cU;
+				option3 += cU + NEIGHBOR_SCALE*derivative(image.get(x, y-1), image.get(x+1, y));
+			}
+			cost[x] = energy[x] + Math.min(Math.min(option1, option2), option3);
+		}
+	}
+
+	private static void computeHorizontalCostLine(int x, Raster image, int[][] energyMap, int[][] costMap, byte[][] backMap, boolean withForwardEnergy) {
+		int height = image.getHeight();
+		int[] cost = costMap[x];
+		byte[] back = backMap[x];
+		if(x == 0) {
+			for(int y = 0; y < height; y++) {
+				cost[y] = energyMap[y][0];
+				back[y] = 0;
+			}
+			return;
+		}
+		int[] previous = costMap[x-1];
+		for(int y = 0; y < height; y++) {
+			int option1 = y == 0 ? UNREACHABLE : previous[y-1];
+			int option2 = previous[y];
+			int option3 = y == height-1 ? UNREACHABLE : previous[y+1];
+			back[y] = cheapestDirection(option1, option2, option3);
+			if(withForwardEnergy) {
+				if(y == 0) {
+					option3 += height > 1 ? NEIGHBOR_SCALE*derivative(image.get(x-1, y), image.get(x, y+1)) : 0;
+				}
+				else if(y == height-1) {
+					option1 += NEIGHBOR_SCALE*derivative(image.get(x-1, y), image.get(x, y-1));
+				}
+				else {
+					int cU = NEIGHBOR_SCALE*derivative(image.get(x, y+1), image.get(x, y-1));
+					option1 += cU + NEIGHBOR_SCALE*derivative(image.get(x-1, y), image.get(x, y-1));
+					option2 += cU;
+					option3 += cU + NEIGHBOR_SCALE*derivative(image.get(x-1, y), image.get(x, y+1));
+				}
+			}
+			cost[y] = energyMap[y][x] + Math.min(Math.min(option1, option2), option3);
+		}
+	}
+
+	/**
+	 * @return The offset of the cheapest of three options - -1, 0 or +1. Ties go to the first of them, as in ImageOps.
+	 */
+	private static byte cheapestDirection(int option1, int option2, int option3) {
+		int index = 0;
+		int min = option1;
+		if(option2 < min) {
+			index = 1;
+			min = option2;
+		}
+		if(option3 < min) {
+			index = 2;
+		}
+		return (byte)(index-1);
+	}
+
+	/**
+	 * Traces the cheapest seam of a scaled cost map, as ImageOps.traceSeam does.
+	 * @param costMap
+	 * @param backMap
+	 * @param length The number of valid cells in each line of the cost map.
+	 * @param seam Receives the seam.
+	 */
+	static void traceSeam(int[][] costMap, byte[][] backMap, int length, int[] seam) {
+		int lines = costMap.length;
+		int[] lastLine = costMap[lines-1];
+		int minIndex = 0;
+		for(int i = 1; i < length; i++) {
+			if(lastLine[i] < lastLine[minIndex]) {
+				minIndex = i;
+			}
+		}
+		seam[lines-1] = minIndex;
+		for(int line = lines-1; line > 0; line--) {
+			seam[line-1] = seam[line] + backMap[line][seam[line]];
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package seam_carving;
+
+import java.util.Arrays;
+
+/**
+ * Computes H_xy - the local entropy of the pixels over a 9x9 window, as described in the document.
+ *
+ * With p = g/P for every grayscale value g in the window, where P is the window's grayscale sum normalized to a 9x9 window,
+ * H = -sum(p*log2(p)) = (S*log2(P) - T)/P, where S = sum(g) and T = sum(g*log2(g)).
+ * Both sums are kept as running window sums - per column over 9 rows, and along each row over 9 columns -
+ * so every step adds one column and drops one, and g*log2(g) is read from a table of the 256 grayscale levels.
+ * The cost per pixel therefore does not depend on the window size.
+ */
+public class LocalEntropy {
+
+	public static final int RADIUS = 4; // The window is (2*RADIUS+1)x(2*RADIUS+1).
+	private static final int WINDOW_AREA = (2*RADIUS+1)*(2*RADIUS+1);
+	private static final double LOG_2 = Math.log(2);
+	private static final double[] G_LOG_G = new double[256]; // g*log2(g) for every grayscale level, 0*log2(0) taken as 0.
+
+	static {
+		for(int g = 1; g < 256; g++) {
+			G_LOG_G[g] = g*Math.log(g)/LOG_2;
+		}
+	}
+
+	/**
+	 * Computes the local entropy of every pixel in the image.
+	 * The column sums slide down the image, so each pixel is added and dropped once per column.
+	 * @param image
+	 * @return The local entropy map.
+	 */
+	public static double[][] computeMap(Raster image) {
+		return computeMap(image, null);
+	}
+
+	/**
+	 * Computes the local entropy of every pixel in the image, except the pixels with a fixed energy in a mask.
+	 * The windows still slide over the masked pixels, only the entropy of a masked pixel is not evaluated - it is left 0.
+	 * @param image
+	 * @param mask The image's mask, or null.
+	 * @return The local entropy map.
+	 */
+	static double[][] computeMap(Raster image, CarvingMask mask) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		CarvingMetrics.Span span = CarvingMetrics.begin(CarvingMetrics.Phase.LOCAL_ENTROPY, (long)width*height);
+		try {
+			double[][] map = new double[height][width];
+			int[] columnSums = new int[width];
+			double[] columnEntropySums = new double[width];
+
+			// The column sums of the window around row 0.
+			for(int y = 0; y <= Math.min(height-1, RADIUS); y++) {
+				addRow(image, y, 0, width-1, columnSums, columnEntropySums, 1);
+			}
+			for(int y = 0; y < height; y++) {
+				slideRow(width, height, y, 0, width-1, columnSums, columnEntropySums, map[y], mask != null ? mask.row(y) : null);
+				if(y+RADIUS+1 < height) {
+					addRow(image, y+RADIUS+1, 0, width-1, columnSums, columnEntropySums, 1);
+				}
+				if(y-RADIUS >= 0) {
+					addRow(image, y-RADIUS, 0, width-1, columnSums, columnEntropySums, -1);
+				}
+			}
+			return map;
+		}
+		finally {
+			CarvingMetrics.end(span);
+		}
+	}
+
+	/**
+	 * Computes the local entropy of the pixels (from..to, y).
+	 * @param image
+	 * @param y
+	 * @param from The first column to compute.
+	 * @param to The last column to compute.
+	 * @param row Receives the entropy of pixel (x,y) at row[x].
+	 */
+	public static void computeRow(Raster image, int y, int from, int to, double[] row) {
+		computeRow(image, y, from, to, row, new int[image.getWidth()], new double[image.getWidth()]);
+	}
+
+	/**
+	 * Computes the local entropy of the pixels (from..to, y), as computeRow does, in scratch buffers the caller reuses across rows.
+	 * Only the cells of the columns the window reaches are cleared and used.
+	 * @param columnSums Scratch, at least the image's width long.
+	 * @param columnEntropySums Scratch, at least the image's width long.
+	 */
+	static void computeRow(Raster image, int y, int from, int to, double[] row, int[] columnSums, double[] columnEntropySums) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int first = Math.max(0, from-RADIUS);
+		int last = Math.min(width-1, to+RADIUS);
+		Arrays.fill(columnSums, first, last+1, 0);
+		Arrays.fill(columnEntropySums, first, last+1, 0);
+
+		for(int j = Math.max(0, y-RADIUS); j <= Math.min(height-1, y+RADIUS); j++) {
+			addRow(image, j, first, last, columnSums, columnEntropySums, 1);
+		}
+		slideRow(width, height, y, from, to, columnSums, columnEntropySums, row, null);
+	}
+
+	/**
+	 * Computes the local entropy of the pixels (x, from..to).
+	 * The same as computeRow, with the window sliding down the column.
+	 * @param image
+	 * @param x
+	 * @param from The first row to compute.
+	 * @param to The last row to compute.
+	 * @param column Receives the entropy of pixel (x,y) at column[y].
+	 */
+	public static void computeColumn(Raster image, int x, int from, int to, double[] column) {
+		computeColumn(image, x, from, to, column, new int[image.getHeight()], new double[image.getHeight()]);
+	}
+
+	/**
+	 * Computes the local entropy of the pixels (x, from..to), as computeColumn does, in scratch buffers the caller reuses across columns.
+	 * @param rowSums Scratch, at least the image's height long.
+	 * @param rowEntropySums Scratch, at least the image's height long.
+	 */
+	static void computeColumn(Raster image, int x, int from, int to, double[] column, int[] rowSums, double[] rowEntropySums) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int first = Math.max(0, from-RADIUS);
+		int last = Math.min(height-1, to+RADIUS);
+		Arrays.fill(rowSums, first, last+1, 0);
+		Arrays.fill(rowEntropySums, first, last+1, 0);
+
+		for(int y = first; y <= last; y++) {
+			int offset = image.rowOffset(y);
+			for(int i = Math.max(0, x-RADIUS); i <= Math.min(width-1, x+RADIUS); i++) {
+				int g = Raster.grayscaleValue(image.getData()[offset+i]);
+				rowSums[y] += g;
+				rowEntropySums[y] += G_LOG_G[g];
+			}
+		}
+		slideRow(height, width, x, from, to, rowSums, rowEntropySums, column, null);
+	}
+
+	/**
+	 * Adds (sign = 1) or drops (sign = -1) one image row to or from the column sums of the columns first..last.
+	 */
+	private static void addRow(Raster image, int y, int first, int last, int[] columnSums, double[] columnEntropySums, int sign) {
+		int[] data = image.getData();
+		int offset = image.rowOffset(y);
+		for(int x = first; x <= last; x++) {
+			int g = Raster.grayscaleValue(data[offset+x]);
+			columnSums[x] += sign*g;
+			columnEntropySums[x] += sign*G_LOG_G[g];
+		}
+	}
+
+	/**
+	 * Slides the window along row y from column from to column to, using the column sums of the rows around y.
+	 * Also used along a column, with width and height swapped and the row sums of the columns around it.
+	 * @param skip The mask states of the row (see CarvingMask.row), the entropy of its masked pixels is not evaluated. Or null.
+	 */
+	private static void slideRow(int width, int height, int y, int from, int to, int[] columnSums, double[] columnEntropySums, double[] row, byte[] skip) {
+		int rows = Math.min(height-1, y+RADIUS) - Math.max(0, y-RADIUS) + 1;
+		int sum = 0; // S
+		double entropySum = 0; // T
+		for(int x = Math.max(0, from-RADIUS); x <= Math.min(width-1, from+RADIUS); x++) {
+			sum += columnSums[x];
+			entropySum += columnEntropySums[x];
+		}
+		for(int x = from; x <= to; x++) {
+			if(x > from) {
+				if(x+RADIUS < width) {
+					sum += columnSums[x+RADIUS];
+					entropySum += columnEntropySums[x+RADIUS];
+				}
+				if(x-RADIUS-1 >= 0) {
+					sum -= columnSums[x-RADIUS-1];
+					entropySum -= columnEntropySums[x-RADIUS-1];
+				}
+			}
+			if(skip != null && skip[x] != CarvingMask.FREE) {
+				continue;
+			}
+			int n = rows*(Math.min(width-1, x+RADIUS) - Math.max(0, x-RADIUS) + 1); // Number of neighbors.
+			int normalization = WINDOW_AREA/n; // Normalize to a 9x9 window.
+			double p_sum = (double)sum*normalization;
+			double h = (sum*Math.log(p_sum)/LOG_2 - entropySum)/p_sum;
+			row[x] = h*normalization;
+		}
+	}
+}
@@ -0,0 +1,471 @@
+package seam_carving;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Carves images that do not fit in the heap - the pixels, the energy map and the seam backpointers live in memory-mapped files
+ * (see MappedGrid), and every pass streams through them row by row. The heap holds only a band of rows at a time,
+ * so its use depends on the image's width and not on its height - eg. a 20000x10000 PNG (200 megapixels, 800 MB of pixels)
+ * loads, carves and saves with -Xmx64m. The work directory needs about 13 bytes of disk space per pixel.
+ *
+ * The cost map is never stored - the dynamic programming keeps its last two rows on the heap and writes every row's backpointers
+ * to the mapped backpointer file, which the seam is then traced through. The per-pixel energy and cost definitions are ImageOps',
+ * applied to bands of rows, so the result is the same as changeWidthGeneralSeams with the same energy options.
+ *
+ * Only width decrease is supported - enlargement, horizontal seams and the batch and pyramid options stay with ImageOps.
+ * Only PNG and BMP images are read and saved. PNGs are decoded row by row with PngRowReader, which reads 8-bit and palette
+ * PNGs only, and BMPs a strip of rows at a time with ImageIO's reader, which seeks to every strip. The JPEG reader and writer
+ * hold the whole image (or, for progressive JPEGs, all its coefficients) in memory, which defeats the mapping, so JPEG and
+ * the other formats are rejected - convert them first.
+ * Usage: MappedCarver <input image> <new width> <energy type> <output image> [work directory]
+ */
+public class MappedCarver implements AutoCloseable {
+
+	private static final int BAND_ROWS = 64; // The rows whose energy is computed together, without the rows their windows reach.
+	private static final long STRIP_PIXELS = 1 << 22; // The most pixels of a BMP input decoded at once.
+	// The formats decoded a row or a strip of rows at a time in a single pass, and whose writers pull the rows one at a time.
+	private static final List<String> STREAMED_FORMATS = List.of("png", "bmp");
+
+	//props
+	private final CarvingOptions options;
+	private final File workDirectory;
+	private final int stride; // The original width, which the mapped rows keep.
+	private final int height;
+	private int width;
+	private final MappedGrid pixels;
+	private MappedGrid energyMap; // Created by the first carving, and updated around every seam afterwards.
+	private MappedGrid backMap;
+	// Heap buffers of a few rows, reused by every seam.
+	private final int[] bandPixels;
+	private final double[][] bandEnergy;
+	private final int[] bandSeam;
+	private final double[] rowEnergy;
+
+	//const
+	private MappedCarver(int width, int height, File workDirectory, CarvingOptions options) throws IOException {
+		int bandHeight = BAND_ROWS + 2*LocalEntropy.RADIUS;
+		this.options = options;
+		this.workDirectory = workDirectory;
+		this.stride = width;
+		this.width = width;
+		this.height = height;
+		this.pixels = new MappedGrid(File.createTempFile("pixels", ".grid", workDirectory), width, height, MappedGrid.INT);
+		this.bandPixels = new int[bandHeight*width];
+		this.bandEnergy = new double[bandHeight][width];
+		this.bandSeam = new int[bandHeight];
+		this.rowEnergy = new double[width];
+	}
+
+	/**
+	 * Decodes an image into a new mapped carver, in a single pass over the file.
+	 * @param image A PNG or BMP image.
+	 * @param workDirectory Where the mapped files are created.
+	 * @param options
+	 * @return
+	 * @throws IOException If the image cannot be read, or is in another format.
+	 */
+	public static MappedCarver load(File image, File workDirectory, CarvingOptions options) throws IOException {
+		try(ImageInputStream input = ImageLib.openImage(image)) {
+			ImageReader reader = ImageLib.readerOf(input, image);
+			MappedCarver carver = null;
+			boolean loaded = false;
+			try {
+				String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+				checkStreamed(format, image);
+				carver = new MappedCarver(reader.getWidth(0), reader.getHeight(0), workDirectory, options);
+				if(format.equals("png")) {
+					carver.readRows(image);
+				}
+				else {
+					carver.readStrips(reader);
+				}
+				loaded = true;
+				return carver;
+			} finally {
+				reader.dispose();
+				if(!loaded && carver != null) { // Deletes the mapped file of a failed load.
+					carver.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes a PNG into the mapped pixels row by row. ImageIO's PNG reader inflates all the rows before a strip to decode it,
+	 * so strips would take time quadratic in the height.
+	 * @param image
+	 * @throws IOException If the PNG cannot be read, or has a layout PngRowReader does not decode.
+	 */
+	private void readRows(File image) throws IOException {
+		try(PngRowReader reader = new PngRowReader(image)) {
+			int[] row = new int[this.stride];
+			for(int y = 0; y < this.height; y++) {
+				reader.readRow(row, 0);
+				this.pixels.writeRow(y, 0, row, 0, this.stride);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the image into the mapped pixels a strip of rows at a time - the BMP reader seeks to every strip's rows.
+	 * @param reader
+	 * @throws IOException
+	 */
+	private void readStrips(ImageReader reader) throws IOException {
+		int stripRows = (int)Math.max(1, STRIP_PIXELS/this.stride);
+		ImageReadParam param = reader.getDefaultReadParam();
+		for(int y = 0; y < this.height; y += stripRows) {
+			param.setSourceRegion(new Rectangle(0, y, this.stride, Math.min(stripRows, this.height-y)));
+			Raster strip = ImageLib.convertImageToRaster(reader.read(0, param));
+			for(int i = 0; i < strip.getHeight(); i++) {
+				this.pixels.writeRow(y+i, 0, strip.getData(), strip.rowOffset(i), this.stride);
+			}
+		}
+	}
+
+	/**
+	 * Copies a heap raster into a new mapped carver.
+	 * @param image
+	 * @param workDirectory Where the mapped files are created.
+	 * @param options
+	 * @return
+	 * @throws IOException
+	 */
+	public static MappedCarver of(Raster image, File workDirectory, CarvingOptions options) throws IOException {
+		MappedCarver carver = new MappedCarver(image.getWidth(), image.getHeight(), workDirectory, options);
+		for(int y = 0; y < image.getHeight(); y++) {
+			carver.pixels.writeRow(y, 0, image.getData(), image.rowOffset(y), image.getWidth());
+		}
+		return carver;
+	}
+
+	//funcs
+	public int getWidth() {
+		return this.width;
+	}
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Decreases the image's width to newWidth, one seam at a time.
+	 * @param newWidth
+	 * @throws IOException
+	 */
+	public void decreaseWidth(int newWidth) throws IOException {
+		if(newWidth < 1 || newWidth > this.width) {
+			throw new IllegalArgumentException("Mapped carving only decreases the width "+this.width+", got "+newWidth+".");
+		}
+		if(this.energyMap == null) {
+			this.energyMap = new MappedGrid(File.createTempFile("energy", ".grid", this.workDirectory), this.stride, this.height, MappedGrid.DOUBLE);
+			this.backMap = new MappedGrid(File.createTempFile("back", ".grid", this.workDirectory), this.stride, this.height, MappedGrid.BYTE);
+			computeEnergyMap();
+		}
+		int[] seam = new int[this.height];
+		while(this.width > newWidth) {
+			findSeam(seam);
+			removeSeam(seam);
+		}
+	}
+
+	/**
+	 * @return How far a pixel's energy window reaches.
+	 */
+	private int energyRadius() {
+		return this.options.withLocalEntropy() ? LocalEntropy.RADIUS : 1;
+	}
+
+	/**
+	 * Reads the rows from..to-1 into the heap band.
+	 * @return The band, as a raster whose row 0 is row from.
+	 */
+	private Raster readBand(int from, int to) {
+		for(int y = from; y < to; y++) {
+			this.pixels.readRow(y, 0, this.bandPixels, (y-from)*this.stride, this.width);
+		}
+		return new Raster(this.bandPixels, this.width, to-from, this.stride);
+	}
+
+	/**
+	 * Computes the whole energy map, a band of rows at a time. Every band is read with the rows its windows reach,
+	 * so its energy is what ImageOps.computeEnergyMap computes for the whole image.
+	 */
+	private void computeEnergyMap() {
+		boolean withLocalEntropy = this.options.withLocalEntropy();
+		int radius = energyRadius();
+		for(int y0 = 0; y0 < this.height; y0 += BAND_ROWS) {
+			int y1 = Math.min(this.height, y0+BAND_ROWS);
+			int first = Math.max(0, y0-radius);
+			double[][] energy = ImageOps.computeEnergyMap(readBand(first, Math.min(this.height, y1+radius)), withLocalEntropy);
+			for(int y = y0; y < y1; y++) {
+				this.energyMap.writeRow(y, 0, energy[y-first], 0, this.width);
+			}
+		}
+	}
+
+	/**
+	 * Computes the cost map row by row with ImageOps.computeCostLine, keeping only the last two rows,
+	 * and traces the cheapest seam through the backpointers written along the way.
+	 * @param seam Receives the seam.
+	 */
+	private void findSeam(int[] seam) {
+		boolean withForwardEnergy = this.options.withForwardEnergy();
+		int[] pairPixels = new int[2*this.stride]; // Rows y-1 and y, read only for the forward energy terms.
+		Raster pair = new Raster(pairPixels, this.width, 2, this.stride);
+		double[][] costRows = new double[2][this.stride];
+		double[][] energyRows = new double[2][this.stride];
+		byte[][] backRows = new byte[2][this.stride];
+
+		for(int y = 0; y < this.height; y++) {
+			int line = Math.min(y, 1); // The first row is computed as row 0, every other row as row 1 after the row before it.
+			if(withForwardEnergy) {
+				if(y > 1) {
+					System.arraycopy(pairPixels, this.stride, pairPixels, 0, this.width);
+				}
+				this.pixels.readRow(y, 0, pairPixels, line*this.stride, this.width);
+			}
+			this.energyMap.readRow(y, 0, energyRows[line], 0, this.width);
+			ImageOps.computeCostLine(line, 0, this.width, pair, costRows, backRows, energyRows, withForwardEnergy, false);
+			this.backMap.writeRow(y, 0, backRows[line], 0, this.width);
+			if(line == 1) {
+				double[] previous = costRows[0];
+				costRows[0] = costRows[1];
+				costRows[1] = previous;
+			}
+		}
+
+		// The same walk as ImageOps.traceSeam.
+		seam[this.height-1] = Services.indexOfMin(costRows[0], 0, this.width);
+		for(int y = this.height-1; y > 0; y--) {
+			seam[y-1] = seam[y] + this.backMap.getByte(seam[y], y);
+		}
+	}
+
+	/**
+	 * Removes a seam from the pixels and the energy map, and recomputes the energy around it a band of rows at a time
+	 * with ImageOps.recomputeEnergyBandVertical - a row is compacted just before the first band that reads it.
+	 * Rows are only moved right of the seam, and a band only reads and writes the columns around the seam's span in it -
+	 * the energies within the energy radius of the seam, and the pixels within the radius of those.
+	 * @param seam
+	 */
+	private void removeSeam(int[] seam) {
+		boolean withLocalEntropy = this.options.withLocalEntropy();
+		int radius = energyRadius();
+		int[] rowPixels = this.bandPixels; // Free until the band is read.
+		this.width--;
+		int compacted = 0; // The rows the seam is removed from so far.
+
+		for(int y0 = 0; y0 < this.height; y0 += BAND_ROWS) {
+			int y1 = Math.min(this.height, y0+BAND_ROWS);
+			int first = Math.max(0, y0-radius);
+			int last = Math.min(this.height, y1+radius);
+			for(; compacted < last; compacted++) {
+				int seamX = seam[compacted];
+				int length = this.width-seamX;
+				this.pixels.readRow(compacted, seamX+1, rowPixels, 0, length);
+				this.pixels.writeRow(compacted, seamX, rowPixels, 0, length);
+				this.energyMap.readRow(compacted, seamX+1, this.rowEnergy, 0, length);
+				this.energyMap.writeRow(compacted, seamX, this.rowEnergy, 0, length);
+			}
+			int minSeam = this.width;
+			int maxSeam = 0;
+			for(int y = first; y < last; y++) {
+				minSeam = Math.min(minSeam, seam[y]);
+				maxSeam = Math.max(maxSeam, seam[y]);
+			}
+			int energyFrom = Math.max(0, minSeam-radius);
+			int energyTo = Math.min(this.width, maxSeam+radius);
+			int pixelFrom = Math.max(0, energyFrom-radius);
+			int pixelTo = Math.min(this.width, energyTo+radius);
+			// The band's columns outside these ranges keep stale values, which the recomputation never reads.
+			for(int y = first; y < last; y++) {
+				this.pixels.readRow(y, pixelFrom, this.bandPixels, (y-first)*this.stride+pixelFrom, pixelTo-pixelFrom);
+				this.energyMap.readRow(y, energyFrom, this.bandEnergy[y-first], energyFrom, energyTo-energyFrom);
+				this.bandSeam[y-first] = seam[y];
+			}
+			Raster band = new Raster(this.bandPixels, this.width, last-first, this.stride);
+			// The band's edge rows that are not the image's edges get partial windows, only the rows y0..y1-1 are kept.
+			ImageOps.recomputeEnergyBandVertical(this.bandEnergy, band, this.bandSeam, withLocalEntropy);
+			for(int y = y0; y < y1; y++) {
+				this.energyMap.writeRow(y, energyFrom, this.bandEnergy[y-first], energyFrom, energyTo-energyFrom);
+			}
+		}
+	}
+
+	/**
+	 * @return The carved image, as a heap raster.
+	 */
+	public Raster toRaster() {
+		Raster image = new Raster(this.width, this.height);
+		for(int y = 0; y < this.height; y++) {
+			this.pixels.readRow(y, 0, image.getData(), image.rowOffset(y), this.width);
+		}
+		return image;
+	}
+
+	/**
+	 * Saves the carved image in the format of the file's extension, written row by row from the mapped pixels.
+	 * @param file A .png or .bmp file.
+	 * @throws IOException If the file cannot be written, or has another extension.
+	 */
+	public void save(File file) throws IOException {
+		checkStreamed(ImageLib.formatOf(file), file);
+		ImageLib.writeImage(new MappedImage(), file);
+	}
+
+	/**
+	 * @param format An image format name.
+	 * @param file The file in that format.
+	 * @throws IOException If the format is not one of STREAMED_FORMATS.
+	 */
+	private static void checkStreamed(String format, File file) throws IOException {
+		if(!STREAMED_FORMATS.contains(format.toLowerCase(Locale.ROOT))) {
+			throw new IOException("Mapped carving reads and writes "+STREAMED_FORMATS+" images only, got "+format+": "+file+".");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.pixels.close();
+		if(this.energyMap != null) {
+			this.energyMap.close();
+			this.backMap.close();
+		}
+	}
+
+	/**
+	 * The carved image as a RenderedImage of BAND_ROWS high tiles, whose rows are read from the mapped pixels on demand.
+	 */
+	private class MappedImage implements RenderedImage {
+		private final DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+		@Override
+		public java.awt.image.Raster getData(Rectangle rect) {
+			WritableRaster raster = java.awt.image.Raster.createPackedRaster(DataBuffer.TYPE_INT, rect.width, rect.height,
+					this.colorModel.getMasks(), new Point(rect.x, rect.y));
+			int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			for(int y = 0; y < rect.height; y++) {
+				pixels.readRow(rect.y+y, rect.x, data, y*rect.width, rect.width);
+			}
+			return raster;
+		}
+		@Override
+		public java.awt.image.Raster getData() {
+			return getData(new Rectangle(0, 0, width, height));
+		}
+		@Override
+		public java.awt.image.Raster getTile(int tileX, int tileY) {
+			return getData(new Rectangle(0, tileY*BAND_ROWS, width, Math.min(BAND_ROWS, height-tileY*BAND_ROWS)));
+		}
+		@Override
+		public WritableRaster copyData(WritableRaster raster) {
+			if(raster == null) {
+				return (WritableRaster)getData();
+			}
+			raster.setRect(getData(raster.getBounds()));
+			return raster;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return this.colorModel;
+		}
+		@Override
+		public SampleModel getSampleModel() {
+			return this.colorModel.createCompatibleSampleModel(width, BAND_ROWS);
+		}
+		@Override
+		public int getWidth() {
+			return width;
+		}
+		@Override
+		public int getHeight() {
+			return height;
+		}
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+		@Override
+		public int getNumXTiles() {
+			return 1;
+		}
+		@Override
+		public int getNumYTiles() {
+			return (height+BAND_ROWS-1)/BAND_ROWS;
+		}
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+		@Override
+		public int getTileWidth() {
+			return width;
+		}
+		@Override
+		public int getTileHeight() {
+			return BAND_ROWS;
+		}
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+		@Override
+		public Vector<RenderedImage> getSources() {
+			return null;
+		}
+		@Override
+		public Object getProperty(String name) {
+			return Image.UndefinedProperty;
+		}
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		File input = new File(args[0]);
+		int newWidth = Integer.parseInt(args[1]);
+		CarvingOptions options = new CarvingOptions(args[2].equals("1"), args[2].equals("2"));
+		File workDirectory = new File(args.length > 4 ? args[4] : System.getProperty("java.io.tmpdir"));
+		File output = new File(args[3]);
+		checkStreamed(ImageLib.formatOf(output), output); // Before the carving, not after it.
+		try(MappedCarver carver = load(input, workDirectory, options)) {
+			System.out.println("Changing width from: "+carver.getWidth()+" to: "+newWidth+"...");
+			carver.decreaseWidth(newWidth);
+			carver.save(output);
+		}
+		System.out.println("Seam carved image saved at: "+args[3]+".");
+	}
+}
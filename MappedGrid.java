@@ -0,0 +1,112 @@
+package seam_carving;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A two dimensional array of ints, doubles or bytes that lives in a memory-mapped file instead of the heap.
+ * The file is mapped in chunks of whole rows, each below the 2GB limit of a single mapping, and rows are copied
+ * in and out of heap arrays - so only the rows being worked on take heap space, whatever the grid's size.
+ * The file is deleted when the grid is closed.
+ */
+class MappedGrid implements AutoCloseable {
+
+	static final int INT = 4;
+	static final int DOUBLE = 8;
+	static final int BYTE = 1;
+
+	//props
+	private final File file;
+	private final RandomAccessFile access;
+	private final int width; // Elements per row.
+	private final int height;
+	private final int rowsPerChunk;
+	private final ByteBuffer[] chunks;
+	private final IntBuffer[] intChunks;
+	private final DoubleBuffer[] doubleChunks;
+
+	//const
+	/**
+	 * Creates the grid's file and maps it.
+	 * @param file
+	 * @param width
+	 * @param height
+	 * @param elementSize INT, DOUBLE or BYTE.
+	 * @throws IOException
+	 */
+	MappedGrid(File file, int width, int height, int elementSize) throws IOException {
+		long rowBytes = (long)width*elementSize;
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.rowsPerChunk = (int)Math.max(1, Math.min(height, Integer.MAX_VALUE/rowBytes));
+		int chunkCount = (height+this.rowsPerChunk-1)/this.rowsPerChunk;
+		this.chunks = new ByteBuffer[chunkCount];
+		this.intChunks = new IntBuffer[chunkCount];
+		this.doubleChunks = new DoubleBuffer[chunkCount];
+		this.access = new RandomAccessFile(file, "rw");
+		this.access.setLength(rowBytes*height);
+		FileChannel channel = this.access.getChannel();
+		for(int c = 0; c < chunkCount; c++) {
+			int rows = Math.min(this.rowsPerChunk, height-c*this.rowsPerChunk);
+			MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, c*this.rowsPerChunk*rowBytes, rows*rowBytes);
+			chunk.order(ByteOrder.nativeOrder());
+			this.chunks[c] = chunk;
+			if(elementSize == INT) {
+				this.intChunks[c] = chunk.asIntBuffer();
+			}
+			else if(elementSize == DOUBLE) {
+				this.doubleChunks[c] = chunk.asDoubleBuffer();
+			}
+		}
+	}
+
+	//funcs
+	int getWidth() {
+		return this.width;
+	}
+	int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * @param y
+	 * @param x
+	 * @return The index of element (x,y) inside its chunk.
+	 */
+	private int index(int y, int x) {
+		return (y % this.rowsPerChunk)*this.width + x;
+	}
+
+	void readRow(int y, int from, int[] row, int offset, int length) {
+		this.intChunks[y/this.rowsPerChunk].get(index(y, from), row, offset, length);
+	}
+	void writeRow(int y, int from, int[] row, int offset, int length) {
+		this.intChunks[y/this.rowsPerChunk].put(index(y, from), row, offset, length);
+	}
+	void readRow(int y, int from, double[] row, int offset, int length) {
+		this.doubleChunks[y/this.rowsPerChunk].get(index(y, from), row, offset, length);
+	}
+	void writeRow(int y, int from, double[] row, int offset, int length) {
+		this.doubleChunks[y/this.rowsPerChunk].put(index(y, from), row, offset, length);
+	}
+	void writeRow(int y, int from, byte[] row, int offset, int length) {
+		this.chunks[y/this.rowsPerChunk].put(index(y, from), row, offset, length);
+	}
+	byte getByte(int x, int y) {
+		return this.chunks[y/this.rowsPerChunk].get(index(y, x));
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.access.close();
+		this.file.delete(); // The mappings stay valid until they are collected, the disk space is freed with them.
+	}
+}
@@ -0,0 +1,281 @@
+package seam_carving;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG image one row at a time, in a single pass over the file - the compressed data is inflated as the rows are
+ * read, so only two rows are ever held. ImageIO's PNG reader decodes a region of rows by inflating every row before it,
+ * so reading a large image in strips of rows with it takes time quadratic in the image's height.
+ *
+ * Only the layouts whose pixels ImageLib.convertImageToRaster takes as they are stored are decoded - non-interlaced
+ * 8-bit RGB, RGBA and gray, and palette images of any bit depth. The rows come out as packed ARGB, the same pixels
+ * ImageLib.readRaster returns for the image. Other PNGs (16-bit, gray with alpha, interlaced, or with a transparent
+ * color) are rejected.
+ * eg: try(PngRowReader reader = new PngRowReader(file)) { int[] row = new int[reader.getWidth()]; reader.readRow(row, 0); }
+ */
+class PngRowReader implements AutoCloseable {
+
+	private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+	private static final int IHDR = 0x49484452;
+	private static final int PLTE = 0x504C5445;
+	private static final int TRNS = 0x74524E53;
+	private static final int IDAT = 0x49444154;
+	private static final int GRAY = 0;
+	private static final int RGB = 2;
+	private static final int PALETTE = 3;
+	private static final int RGBA = 6;
+
+	//props
+	private final DataInputStream file;
+	private final DataInputStream rows; // The inflated image data.
+	private final int width;
+	private final int height;
+	private final int bitDepth;
+	private final int colorType;
+	private final int bytesPerPixel; // The distance the filters look back, at least 1.
+	private int[] palette; // ARGB, with the alpha of the tRNS chunk.
+	private byte[] row; // The current row's bytes after its filter byte, row[bytesPerPixel+i] is byte i - the filters read zeros before it.
+	private byte[] previousRow; // All zeros before the first row.
+	private int nextRow = 0;
+	private int dataLeft; // The bytes left in the current IDAT chunk, -1 after the last one.
+
+	//const
+	/**
+	 * Opens a PNG file and reads its header, up to its image data.
+	 * @param file
+	 * @throws IOException If the file cannot be read, is not a PNG, or has a layout that is not decoded.
+	 */
+	PngRowReader(File file) throws IOException {
+		this.file = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		boolean opened = false;
+		try {
+			if(this.file.readLong() != SIGNATURE) {
+				throw new IOException("Not a PNG image: "+file+".");
+			}
+			if(this.file.readInt() != 13 || this.file.readInt() != IHDR) {
+				throw new IOException("The PNG image has no header: "+file+".");
+			}
+			this.width = this.file.readInt();
+			this.height = this.file.readInt();
+			this.bitDepth = this.file.readUnsignedByte();
+			this.colorType = this.file.readUnsignedByte();
+			this.file.readUnsignedByte(); // Compression and filter methods, 0 is the only one defined.
+			this.file.readUnsignedByte();
+			int interlace = this.file.readUnsignedByte();
+			this.file.readInt(); // CRC
+			boolean supported = this.width > 0 && this.height > 0 && interlace == 0 && (this.colorType == PALETTE ? this.bitDepth <= 8
+					: this.bitDepth == 8 && (this.colorType == GRAY || this.colorType == RGB || this.colorType == RGBA));
+			if(!supported) {
+				throw new IOException("Unsupported PNG layout (color type "+this.colorType+", "+this.bitDepth+" bits"
+						+(interlace != 0 ? ", interlaced" : "")+"), convert it to an 8-bit non-interlaced PNG or a BMP first: "+file+".");
+			}
+			int channels = this.colorType == RGBA ? 4 : this.colorType == RGB ? 3 : 1;
+			this.bytesPerPixel = Math.max(1, channels*this.bitDepth/8);
+			int rowBytes = (int)(((long)this.width*channels*this.bitDepth+7)/8);
+			this.row = new byte[this.bytesPerPixel+rowBytes];
+			this.previousRow = new byte[this.row.length];
+			readChunksUpToData(file);
+			this.rows = new DataInputStream(new InflaterInputStream(new DataStream()));
+			opened = true;
+		}
+		finally {
+			if(!opened) {
+				this.file.close();
+			}
+		}
+	}
+
+	//funcs
+	public int getWidth() {
+		return this.width;
+	}
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Reads the chunks before the image data, keeping the palette and its transparency.
+	 */
+	private void readChunksUpToData(File source) throws IOException {
+		byte[] alphas = null;
+		while(true) {
+			int length = this.file.readInt();
+			int type = this.file.readInt();
+			if(type == IDAT) {
+				this.dataLeft = length;
+				break;
+			}
+			byte[] data = new byte[length];
+			this.file.readFully(data);
+			this.file.readInt(); // CRC
+			if(type == PLTE) {
+				this.palette = new int[256];
+				Arrays.fill(this.palette, 0xFF000000); // Indices past the palette are opaque black.
+				for(int i = 0; i < length/3; i++) {
+					this.palette[i] = Raster.pack(data[3*i] & 0xFF, data[3*i+1] & 0xFF, data[3*i+2] & 0xFF);
+				}
+			}
+			else if(type == TRNS) {
+				if(this.colorType != PALETTE) {
+					throw new IOException("Unsupported PNG layout (a transparent color), convert it to RGBA or a BMP first: "+source+".");
+				}
+				alphas = data;
+			}
+		}
+		if(this.colorType == PALETTE) {
+			if(this.palette == null) {
+				throw new IOException("The PNG image has no palette: "+source+".");
+			}
+			for(int i = 0; alphas != null && i < alphas.length && i < 256; i++) {
+				this.palette[i] = (this.palette[i] & 0xFFFFFF) | (alphas[i] & 0xFF) << 24;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the next row.
+	 * @param argb Receives the row's width pixels, as packed ARGB.
+	 * @param offset Where the row starts in argb.
+	 * @throws IOException If the image data is damaged or ends early.
+	 */
+	void readRow(int[] argb, int offset) throws IOException {
+		if(this.nextRow == this.height) {
+			throw new EOFException("All "+this.height+" rows are read.");
+		}
+		byte[] swap = this.previousRow;
+		this.previousRow = this.row;
+		this.row = swap;
+		int filter = this.rows.readUnsignedByte();
+		int first = this.bytesPerPixel; // The row's first byte, after the zeros the filters look back into.
+		this.rows.readFully(this.row, first, this.row.length-first);
+		unfilter(filter, first);
+		convert(argb, offset, first);
+		this.nextRow++;
+	}
+
+	private void unfilter(int filter, int first) throws IOException {
+		byte[] row = this.row;
+		byte[] up = this.previousRow;
+		int back = this.bytesPerPixel;
+		switch(filter) {
+		case 0: // None
+			break;
+		case 1: // Sub
+			for(int i = first; i < row.length; i++) {
+				row[i] += row[i-back];
+			}
+			break;
+		case 2: // Up
+			for(int i = first; i < row.length; i++) {
+				row[i] += up[i];
+			}
+			break;
+		case 3: // Average
+			for(int i = first; i < row.length; i++) {
+				row[i] += ((row[i-back] & 0xFF) + (up[i] & 0xFF)) >>> 1;
+			}
+			break;
+		case 4: // Paeth
+			for(int i = first; i < row.length; i++) {
+				int a = row[i-back] & 0xFF;
+				int b = up[i] & 0xFF;
+				int c = up[i-back] & 0xFF;
+				int pa = Math.abs(b-c);
+				int pb = Math.abs(a-c);
+				int pc = Math.abs(a+b-2*c);
+				row[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+			}
+			break;
+		default:
+			throw new IOException("Unknown PNG filter "+filter+" in row "+this.nextRow+".");
+		}
+	}
+
+	private void convert(int[] argb, int offset, int first) {
+		byte[] row = this.row;
+		switch(this.colorType) {
+		case RGB:
+			for(int x = 0, i = first; x < this.width; x++, i += 3) {
+				argb[offset+x] = Raster.pack(row[i] & 0xFF, row[i+1] & 0xFF, row[i+2] & 0xFF);
+			}
+			break;
+		case RGBA:
+			for(int x = 0, i = first; x < this.width; x++, i += 4) {
+				argb[offset+x] = Raster.pack(row[i+3] & 0xFF, row[i] & 0xFF, row[i+1] & 0xFF, row[i+2] & 0xFF);
+			}
+			break;
+		case GRAY:
+			for(int x = 0, i = first; x < this.width; x++, i++) {
+				int gray = row[i] & 0xFF;
+				argb[offset+x] = Raster.pack(gray, gray, gray);
+			}
+			break;
+		default: { // Palette indices, packed bitDepth bits each from the high bits of every byte.
+			int perByte = 8/this.bitDepth;
+			int mask = (1 << this.bitDepth)-1;
+			for(int x = 0; x < this.width; x++) {
+				int shift = 8-this.bitDepth*(x%perByte+1);
+				argb[offset+x] = this.palette[(row[first+x/perByte] >>> shift) & mask];
+			}
+		}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.rows.close(); // Releases the inflater.
+		this.file.close();
+	}
+
+	/**
+	 * The concatenated contents of the IDAT chunks, read from the file as the inflater asks for them.
+	 */
+	private class DataStream extends InputStream {
+		/**
+		 * @return Whether there are bytes left in the image data, moving on to the next IDAT chunk if needed.
+		 */
+		private boolean hasData() throws IOException {
+			while(dataLeft == 0) {
+				file.readInt(); // The CRC of the chunk just read.
+				int length = file.readInt();
+				if(file.readInt() != IDAT) {
+					dataLeft = -1;
+					return false;
+				}
+				dataLeft = length;
+			}
+			return dataLeft > 0;
+		}
+		@Override
+		public int read() throws IOException {
+			if(!hasData()) {
+				return -1;
+			}
+			dataLeft--;
+			return file.readUnsignedByte();
+		}
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(length == 0) {
+				return 0;
+			}
+			if(!hasData()) {
+				return -1;
+			}
+			int read = file.read(buffer, offset, Math.min(length, dataLeft));
+			if(read < 0) {
+				throw new EOFException("The PNG image data ends early.");
+			}
+			dataLeft -= read;
+			return read;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package seam_carving;
+
+/**
+ * A packed image raster - every pixel is stored as a single ARGB int inside one flat int[] buffer,
+ * so an image costs one array allocation instead of one Pixel object per pixel.
+ * Row y starts at offset y*stride, and only the first width entries of each row are part of the image.
+ * The width and height can shrink in place (eg. when a seam is removed), the buffer and the stride never change.
+ */
+public class Raster {
+
+	//props
+	private final int[] data;
+	private int width;
+	private int height;
+	private final int stride;
+
+	//const
+	public Raster(int width, int height) {
+		this(new int[width*height], width, height, width);
+	}
+
+	public Raster(int[] data, int width, int height, int stride) {
+		if(width > stride || data.length < stride*height) {
+			throw new IllegalArgumentException("Buffer too small for a "+width+"x"+height+" raster with stride "+stride+".");
+		}
+		this.data = data;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+	}
+
+	//funcs
+	public int getWidth() {
+		return this.width;
+	}
+	public int getHeight() {
+		return this.height;
+	}
+	void setWidth(int width) {
+		if(width < 1 || width > this.stride) {
+			throw new IllegalArgumentException("Width "+width+" does not fit a stride of "+this.stride+".");
+		}
+		this.width = width;
+	}
+	void setHeight(int height) {
+		if(height < 1 || this.stride*height > this.data.length) {
+			throw new IllegalArgumentException("Height "+height+" does not fit the buffer.");
+		}
+		this.height = height;
+	}
+	public int getStride() {
+		return this.stride;
+	}
+	public int[] getData() {
+		return this.data;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return The ARGB value of the pixel at (x,y).
+	 */
+	public int get(int x, int y) {
+		return this.data[y*this.stride+x];
+	}
+
+	public void set(int x, int y, int argb) {
+		this.data[y*this.stride+x] = argb;
+	}
+
+	/**
+	 * @param y
+	 * @return The offset of row y inside the data buffer.
+	 */
+	public int rowOffset(int y) {
+		return y*this.stride;
+	}
+
+	public Raster copy() {
+		Raster copy = new Raster(this.width, this.height);
+		for(int y = 0; y < this.height; y++) {
+			System.arraycopy(this.data, y*this.stride, copy.data, y*this.width, this.width);
+		}
+		return copy;
+	}
+
+	/**
+	 * Compatibility adapter - packs a Pixel matrix into a new raster.
+	 * @param pixels
+	 * @return
+	 */
+	public static Raster fromPixels(Pixel[][] pixels) {
+		int height = pixels.length;
+		int width = pixels[0].length;
+		Raster raster = new Raster(width, height);
+		for(int y = 0, pos = 0; y < height; y++) {
+			for(int x = 0; x < width; x++, pos++) {
+				raster.data[pos] = pixels[y][x].RGBint();
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * Compatibility adapter - unpacks the raster into a new Pixel matrix.
+	 * @return
+	 */
+	public Pixel[][] toPixels() {
+		Pixel[][] pixels = new Pixel[this.height][this.width];
+		for(int y = 0; y < this.height; y++) {
+			int offset = y*this.stride;
+			for(int x = 0; x < this.width; x++) {
+				int argb = this.data[offset+x];
+				pixels[y][x] = new Pixel(red(argb), green(argb), blue(argb));
+			}
+		}
+		return pixels;
+	}
+
+	/*
+	 * Channel helpers working directly on packed ARGB values.
+	 * They mirror Pixel's R(), G(), B(), RGBint(), singleDerivative() and grayscaleValue(), and keep the alpha channel Pixel does not have.
+	 */
+	public static int red(int argb) {
+		return (argb >> 16) & 0xFF;
+	}
+	public static int green(int argb) {
+		return (argb >> 8) & 0xFF;
+	}
+	public static int blue(int argb) {
+		return argb & 0xFF;
+	}
+
+	public static int pack(int red, int green, int blue) {
+		return pack(0xFF, red, green, blue);
+	}
+	public static int pack(int alpha, int red, int green, int blue) {
+		return (alpha << 24) | (red << 16) | (green << 8) | blue;
+	}
+	public static int alpha(int argb) {
+		return argb >>> 24;
+	}
+
+	public static double singleDerivative(int argb, int other) {
+		double sum = Math.abs(red(argb) - red(other)) + Math.abs(green(argb) - green(other)) + Math.abs(blue(argb) - blue(other));
+		return sum/3;
+	}
+
+	public static int grayscaleValue(int argb) {
+		return (red(argb)+green(argb)+blue(argb))/3;
+	}
+}
@@ -0,0 +1,291 @@
+package seam_carving;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmarks the stages of the carving engine on synthetic images, and writes the results as JSON so runs can be compared between releases.
+ * Every stage is timed separately - the energy map (with and without local entropy), the cost map (with and without forward energy),
+ * seam search, seam removal and insertion in both directions, and ImageLib's loading and saving.
+ * The integer kernels are timed next to the reference ones - SeamCarvingCheck checks that they agree.
+ * The images are generated deterministically, so two runs on the same machine measure the same work.
+ * The same stages run under JMH as jmh/SeamCarvingJmh, built by the pom's jmh profile.
+ *
+ * Usage: SeamCarvingBenchmark [--out results.json] [--sizes 0.5,2,12,48] [--warmup 2] [--iterations 5] [--threads N]
+ * The 48 MP inputs need a large heap, eg. -Xmx8g.
+ */
+public class SeamCarvingBenchmark {
+
+	private static final long SEED = 20240501L;
+	private static final CarvingOptions PYRAMID = new CarvingOptions().setPyramidLevels(2).setCorridorRadius(4); // The approximate search measured.
+
+	/**
+	 * One benchmarked operation. prepare() runs untimed before every iteration and returns the timed part,
+	 * so operations that change their input always start from the same state.
+	 */
+	private interface Stage {
+		Runnable prepare(Raster image) throws IOException;
+	}
+
+	private static class Result {
+		String stage;
+		double megapixels;
+		int width;
+		int height;
+		double[] timesMs;
+	}
+
+	public static void main(String[] args) throws IOException {
+		String outPath = "benchmark-results.json";
+		double[] sizes = {0.5, 2, 12, 48};
+		int warmup = 2;
+		int iterations = 5;
+		for(int i = 0; i+1 < args.length; i += 2) {
+			if(args[i].equals("--out")) {
+				outPath = args[i+1];
+			}
+			else if(args[i].equals("--sizes")) {
+				String[] parts = args[i+1].split(",");
+				sizes = new double[parts.length];
+				for(int j = 0; j < parts.length; j++) {
+					sizes[j] = Double.parseDouble(parts[j]);
+				}
+			}
+			else if(args[i].equals("--warmup")) {
+				warmup = Integer.parseInt(args[i+1]);
+			}
+			else if(args[i].equals("--iterations")) {
+				iterations = Integer.parseInt(args[i+1]);
+			}
+			else if(args[i].equals("--threads")) {
+				ImageOps.setParallelism(Integer.parseInt(args[i+1]));
+			}
+		}
+
+		String[] names = {
+				"energyMap", "energyMapLocalEntropy", "energyMapInteger",
+				"costMap", "costMapForwardEnergy", "costMapHorizontal", "costMapInteger", "costMapLowMemory",
+				"traceSeam", "findKSeams", "pyramidSeamSearch",
+				"removeVerticalSeam", "removeHorizontalSeam",
+				"addVerticalSeam", "addHorizontalSeam", "insertVerticalSeams",
+				"loadImage", "saveImage"};
+		Stage[] stages = {
+				image -> () -> ImageOps.computeEnergyMap(image, false),
+				image -> () -> ImageOps.computeEnergyMap(image, true),
+				image -> () -> IntegerKernels.computeEnergyMap(image),
+				costMapStage(false, false),
+				costMapStage(true, false),
+				costMapStage(false, true),
+				image -> {
+					int[][] energyMap = IntegerKernels.computeEnergyMap(image);
+					int[][] costMap = new int[image.getHeight()][image.getWidth()];
+					byte[][] backMap = new byte[image.getHeight()][image.getWidth()];
+					return () -> IntegerKernels.computeCostMap(image, energyMap, costMap, backMap, false, false);
+				},
+				image -> {
+					double[][] energyMap = ImageOps.computeEnergyMap(image, false);
+					double[][] costMap = ImageOps.rollingCostMap(image.getHeight(), image.getWidth());
+					byte[][] backMap = ImageOps.rollingBackMap(image.getHeight(), image.getWidth());
+					SeamDirections directions = new SeamDirections(image.getHeight(), image.getWidth());
+					return () -> ImageOps.computeCostMap(image, energyMap, costMap, backMap, false, null, directions, false);
+				},
+				image -> {
+					double[][] costMap = new double[image.getHeight()][image.getWidth()];
+					byte[][] backMap = new byte[image.getHeight()][image.getWidth()];
+					ImageOps.computeCostMap(image, ImageOps.computeEnergyMap(image, false), costMap, backMap, false, false);
+					int[] seam = new int[image.getHeight()];
+					return () -> ImageOps.traceSeam(costMap, backMap, image.getWidth(), seam);
+				},
+				image -> {
+					double[][] costMap = new double[image.getHeight()][image.getWidth()];
+					ImageOps.computeCostMap(image, ImageOps.computeEnergyMap(image, false), costMap, new byte[image.getHeight()][image.getWidth()], false, false);
+					int k = Math.max(1, image.getWidth()/10);
+					return () -> ImageOps.findKSeams(costMap, image.getWidth(), k);
+				},
+				image -> {
+					double[][] energyMap = ImageOps.computeEnergyMap(image, false);
+					double[][] costMap = new double[image.getHeight()][image.getWidth()];
+					byte[][] backMap = new byte[image.getHeight()][image.getWidth()];
+					SeamPyramid pyramid = new SeamPyramid(image, PYRAMID.pyramidLevels(), PYRAMID.corridorRadius(), false, false);
+					int[] seam = new int[image.getHeight()];
+					return () -> pyramid.findSeam(image, energyMap, costMap, backMap, seam);
+				},
+				image -> {
+					Raster copy = image.copy();
+					int[] seam = diagonalSeam(copy.getHeight(), copy.getWidth());
+					return () -> ImageOps.removeVerticalSeam(copy, seam);
+				},
+				image -> {
+					Raster copy = image.copy();
+					int[] seam = diagonalSeam(copy.getWidth(), copy.getHeight());
+					return () -> ImageOps.removeHorizontalSeam(copy, seam);
+				},
+				image -> {
+					int[] seam = diagonalSeam(image.getHeight(), image.getWidth());
+					return () -> ImageOps.addVerticalSeam(image, seam);
+				},
+				image -> {
+					int[] seam = diagonalSeam(image.getWidth(), image.getHeight());
+					return () -> ImageOps.addHorizontalSeam(image, seam);
+				},
+				image -> {
+					double[][] costMap = new double[image.getHeight()][image.getWidth()];
+					ImageOps.computeCostMap(image, ImageOps.computeEnergyMap(image, false), costMap, new byte[image.getHeight()][image.getWidth()], false, false);
+					int[][] seams = ImageOps.findInsertionSeams(costMap, image.getWidth(), Math.max(1, image.getWidth()/2));
+					return () -> ImageOps.insertVerticalSeams(image, seams);
+				},
+				image -> {
+					File file = File.createTempFile("benchmark", ".jpg");
+					file.deleteOnExit();
+					ImageLib.saveImage(image, file.getPath());
+					return () -> ImageLib.loadRaster(file.getPath());
+				},
+				image -> {
+					File file = File.createTempFile("benchmark", ".jpg");
+					file.deleteOnExit();
+					return () -> ImageLib.saveImage(image, file.getPath());
+				}};
+
+		List<Result> results = new ArrayList<Result>();
+		double[] pyramidErrors = new double[sizes.length];
+		for(int m = 0; m < sizes.length; m++) {
+			double megapixels = sizes[m];
+			Raster image = syntheticImage(megapixels);
+			System.out.println("Image: "+megapixels+" MP ("+image.getWidth()+"x"+image.getHeight()+").");
+			pyramidErrors[m] = ImageOps.pyramidSeamError(image, PYRAMID, false);
+			for(int s = 0; s < stages.length; s++) {
+				Result result = new Result();
+				result.stage = names[s];
+				result.megapixels = megapixels;
+				result.width = image.getWidth();
+				result.height = image.getHeight();
+				result.timesMs = new double[iterations];
+				for(int i = 0; i < warmup+iterations; i++) {
+					Runnable timed = stages[s].prepare(image);
+					long start = System.nanoTime();
+					timed.run();
+					long end = System.nanoTime();
+					if(i >= warmup) {
+						result.timesMs[i-warmup] = (end-start)/1e6;
+					}
+				}
+				System.out.println(String.format(Locale.ROOT, "  %-24s %10.2f ms", names[s], mean(result.timesMs)));
+				results.add(result);
+			}
+			System.out.println(String.format(Locale.ROOT, "  %-24s %10.4f", "pyramidSeamError", pyramidErrors[m]));
+		}
+		writeJson(results, sizes, pyramidErrors, warmup, outPath);
+		System.out.println("Results saved at: "+outPath+".");
+		System.exit(0); // The cost map pool's threads are not daemons.
+	}
+
+	private static Stage costMapStage(boolean withForwardEnergy, boolean horizontal) {
+		return image -> {
+			int lines = horizontal ? image.getWidth() : image.getHeight();
+			int lineLength = horizontal ? image.getHeight() : image.getWidth();
+			double[][] energyMap = ImageOps.computeEnergyMap(image, false);
+			double[][] costMap = new double[lines][lineLength];
+			byte[][] backMap = new byte[lines][lineLength];
+			return () -> ImageOps.computeCostMap(image, energyMap, costMap, backMap, withForwardEnergy, horizontal);
+		};
+	}
+
+	/**
+	 * @param length The number of lines the seam crosses.
+	 * @param lineLength
+	 * @return A valid seam that zigzags across the middle of the image, so removal and insertion move a realistic amount of pixels.
+	 */
+	static int[] diagonalSeam(int length, int lineLength) {
+		int[] seam = new int[length];
+		for(int i = 0; i < length; i++) {
+			int offset = i % 64;
+			seam[i] = Math.min(lineLength-1, lineLength/2 + (offset < 32 ? offset : 64-offset));
+		}
+		return seam;
+	}
+
+	/**
+	 * Generates a 4:3 image of the given size - smooth gradients and a few blocks over seeded noise,
+	 * so both the gradient energy and the local entropy see realistic, non-uniform content.
+	 * @param megapixels
+	 * @return
+	 */
+	static Raster syntheticImage(double megapixels) {
+		int width = (int)Math.round(Math.sqrt(megapixels*1e6*4/3));
+		int height = (int)Math.round(megapixels*1e6/width);
+		Raster image = new Raster(width, height);
+		int[] data = image.getData();
+		Random random = new Random(SEED);
+		for(int y = 0, pos = 0; y < height; y++) {
+			for(int x = 0; x < width; x++, pos++) {
+				int base = (int)(128 + 90*Math.sin(x*12.0/width)*Math.cos(y*9.0/height));
+				if(((x*8/width) + (y*6/height)) % 5 == 0) { // Flat blocks.
+					base = 40;
+				}
+				int noise = random.nextInt(24)-12;
+				int red = clamp(base+noise);
+				int green = clamp(base/2+x*64/width+noise);
+				int blue = clamp(255-base+noise);
+				data[pos] = Raster.pack(red, green, blue);
+			}
+		}
+		return image;
+	}
+
+	private static int clamp(int value) {
+		return Math.max(0, Math.min(255, value));
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for(double value : values) {
+			sum += value;
+		}
+		return sum/values.length;
+	}
+
+	private static void writeJson(List<Result> results, double[] sizes, double[] pyramidErrors, int warmup, String path) throws IOException {
+		try(PrintWriter out = new PrintWriter(path, "UTF-8")) {
+			out.println("{");
+			out.println("  \"javaVersion\": \""+System.getProperty("java.version")+"\",");
+			out.println("  \"availableProcessors\": "+Runtime.getRuntime().availableProcessors()+",");
+			out.println("  \"parallelism\": "+ImageOps.getParallelism()+",");
+			out.println("  \"warmupIterations\": "+warmup+",");
+			out.println("  \"pyramidLevels\": "+PYRAMID.pyramidLevels()+",");
+			out.println("  \"corridorRadius\": "+PYRAMID.corridorRadius()+",");
+			out.println("  \"pyramidSeamErrors\": [");
+			for(int m = 0; m < sizes.length; m++) {
+				out.print(String.format(Locale.ROOT, "    {\"megapixels\": %s, \"error\": %.6f}", sizes[m], pyramidErrors[m]));
+				out.println(m < sizes.length-1 ? "," : "");
+			}
+			out.println("  ],");
+			out.println("  \"results\": [");
+			for(int r = 0; r < results.size(); r++) {
+				Result result = results.get(r);
+				double min = Double.MAX_VALUE;
+				double max = 0;
+				double mean = mean(result.timesMs);
+				double variance = 0;
+				for(double time : result.timesMs) {
+					min = Math.min(min, time);
+					max = Math.max(max, time);
+					variance += (time-mean)*(time-mean);
+				}
+				variance /= result.timesMs.length;
+				out.print(String.format(Locale.ROOT,
+						"    {\"stage\": \"%s\", \"megapixels\": %s, \"width\": %d, \"height\": %d, \"iterations\": %d, "
+						+ "\"meanMs\": %.3f, \"minMs\": %.3f, \"maxMs\": %.3f, \"stdevMs\": %.3f}",
+						result.stage, result.megapixels, result.width, result.height, result.timesMs.length,
+						mean, min, max, Math.sqrt(variance)));
+				out.println(r < results.size()-1 ? "," : "");
+			}
+			out.println("  ]");
+			out.println("}");
+		}
+	}
+}
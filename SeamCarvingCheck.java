@@ -0,0 +1,236 @@
+package seam_carving;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Fast checks of the carving engine on small generated images, for the regressions the benchmark only meets at full size.
+ * Every check prints its result, and the run exits with 1 when one fails.
+ * Usage: SeamCarvingCheck
+ */
+public class SeamCarvingCheck {
+
+	private static final int KERNEL_CHECK_SEAMS = 10; // The seams compared between the integer and the reference kernels, per image and energy type.
+	private static final double ENERGY_TOLERANCE = 1e-9; // The largest difference allowed between an integer energy, unscaled, and the reference energy.
+
+	private static int failures = 0;
+
+	public static void main(String[] args) {
+		checkProtectedBand(false);
+		checkProtectedBand(true);
+		checkIntegerKernels("noise", noise(40, 30, 11));
+		checkIntegerKernels("synthetic", SeamCarvingBenchmark.syntheticImage(0.01));
+		checkIntegerKernels("levels", levels(48, 36, 13));
+		checkInsertionSeams("noise", noise(40, 30, 17));
+		checkInsertionSeams("levels", levels(48, 36, 19));
+		checkInsertedAlpha();
+		System.out.println(failures == 0 ? "All checks passed." : failures+" checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void report(String name, boolean passed, String details) {
+		System.out.println((passed ? "PASS " : "FAIL ")+name+(details.isEmpty() ? "" : ": "+details));
+		if(!passed) {
+			failures++;
+		}
+	}
+
+	/**
+	 * @return A width x height image of opaque noise.
+	 */
+	static Raster noise(int width, int height, long seed) {
+		Random random = new Random(seed);
+		Raster image = new Raster(width, height);
+		int[] data = image.getData();
+		for(int i = 0; i < data.length; i++) {
+			data[i] = random.nextInt() | 0xFF000000;
+		}
+		return image;
+	}
+
+	/**
+	 * @return A width x height image of gray noise in 4 levels, whose many equal energies make seams of exactly the same cost.
+	 */
+	static Raster levels(int width, int height, long seed) {
+		Random random = new Random(seed);
+		Raster image = new Raster(width, height);
+		int[] data = image.getData();
+		for(int i = 0; i < data.length; i++) {
+			int gray = 85*random.nextInt(4);
+			data[i] = Raster.pack(gray, gray, gray);
+		}
+		return image;
+	}
+
+	/**
+	 * Carves across a protected band that spans the whole image - every seam has to cross it, so the costs of the band's
+	 * lines add up to many times the protected energy, and must still stay below the cost of stepping out of the image.
+	 * @param horizontal Whether the band is a set of columns crossed by horizontal seams, instead of rows crossed by vertical seams.
+	 */
+	private static void checkProtectedBand(boolean horizontal) {
+		int width = 40;
+		int height = 30;
+		int bandLines = 5;
+		BitSet band = new BitSet(width*height);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				if((horizontal ? x : y) < bandLines) {
+					band.set(y*width+x);
+				}
+			}
+		}
+		for(int energy = 0; energy < 3; energy++) {
+			CarvingOptions options = new CarvingOptions(energy == 1, energy == 2);
+			CarvingMask mask = CarvingMask.of(width, height, band, null);
+			String name = "protectedBand "+(horizontal ? "horizontal" : "vertical")+" energy="+energy;
+			try {
+				Raster carved = horizontal ? ImageOps.changeHeightGeneralSeams(noise(width, height, 7), height-10, options, mask)
+						: ImageOps.changeWidthGeneralSeams(noise(width, height, 7), width-10, options, mask);
+				boolean sized = carved.getWidth() == (horizontal ? width : width-10) && carved.getHeight() == (horizontal ? height-10 : height)
+						&& mask.getWidth() == carved.getWidth() && mask.getHeight() == carved.getHeight();
+				report(name, sized, sized ? "" : "carved to "+carved.getWidth()+"x"+carved.getHeight());
+			} catch(RuntimeException e) {
+				report(name, false, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * The differential check of IntegerKernels against the double reference kernels on one image, with and without forward energy.
+	 * Both carve the same image, seam by seam along the reference seams, each with its own persistent energy map.
+	 * The scaled int energies must stay within ENERGY_TOLERANCE of the double energies, and every integer seam must be the
+	 * reference one - or, where the rounded double sums broke an exact tie differently, the reference seam must be a cheapest trace
+	 * of the exact integer cost map along its whole path, not only at its last cell (see isCheapestTrace). Without forward energy
+	 * a seam's cost is the sum of its energies, so the two seams' sums, recomputed along their paths, must be equal as well.
+	 */
+	private static void checkIntegerKernels(String imageName, Raster image) {
+		for(boolean withForwardEnergy : new boolean[] {false, true}) {
+			Raster copy = image.copy();
+			int width = copy.getWidth();
+			int height = copy.getHeight();
+			double[][] energyMap = ImageOps.computeEnergyMap(copy, false);
+			int[][] integerEnergyMap = IntegerKernels.computeEnergyMap(copy);
+			double[][] costMap = new double[height][width];
+			int[][] integerCostMap = new int[height][width];
+			byte[][] backMap = new byte[height][width];
+			int[] seam = new int[height];
+			int[] integerSeam = new int[height];
+			double maxEnergyError = 0;
+			int identical = 0;
+			int tied = 0; // Seams that differ from the reference one, between paths of the same exact cost.
+			int different = 0;
+			for(int k = 0; k < Math.min(KERNEL_CHECK_SEAMS, width-1); k++) {
+				for(int y = 0; y < height; y++) {
+					for(int x = 0; x < copy.getWidth(); x++) {
+						maxEnergyError = Math.max(maxEnergyError, Math.abs(integerEnergyMap[y][x]/(double)IntegerKernels.SCALE - energyMap[y][x]));
+					}
+				}
+				ImageOps.computeCostMap(copy, energyMap, costMap, backMap, withForwardEnergy, false);
+				ImageOps.traceSeam(costMap, backMap, copy.getWidth(), seam);
+				IntegerKernels.computeCostMap(copy, integerEnergyMap, integerCostMap, backMap, withForwardEnergy, false);
+				IntegerKernels.traceSeam(integerCostMap, backMap, copy.getWidth(), integerSeam);
+				if(Arrays.equals(seam, integerSeam)) {
+					identical++;
+				}
+				else if(isCheapestTrace(integerCostMap, seam, copy.getWidth()) && (withForwardEnergy
+						|| energySum(integerEnergyMap, seam) == energySum(integerEnergyMap, integerSeam))) {
+					tied++;
+				}
+				else {
+					different++;
+				}
+				ImageOps.removeVerticalSeam(copy, seam);
+				ImageOps.updateEnergyMapVertical(energyMap, copy, seam, false);
+				IntegerKernels.updateEnergyMapVertical(integerEnergyMap, copy, seam);
+			}
+			report("integerKernels "+imageName+" forward="+withForwardEnergy, maxEnergyError <= ENERGY_TOLERANCE && different == 0,
+					String.format(Locale.ROOT, "energy error %.3g, %d identical, %d tied, %d different seams", maxEnergyError, identical, tied, different));
+		}
+	}
+
+	/**
+	 * Searches as many insertion seams as the image is wide, so most of them are boxed in by the ones found before.
+	 * Every seam returned must be 8-connected and inside the image, and no two may share a pixel.
+	 */
+	private static void checkInsertionSeams(String imageName, Raster image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		double[][] costMap = new double[height][width];
+		ImageOps.computeCostMap(image, ImageOps.computeEnergyMap(image, false), costMap, new byte[height][width], false, false);
+		int[][] seams = ImageOps.findInsertionSeams(costMap, width, width);
+		boolean[][] taken = new boolean[height][width];
+		int broken = 0;
+		int shared = 0;
+		for(int[] seam : seams) {
+			for(int y = 0; y < height; y++) {
+				if(seam[y] < 0 || seam[y] >= width || (y > 0 && Math.abs(seam[y]-seam[y-1]) > 1)) {
+					broken++;
+					break;
+				}
+				shared += taken[y][seam[y]] ? 1 : 0;
+				taken[y][seam[y]] = true;
+			}
+		}
+		report("insertionSeams "+imageName, seams.length > 0 && broken == 0 && shared == 0,
+				String.format(Locale.ROOT, "%d of %d seams, %d broken, %d shared pixels", seams.length, width, broken, shared));
+	}
+
+	/**
+	 * Inserts seams between translucent pixels - the inserted pixels must average the alpha of their neighbors, as they do the color.
+	 */
+	private static void checkInsertedAlpha() {
+		Raster image = new Raster(2, 2);
+		image.getData()[image.rowOffset(0)] = Raster.pack(0x40, 10, 20, 30);
+		image.getData()[image.rowOffset(0)+1] = Raster.pack(0xC0, 30, 40, 50);
+		image.getData()[image.rowOffset(1)] = Raster.pack(0xC0, 30, 40, 50);
+		image.getData()[image.rowOffset(1)+1] = Raster.pack(0x40, 10, 20, 30);
+		int expected = Raster.pack(0x80, 20, 30, 40);
+		Raster vertical = ImageOps.insertVerticalSeams(image, new int[][] {{0, 0}});
+		Raster horizontal = ImageOps.insertHorizontalSeams(image, new int[][] {{0, 0}});
+		boolean passed = vertical.get(1, 0) == expected && vertical.get(1, 1) == expected
+				&& horizontal.get(0, 1) == expected && horizontal.get(1, 1) == expected;
+		report("insertedAlpha", passed, String.format(Locale.ROOT, "inserted %08x, expected %08x", vertical.get(1, 0), expected));
+	}
+
+	/**
+	 * @return Whether a vertical seam is one traceSeam may return for the cost map - it starts at a cell of the last row's minimal cost,
+	 * and every step goes to a neighbor of the minimal cost in the row above, as the backpointers do. Ties may be broken either way.
+	 */
+	private static boolean isCheapestTrace(int[][] costMap, int[] seam, int width) {
+		int last = seam.length-1;
+		if(seam[last] < 0 || seam[last] >= width) {
+			return false;
+		}
+		for(int x = 0; x < width; x++) {
+			if(costMap[last][x] < costMap[last][seam[last]]) {
+				return false;
+			}
+		}
+		for(int y = last; y > 0; y--) {
+			int x = seam[y];
+			int previous = seam[y-1];
+			if(previous < 0 || previous >= width || Math.abs(previous-x) > 1) {
+				return false;
+			}
+			for(int i = Math.max(0, x-1); i <= Math.min(width-1, x+1); i++) {
+				if(costMap[y-1][i] < costMap[y-1][previous]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The sum of the energies along a vertical seam.
+	 */
+	private static long energySum(int[][] energyMap, int[] seam) {
+		long sum = 0;
+		for(int y = 0; y < seam.length; y++) {
+			sum += energyMap[y][seam[y]];
+		}
+		return sum;
+	}
+}
@@ -1,8 +1,21 @@
 package seam_carving;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.BitSet;
+
 public class SeamCarvingMain {
 
+	private static final long CACHE_MEMORY_BYTES = 256L << 20;
+	private static final long CACHE_DISK_BYTES = 1L << 30;
+
 	public static void main(String[] args) {
+		//Server mode: --serve port [carvingThreads [queueCapacity]]
+		if(args.length > 0 && args[0].equals("--serve")) {
+			serve(args);
+			return;
+		}
 		//Interpreting input (assuming legal)
 		String inputPath = args[0];
 		String outputPath = args[4];
@@ -10,14 +23,54 @@ public class SeamCarvingMain {
 		int numOfRows = Integer.parseInt(args[2]);
 		boolean withLocalEntropy = args[3].equals("1");
 		boolean withForwardEnergy = args[3].equals("2");
+		CarvingOptions options = new CarvingOptions(withLocalEntropy, withForwardEnergy);
+		//Optional flags following the positional arguments, eg: --threads 8 --batch 16 --pyramid 2 --corridor 8 --kernels integer --memory low --quality 0.9 --metrics json
+		//Masks are images of the input's size whose non-black pixels are marked: --protect faces.png --remove object.png
+		//Results are cached across runs in a directory, for carvings without masks: --cache cache_dir
+		String metricsFormat = null;
+		String cachePath = null;
+		String protectPath = null;
+		String removePath = null;
+		for(int i = 5; i < args.length; i += 2) {
+			if(i+1 == args.length) {
+				throw new IllegalArgumentException("The flag "+args[i]+" has no value.");
+			}
+			if(args[i].equals("--protect")) {
+				protectPath = args[i+1];
+				continue;
+			}
+			if(args[i].equals("--remove")) {
+				removePath = args[i+1];
+				continue;
+			}
+			if(args[i].equals("--cache")) {
+				cachePath = args[i+1];
+				continue;
+			}
+			if(args[i].equals("--metrics")) {
+				metricsFormat = args[i+1];
+				if(!metricsFormat.equals("json")) {
+					throw new IllegalArgumentException("Unsupported metrics format: "+metricsFormat+".");
+				}
+				continue;
+			}
+			if(!applyFlag(args[i], args[i+1], options)) {
+				throw new IllegalArgumentException("Unknown flag: "+args[i]+".");
+			}
+		}
 		//Seam carving
 		String filename = inputPath.substring(inputPath.lastIndexOf("/")+1, inputPath.length());
 		if(filename.length() == inputPath.length()) {
 			filename = inputPath.substring(inputPath.lastIndexOf("\\")+1, inputPath.length());
 		}
-		System.out.println("Loading image: "+filename+".");
-		Pixel[][] image = ImageLib.loadImage(inputPath);
-		System.out.println("Image loaded successfully.");
+		// The cache hashes the file and decodes it only on a miss, so the image is loaded here only when it is carved directly.
+		boolean cached = cachePath != null && protectPath == null && removePath == null;
+		Raster image = null;
+		if(!cached) {
+			System.out.println("Loading image: "+filename+".");
+			image = ImageLib.loadRaster(inputPath);
+			System.out.println("Image loaded successfully.");
+		}
 		System.out.print("Energy type: ");
 		if(withLocalEntropy) {
 			System.out.println("Regular energy with local entropy.");
@@ -28,16 +81,130 @@ public class SeamCarvingMain {
 		else {
 			System.out.println("Regular energy.");
 		}
-		System.out.println("Changing dimensions from:"+ImageOps.getWidth(image)+"x"+ImageOps.getHeight(image)+" to: "+numOfColumns+"x"+numOfRows+"...");
-		Pixel[][] newImage = ImageOps.changeWidthGeneralSeams(image, numOfColumns, withLocalEntropy, withForwardEnergy);
-		//Pixel[][] newImage = ImageOps.decreaseWidthStraightSeams(image, numOfColumns);
-		System.out.println("Width changed to "+numOfColumns+".");
-		newImage = ImageOps.changeHeightGeneralSeams(newImage, numOfRows, withLocalEntropy, withForwardEnergy);
+		CarvingMask mask = null;
+		if(protectPath != null || removePath != null) {
+			mask = CarvingMask.of(image.getWidth(), image.getHeight(), loadMask(protectPath, image), loadMask(removePath, image));
+		}
+		if(removePath != null) {
+			System.out.println("Removing "+mask.getRemovedPixels()+" masked pixels...");
+			image = ImageOps.removeObject(image, mask, options, false);
+			System.out.println("Object removed, the image is now "+ImageOps.getWidth(image)+"x"+ImageOps.getHeight(image)+".");
+		}
+		// The width pass's energy map carries over to the height pass.
+		Raster newImage;
+		if(cached) {
+			System.out.println("Changing dimensions of "+filename+" to: "+numOfColumns+"x"+numOfRows+"...");
+			CarvingCache cache;
+			try {
+				cache = new CarvingCache(CACHE_MEMORY_BYTES, new File(cachePath), CACHE_DISK_BYTES);
+				newImage = cache.retarget(new File(inputPath), numOfColumns, numOfRows, options);
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			System.out.println("Cache: "+cache.getStats()+".");
+		}
+		else {
+			System.out.println("Changing dimensions from:"+ImageOps.getWidth(image)+"x"+ImageOps.getHeight(image)+" to: "+numOfColumns+"x"+numOfRows+"...");
+			newImage = ImageOps.changeSizeGeneralSeams(image, numOfColumns, numOfRows, options, mask);
+		}
+		//Raster newImage = ImageOps.decreaseWidthStraightSeams(image, numOfColumns);
 		//newImage = ImageOps.decreaseHeightStraightSeams(newImage, numOfRows);
+		System.out.println("Width changed to "+numOfColumns+".");
 		System.out.println("Height changed to "+numOfRows+".");
 		ImageLib.saveImage(newImage,outputPath);
 		
 		System.out.println("Done.");
 		System.out.println("Seam carved image saved at: "+outputPath+".");
+		if(metricsFormat != null) {
+			System.out.println(CarvingMetrics.toJson());
+		}
+	}
+
+	/**
+	 * Starts a CarvingServer, it serves until the JVM is stopped.
+	 * @param args --serve port [carvingThreads [queueCapacity]]
+	 */
+	private static void serve(String[] args) {
+		CarvingServer server = new CarvingServer(Integer.parseInt(args[1]));
+		if(args.length > 2) {
+			server.setCarvingThreads(Integer.parseInt(args[2]));
+		}
+		if(args.length > 3) {
+			server.setQueueCapacity(Integer.parseInt(args[3]));
+		}
+		try {
+			server.start();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		System.out.println("Serving on port "+server.getPort()+": POST /carve?width=W&height=H&energy=E, GET /metrics.");
+		System.out.println("Requests are handled on "+(server.usesVirtualThreads() ? "virtual threads." : "platform threads, virtual threads need Java 21."));
+	}
+
+	/**
+	 * Loads a mask image.
+	 * @param path The mask image's path, or null.
+	 * @param image The image the mask is for.
+	 * @return The pixels the mask marks, or null without a path.
+	 */
+	private static BitSet loadMask(String path, Raster image) {
+		if(path == null) {
+			return null;
+		}
+		Raster maskImage = ImageLib.loadRaster(path);
+		if(maskImage.getWidth() != image.getWidth() || maskImage.getHeight() != image.getHeight()) {
+			throw new IllegalArgumentException("The mask "+path+" is "+maskImage.getWidth()+"x"+maskImage.getHeight()+", the image is "+image.getWidth()+"x"+image.getHeight()+".");
+		}
+		return CarvingMask.pixelsOf(maskImage);
+	}
+
+	/**
+	 * Applies one of the optional carving flags.
+	 * @param flag
+	 * @param value
+	 * @param options
+	 * @return Whether the flag is a carving flag.
+	 */
+	static boolean applyFlag(String flag, String value, CarvingOptions options) {
+		if(flag.equals("--threads")) {
+			ImageOps.setParallelism(Integer.parseInt(value));
+		}
+		else if(flag.equals("--batch")) {
+			options.setSeamsPerPass(Integer.parseInt(value));
+		}
+		else if(flag.equals("--pyramid")) {
+			options.setPyramidLevels(Integer.parseInt(value));
+		}
+		else if(flag.equals("--corridor")) {
+			options.setCorridorRadius(Integer.parseInt(value));
+		}
+		else if(flag.equals("--kernels")) {
+			options.setIntegerKernels(choice(flag, value, "integer", "double"));
+		}
+		else if(flag.equals("--memory")) {
+			options.setLowMemory(choice(flag, value, "low", "normal"));
+		}
+		else if(flag.equals("--quality")) {
+			ImageLib.setJpegQuality(Float.parseFloat(value));
+		}
+		else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Parses the value of a flag with two settings, so a typo is reported instead of silently picking the second one.
+	 * @param flag
+	 * @param value
+	 * @param on The value that turns the feature on.
+	 * @param off The value that turns it off.
+	 * @return Whether the value is on.
+	 */
+	private static boolean choice(String flag, String value, String on, String off) {
+		if(!value.equals(on) && !value.equals(off)) {
+			throw new IllegalArgumentException("The flag "+flag+" is "+on+" or "+off+", got "+value+".");
+		}
+		return value.equals(on);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package seam_carving;
+
+/**
+ * The backpointers of a cost map packed in 2 bits per cell instead of a byte - every cell holds its cheapestDirection()+1.
+ * Line-major like the cost map. The lines keep the length they were created with - a removed seam only shortens their valid part,
+ * since every cost map rewrites all the valid cells.
+ */
+class SeamDirections {
+
+	private static final int CELLS_PER_WORD = 32;
+
+	//props
+	private final long[] words;
+	private final int wordsPerLine;
+
+	//const
+	/**
+	 * @param lines
+	 * @param length The longest a line gets.
+	 */
+	SeamDirections(int lines, int length) {
+		this.wordsPerLine = (length+CELLS_PER_WORD-1)/CELLS_PER_WORD;
+		this.words = new long[Math.multiplyExact(lines, this.wordsPerLine)];
+	}
+
+	//funcs
+	/**
+	 * Packs the backpointers of a line.
+	 * @param line
+	 * @param directions The line's backpointers, -1, 0 or +1.
+	 * @param length The number of valid cells in the line.
+	 */
+	void setLine(int line, byte[] directions, int length) {
+		int offset = line*this.wordsPerLine;
+		for(int i = 0; i < length; offset++) {
+			int end = Math.min(length, i+CELLS_PER_WORD);
+			long word = 0;
+			for(int shift = 0; i < end; i++, shift += 2) {
+				word |= (long)(directions[i]+1) << shift;
+			}
+			this.words[offset] = word;
+		}
+	}
+
+	/**
+	 * @return The backpointer of cell i of a line, -1, 0 or +1.
+	 */
+	int get(int line, int i) {
+		long word = this.words[line*this.wordsPerLine + i/CELLS_PER_WORD];
+		return (int)(word >>> 2*(i%CELLS_PER_WORD) & 3) - 1;
+	}
+}
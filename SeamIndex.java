@@ -0,0 +1,300 @@
+package seam_carving;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A precomputed seam order of an image, for producing it at many widths without carving it again.
+ * The image is carved once down to a minimum width, and every pixel records the step it was removed at -
+ * the image at width W is then the original with the pixels removed before step (originalWidth-W) dropped,
+ * exactly what changeWidthGeneralSeams returns for W with the same options - except that with the pyramid search,
+ * the index is carved one seam per pass and matches changeWidthGeneralSeams with seamsPerPass 1. For enlargement, every pixel of the
+ * seams to insert records the seam's rank, and the image at a larger width W inserts the first (W-originalWidth) of them.
+ * Either way retarget() is a single pass over the original pixels, with no energy or cost map work.
+ *
+ * Enlargement inserts the seams of findInsertionSeams in the original coordinates like changeWidthGeneralSeams, searched
+ * once for the maximal width - they come cheapest first, so every width between the original and the maximal one uses a prefix
+ * of the same seams, and up to getMaxWidth() it is the image changeWidthGeneralSeams returns. Seams boxed in by the ones
+ * before them are dropped, so the index may stop short of the maximal width asked for, at most twice the original width.
+ *
+ * The index is saved gzipped, by default next to the image (see indexFileFor).
+ * Usage: SeamIndex build <image> <min width> <max width> <energy type> [flags]
+ *        SeamIndex apply <image> <width> <output image>
+ */
+public class SeamIndex {
+
+	private static final int MAGIC = 0x53434958; // "SCIX"
+	private static final int VERSION = 1;
+	private static final int NONE = Integer.MAX_VALUE; // The rank of a pixel that is never removed, or not on an inserted seam.
+
+	//props
+	private final int width; // The original image's size.
+	private final int height;
+	private final int minWidth;
+	private final int maxWidth;
+	private final int[] removalRanks; // removalRanks[y*width+x] is the step pixel (x,y) is removed at, or NONE.
+	private final int[] insertionRanks; // insertionRanks[y*width+x] is the rank of the inserted seam through pixel (x,y), or NONE.
+
+	//const
+	private SeamIndex(int width, int height, int minWidth, int maxWidth, int[] removalRanks, int[] insertionRanks) {
+		this.width = width;
+		this.height = height;
+		this.minWidth = minWidth;
+		this.maxWidth = maxWidth;
+		this.removalRanks = removalRanks;
+		this.insertionRanks = insertionRanks;
+	}
+
+	//funcs
+	public int getWidth() {
+		return this.width;
+	}
+	public int getHeight() {
+		return this.height;
+	}
+	public int getMinWidth() {
+		return this.minWidth;
+	}
+
+	/**
+	 * @return The largest width the index can produce. It is at most twice the original width, as every pixel is on at most one inserted seam.
+	 */
+	public int getMaxWidth() {
+		return this.maxWidth;
+	}
+
+	/**
+	 * Carves the image down to minWidth once, recording the removal step of every pixel, and searches the seams for enlarging it up to maxWidth.
+	 * @param image
+	 * @param minWidth
+	 * @param maxWidth
+	 * @param options The options the widths are produced with - retarget() matches changeWidthGeneralSeams with the same options,
+	 *   and one seam per pass when they use the pyramid search.
+	 * @return
+	 */
+	public static SeamIndex build(Raster image, int minWidth, int maxWidth, CarvingOptions options) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if(minWidth < 1 || minWidth > width || maxWidth < width) {
+			throw new IllegalArgumentException("The widths "+minWidth+".."+maxWidth+" do not contain the image's width "+width+".");
+		}
+		int[] removalRanks = new int[width*height];
+		Arrays.fill(removalRanks, NONE);
+		int[][] columns = new int[height][width]; // columns[y][x] is the original column of the pixel now at (x,y).
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				columns[y][x] = x;
+			}
+		}
+		int[] step = {0};
+		int[] currentWidth = {width};
+		ImageOps.changeWidthGeneralSeams(image, minWidth, removalOptions(options), seams -> {
+			for(int y = 0; y < height; y++) {
+				int[] row = columns[y];
+				for(int i = 0; i < seams.length; i++) {
+					removalRanks[y*width+row[seams[i][y]]] = step[0]+i;
+				}
+				// Compact the row past the removed pixels, as the image is.
+				int newX = 0;
+				for(int x = 0; x < currentWidth[0]; x++) {
+					if(removalRanks[y*width+row[x]] == NONE) {
+						row[newX++] = row[x];
+					}
+				}
+			}
+			step[0] += seams.length;
+			currentWidth[0] -= seams.length;
+		});
+
+		int[] insertionRanks = new int[width*height];
+		Arrays.fill(insertionRanks, NONE);
+		int found = 0;
+		if(maxWidth > width) {
+			double[][] costMap = new double[height][width];
+			ImageOps.computeCostMap(image, ImageOps.computeEnergyMap(image, options.withLocalEntropy()), costMap, new byte[height][width], options.withForwardEnergy(), false);
+			int[][] seams = ImageOps.findInsertionSeams(costMap, width, Math.min(width, maxWidth-width));
+			for(int i = 0; i < seams.length; i++) {
+				for(int y = 0; y < height; y++) {
+					insertionRanks[y*width+seams[i][y]] = i;
+				}
+			}
+			found = seams.length;
+		}
+		return new SeamIndex(width, height, minWidth, width+found, removalRanks, insertionRanks);
+	}
+
+	/**
+	 * A batch of seamsPerPass > 1 cut short by the target width still removes the first seams of the full batch,
+	 * but the pyramid searches the last seams of a run one at a time, so with it a run to a smaller width takes other seams.
+	 * @param options
+	 * @return The options the index carves with - the same, with one seam per pass when the pyramid search is on.
+	 */
+	private static CarvingOptions removalOptions(CarvingOptions options) {
+		if(options.pyramidLevels() == 0 || options.seamsPerPass() == 1) {
+			return options;
+		}
+		return new CarvingOptions(options.withLocalEntropy(), options.withForwardEnergy())
+				.setPyramidLevels(options.pyramidLevels())
+				.setCorridorRadius(options.corridorRadius())
+				.setIntegerKernels(options.withIntegerKernels())
+				.setLowMemory(options.withLowMemory());
+	}
+
+	/**
+	 * Produces the image at a new width, in a single pass over the original pixels.
+	 * @param image The original image the index was built for.
+	 * @param newWidth Between getMinWidth() and getMaxWidth().
+	 * @return A new raster of the image at newWidth.
+	 */
+	public Raster retarget(Raster image, int newWidth) {
+		if(image.getWidth() != this.width || image.getHeight() != this.height) {
+			throw new IllegalArgumentException("The index is for a "+this.width+"x"+this.height+" image, got "+image.getWidth()+"x"+image.getHeight()+".");
+		}
+		if(newWidth < this.minWidth || newWidth > this.maxWidth) {
+			throw new IllegalArgumentException("Width "+newWidth+" is outside the index's range "+this.minWidth+".."+this.maxWidth+".");
+		}
+		int[] data = image.getData();
+		Raster newImage = new Raster(newWidth, this.height);
+		int[] newData = newImage.getData();
+		int removed = this.width-newWidth; // Pixels removed at an earlier step are dropped.
+		int inserted = newWidth-this.width; // Pixels on an earlier seam are doubled.
+
+		for(int y = 0, pos = 0; y < this.height; y++) {
+			int offset = image.rowOffset(y);
+			int rankOffset = y*this.width;
+			for(int x = 0; x < this.width; x++) {
+				if(this.removalRanks[rankOffset+x] < removed) {
+					continue;
+				}
+				newData[pos++] = data[offset+x];
+				if(this.insertionRanks[rankOffset+x] < inserted) {
+					// The inserted pixel blends with its right neighbor, as ImageOps.insertVerticalSeams does.
+					newData[pos++] = x+1 < this.width ? blend(data[offset+x], data[offset+x+1]) : data[offset+x];
+				}
+			}
+		}
+		return newImage;
+	}
+
+	private static int blend(int left, int right) {
+		int red = (Raster.red(left) + Raster.red(right))/2;
+		int green = (Raster.green(left) + Raster.green(right))/2;
+		int blue = (Raster.blue(left) + Raster.blue(right))/2;
+		int alpha = (Raster.alpha(left) + Raster.alpha(right))/2;
+		return Raster.pack(alpha, red, green, blue);
+	}
+
+	/**
+	 * @param image
+	 * @return The default index file of an image - next to it, with a .seams suffix.
+	 */
+	public static File indexFileFor(File image) {
+		return new File(image.getPath()+".seams");
+	}
+
+	/**
+	 * Saves the index. Ranks are stored in 2 bytes per pixel when they fit, and 4 otherwise.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		boolean wide = Math.max(this.width-this.minWidth, this.maxWidth-this.width) >= 0xFFFF;
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.width);
+			out.writeInt(this.height);
+			out.writeInt(this.minWidth);
+			out.writeInt(this.maxWidth);
+			out.writeBoolean(wide);
+			writeRanks(out, this.removalRanks, wide);
+			writeRanks(out, this.insertionRanks, wide);
+		}
+	}
+
+	/**
+	 * A rank r is stored as r+1, and NONE as 0.
+	 */
+	private static void writeRanks(DataOutputStream out, int[] ranks, boolean wide) throws IOException {
+		for(int rank : ranks) {
+			int value = rank == NONE ? 0 : rank+1;
+			if(wide) {
+				out.writeInt(value);
+			}
+			else {
+				out.writeChar(value);
+			}
+		}
+	}
+
+	private static void readRanks(DataInputStream in, int[] ranks, boolean wide) throws IOException {
+		for(int i = 0; i < ranks.length; i++) {
+			int value = wide ? in.readInt() : in.readChar();
+			ranks[i] = value == 0 ? NONE : value-1;
+		}
+	}
+
+	/**
+	 * Loads an index saved by save().
+	 * @param file
+	 * @return
+	 * @throws IOException If the file is not a seam index.
+	 */
+	public static SeamIndex load(File file) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file+" is not a seam index.");
+			}
+			int width = in.readInt();
+			int height = in.readInt();
+			int minWidth = in.readInt();
+			int maxWidth = in.readInt();
+			boolean wide = in.readBoolean();
+			int[] removalRanks = new int[width*height];
+			int[] insertionRanks = new int[width*height];
+			readRanks(in, removalRanks, wide);
+			readRanks(in, insertionRanks, wide);
+			return new SeamIndex(width, height, minWidth, maxWidth, removalRanks, insertionRanks);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean build = args.length >= 5 && args[0].equals("build");
+		if(!build && !(args.length == 4 && args[0].equals("apply"))) {
+			throw new IllegalArgumentException("Usage: SeamIndex build <image> <min width> <max width> <energy type> [flags]"
+					+" | SeamIndex apply <image> <width> <output image>");
+		}
+		File imageFile = new File(args[1]);
+		if(build) {
+			CarvingOptions options = new CarvingOptions(args[4].equals("1"), args[4].equals("2"));
+			for(int i = 5; i < args.length; i += 2) {
+				if(i+1 == args.length) {
+					throw new IllegalArgumentException("The flag "+args[i]+" has no value.");
+				}
+				if(!SeamCarvingMain.applyFlag(args[i], args[i+1], options)) {
+					throw new IllegalArgumentException("Unknown flag: "+args[i]+".");
+				}
+			}
+			Raster image = ImageLib.readRaster(imageFile);
+			SeamIndex index = build(image, Integer.parseInt(args[2]), Integer.parseInt(args[3]), options);
+			index.save(indexFileFor(imageFile));
+			System.out.println("Seam index for widths "+index.getMinWidth()+".."+index.getMaxWidth()+" saved at: "+indexFileFor(imageFile)+".");
+		}
+		else {
+			Raster image = ImageLib.readRaster(imageFile);
+			SeamIndex index = load(indexFileFor(imageFile));
+			ImageLib.writeRaster(index.retarget(image, Integer.parseInt(args[2])), new File(args[3]));
+			System.out.println("Image at width "+args[2]+" saved at: "+args[3]+".");
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,159 @@
+package seam_carving;
+
+/**
+ * An image pyramid for approximate seam search on large images.
+ * The cheapest seam is searched on the coarsest level with the full dynamic programming of ImageOps.computeCostMap,
+ * and is then refined one level at a time down to the full resolution - on every finer level the seam is upsampled,
+ * and the cost map is computed only inside a corridor of corridorRadius cells on each side of it.
+ * Every coarser level averages the 2x2 blocks of the level below it - the energy map, and the pixels when forward energy is used.
+ *
+ * The seam found is the cheapest one inside the corridors, which is not always the exact cheapest seam of the image
+ * (see ImageOps.pyramidSeamError for measuring the difference).
+ */
+class SeamPyramid {
+
+	private static final int MIN_LEVEL_SIZE = 16; // The smallest width or height a level is downsampled to.
+
+	//props
+	private final int corridorRadius;
+	private final boolean horizontal;
+	private final boolean withForwardEnergy;
+	// Level 0 is the carved image with the caller's buffers, set on every search. Level l+1 is level l downsampled by 2.
+	private final Raster[] images;
+	private final double[][][] energyMaps;
+	private final double[][][] costMaps; // In the same layout as ImageOps.computeCostMap's, column-major for horizontal seams.
+	private final byte[][][] backMaps;
+	private final int[][] seams;
+	private double seamCost;
+
+	//const
+	/**
+	 * Allocates the buffers of the coarser levels once, for an image that only shrinks afterwards.
+	 * @param image
+	 * @param levels The number of downsampled levels, fewer are used when the image is too small for them.
+	 * @param corridorRadius
+	 * @param horizontal Whether to search horizontal seams.
+	 * @param withForwardEnergy
+	 */
+	SeamPyramid(Raster image, int levels, int corridorRadius, boolean horizontal, boolean withForwardEnergy) {
+		int width = ImageOps.getWidth(image);
+		int height = ImageOps.getHeight(image);
+		int count = 0;
+		while(count < levels && Math.min(width, height) >= 2*MIN_LEVEL_SIZE) {
+			width = (width+1)/2;
+			height = (height+1)/2;
+			count++;
+		}
+		this.corridorRadius = corridorRadius;
+		this.horizontal = horizontal;
+		this.withForwardEnergy = withForwardEnergy;
+		this.images = new Raster[count+1];
+		this.energyMaps = new double[count+1][][];
+		this.costMaps = new double[count+1][][];
+		this.backMaps = new byte[count+1][][];
+		this.seams = new int[count+1][];
+		width = ImageOps.getWidth(image);
+		height = ImageOps.getHeight(image);
+		for(int l = 1; l <= count; l++) {
+			width = (width+1)/2;
+			height = (height+1)/2;
+			int lines = horizontal ? width : height;
+			int length = horizontal ? height : width;
+			this.images[l] = new Raster(width, height);
+			this.energyMaps[l] = new double[height][width];
+			this.costMaps[l] = new double[lines][length];
+			this.backMaps[l] = new byte[lines][length];
+			this.seams[l] = new int[lines];
+		}
+	}
+
+	//funcs
+	/**
+	 * Finds a seam of the image through the pyramid.
+	 * @param image The image, of the size the pyramid was created for or smaller in the carved direction.
+	 * @param energyMap The image's energy map.
+	 * @param costMap The full resolution cost map buffer, only the cells inside the corridor are computed.
+	 * @param backMap The full resolution backpointer buffer.
+	 * @param seam Receives the seam.
+	 */
+	void findSeam(Raster image, double[][] energyMap, double[][] costMap, byte[][] backMap, int[] seam) {
+		this.images[0] = image;
+		this.energyMaps[0] = energyMap;
+		this.costMaps[0] = costMap;
+		this.backMaps[0] = backMap;
+		this.seams[0] = seam;
+
+		int top = 0;
+		while(top < this.images.length-1 && Math.min(ImageOps.getWidth(this.images[top]), ImageOps.getHeight(this.images[top])) >= 2*MIN_LEVEL_SIZE) {
+			downsample(top);
+			top++;
+		}
+		Raster topImage = this.images[top];
+		ImageOps.computeCostMap(topImage, this.energyMaps[top], this.costMaps[top], this.backMaps[top], this.withForwardEnergy, this.horizontal);
+		ImageOps.traceSeam(this.costMaps[top], this.backMaps[top], this.horizontal ? ImageOps.getHeight(topImage) : ImageOps.getWidth(topImage), this.seams[top]);
+		for(int l = top-1; l >= 0; l--) {
+			refine(l);
+		}
+		this.seamCost = costMap[seam.length-1][seam[seam.length-1]];
+	}
+
+	/**
+	 * @return The accumulated cost of the last seam found, at full resolution.
+	 */
+	double getSeamCost() {
+		return this.seamCost;
+	}
+
+	/**
+	 * Computes level+1 from level - every cell is the average of a 2x2 block, edge cells are repeated on odd sizes.
+	 * @param level
+	 */
+	private void downsample(int level) {
+		Raster image = this.images[level];
+		Raster coarse = this.images[level+1];
+		double[][] energyMap = this.energyMaps[level];
+		double[][] coarseEnergyMap = this.energyMaps[level+1];
+		int width = ImageOps.getWidth(image);
+		int height = ImageOps.getHeight(image);
+		int coarseWidth = (width+1)/2;
+		int coarseHeight = (height+1)/2;
+		coarse.setWidth(coarseWidth);
+		coarse.setHeight(coarseHeight);
+
+		for(int y = 0; y < coarseHeight; y++) {
+			int y0 = 2*y;
+			int y1 = Math.min(height-1, y0+1);
+			for(int x = 0; x < coarseWidth; x++) {
+				int x0 = 2*x;
+				int x1 = Math.min(width-1, x0+1);
+				coarseEnergyMap[y][x] = (energyMap[y0][x0] + energyMap[y0][x1] + energyMap[y1][x0] + energyMap[y1][x1])/4;
+				if(this.withForwardEnergy) { // The pixels are only read by the forward energy terms.
+					int p00 = image.get(x0, y0);
+					int p01 = image.get(x1, y0);
+					int p10 = image.get(x0, y1);
+					int p11 = image.get(x1, y1);
+					int red = (Raster.red(p00) + Raster.red(p01) + Raster.red(p10) + Raster.red(p11))/4;
+					int green = (Raster.green(p00) + Raster.green(p01) + Raster.green(p10) + Raster.green(p11))/4;
+					int blue = (Raster.blue(p00) + Raster.blue(p01) + Raster.blue(p10) + Raster.blue(p11))/4;
+					coarse.set(x, y, Raster.pack(red, green, blue));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Refines the seam of level+1 into a seam of level, searching only a corridor around the upsampled seam.
+	 * @param level
+	 */
+	private void refine(int level) {
+		Raster image = this.images[level];
+		int[] coarseSeam = this.seams[level+1];
+		int[] seam = this.seams[level];
+		int lines = this.horizontal ? ImageOps.getWidth(image) : ImageOps.getHeight(image);
+		for(int line = 0; line < lines; line++) {
+			seam[line] = 2*coarseSeam[line/2];
+		}
+		ImageOps.findCorridorSeam(image, this.energyMaps[level], this.costMaps[level], this.backMaps[level], seam, this.corridorRadius,
+				0, null, this.withForwardEnergy, this.horizontal, seam);
+	}
+}
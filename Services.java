@@ -1,22 +1,178 @@
 package seam_carving;
 
-import static java.util.Comparator.comparing;
-
-import java.util.stream.IntStream;
+import java.util.BitSet;
 
+/**
+ * Selection and set utilities over primitive arrays, for the seam searches - nothing is boxed or fully sorted.
+ * Values are ordered as Double.compare orders them (NaN last), and equal values by their index, so every selection is deterministic.
+ * The index arrays the selections work on are per-thread scratch buffers, reused while they are large enough.
+ */
 public class Services {
-	
+
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+	private static final ThreadLocal<int[]> INDEX_BUFFER = new ThreadLocal<int[]>(); // The last index array used on this thread.
+
 	public static boolean arrayContains(int [] a, final int value) {
-		return IntStream.of(a).anyMatch(x -> x == value);
+		for(int x : a) {
+			if(x == value) {
+				return true;
+			}
+		}
+		return false;
 	}
-	
+
+	/**
+	 * @param indices
+	 * @return A set of the indices, for constant time membership tests in place of arrayContains.
+	 */
+	public static BitSet indexSet(int[] indices) {
+		BitSet set = new BitSet();
+		for(int index : indices) {
+			set.set(index);
+		}
+		return set;
+	}
+
 	//indices of the n min values
 	public static int[] bottomN(final double[] input, final int n) {
-	    return IntStream.range(0, input.length)
-	            .boxed()
-	            .sorted(comparing(i -> input[i]))
-	            .mapToInt(i -> i)
-	            .limit(n)
-	            .toArray();
+	    return bottomN(input, input.length, n);
+	}
+
+	//indices of the n min values among the first length values, from the lowest to the highest value - in O(length + n log n)
+	public static int[] bottomN(final double[] input, final int length, final int n) {
+		int k = Math.min(n, length);
+		if(k <= 0) {
+			return new int[0];
+		}
+		int[] indices = indexBuffer(length);
+		for(int i = 0; i < length; i++) {
+			indices[i] = i;
+		}
+		select(input, indices, 0, length-1, k-1);
+		sort(input, indices, 0, k-1);
+		int[] result = new int[k];
+		System.arraycopy(indices, 0, result, 0, k);
+		return result;
+	}
+
+	/**
+	 * @param input
+	 * @param from
+	 * @param to Exclusive.
+	 * @return The index of the min value among input[from..to), the first one on a tie.
+	 */
+	public static int indexOfMin(final double[] input, int from, int to) {
+		int minIndex = from;
+		for(int i = from+1; i < to; i++) {
+			if(Double.compare(input[i], input[minIndex]) < 0) {
+				minIndex = i;
+			}
+		}
+		return minIndex;
+	}
+
+	private static int[] indexBuffer(int length) {
+		int[] buffer = INDEX_BUFFER.get();
+		if(buffer == null || buffer.length < length) {
+			buffer = new int[length];
+			INDEX_BUFFER.set(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * @return Whether index a comes before index b - by value, then by index.
+	 */
+	private static boolean before(double[] input, int a, int b) {
+		int c = Double.compare(input[a], input[b]);
+		return c < 0 || (c == 0 && a < b);
+	}
+
+	/**
+	 * Rearranges indices[from..to] so that indices[k] is the one that would be there if they were sorted,
+	 * with the ones before it preceding it and the ones after it following it (quickselect).
+	 */
+	private static void select(double[] input, int[] indices, int from, int to, int k) {
+		while(to-from >= INSERTION_SORT_THRESHOLD) {
+			int p = partition(input, indices, from, to);
+			if(p == k) {
+				return;
+			}
+			if(p < k) {
+				from = p+1;
+			}
+			else {
+				to = p-1;
+			}
+		}
+		insertionSort(input, indices, from, to);
+	}
+
+	/**
+	 * Sorts indices[from..to] (quicksort).
+	 */
+	private static void sort(double[] input, int[] indices, int from, int to) {
+		while(to-from >= INSERTION_SORT_THRESHOLD) {
+			int p = partition(input, indices, from, to);
+			if(p-from < to-p) { // Recurses on the smaller side, so the stack stays logarithmic.
+				sort(input, indices, from, p-1);
+				from = p+1;
+			}
+			else {
+				sort(input, indices, p+1, to);
+				to = p-1;
+			}
+		}
+		insertionSort(input, indices, from, to);
+	}
+
+	/**
+	 * Partitions indices[from..to] around the median of its first, middle and last entries.
+	 * @return The pivot's final position.
+	 */
+	private static int partition(double[] input, int[] indices, int from, int to) {
+		int middle = (from+to) >>> 1;
+		if(before(input, indices[middle], indices[from])) {
+			swap(indices, middle, from);
+		}
+		if(before(input, indices[to], indices[from])) {
+			swap(indices, to, from);
+		}
+		if(before(input, indices[to], indices[middle])) {
+			swap(indices, to, middle);
+		}
+		swap(indices, middle, to-1); // indices[from] <= pivot <= indices[to], so both ends are sentinels.
+		int pivot = indices[to-1];
+		int i = from;
+		int j = to-1;
+		while(true) {
+			while(before(input, indices[++i], pivot)) {
+			}
+			while(before(input, pivot, indices[--j])) {
+			}
+			if(i >= j) {
+				break;
+			}
+			swap(indices, i, j);
+		}
+		swap(indices, i, to-1);
+		return i;
+	}
+
+	private static void insertionSort(double[] input, int[] indices, int from, int to) {
+		for(int i = from+1; i <= to; i++) {
+			int index = indices[i];
+			int j = i-1;
+			for(; j >= from && before(input, index, indices[j]); j--) {
+				indices[j+1] = indices[j];
+			}
+			indices[j+1] = index;
+		}
+	}
+
+	private static void swap(int[] indices, int i, int j) {
+		int index = indices[i];
+		indices[i] = indices[j];
+		indices[j] = index;
 	}
 }
@@ -0,0 +1,221 @@
+package seam_carving;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The stages of SeamCarvingBenchmark as JMH benchmarks, on the same synthetic images - JMH adds forked JVMs, warmup
+ * until steady state and error bounds. The untimed preparation of each stage is a setup here: buffers the stages only write
+ * are prepared once per trial, and the inputs a stage changes are prepared again before every invocation (see Fresh).
+ * The pyramid error and the integer kernel check stay with SeamCarvingBenchmark and SeamCarvingCheck, they are not timings.
+ *
+ * The default sizes are SeamCarvingBenchmark's, 0.5, 2, 12 and 48 MP - the forks get an 8 GB heap for the 48 MP maps,
+ * on smaller machines pick the sizes with eg. -p megapixels=0.5,2. Results are written as JSON with -rf json, for comparing releases:
+ *   mvn -Pjmh package && java -jar target/benchmarks.jar -rf json -rff jmh-results.json [-p megapixels=0.5,2]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SeamCarvingJmh {
+
+	private static final CarvingOptions PYRAMID = new CarvingOptions().setPyramidLevels(2).setCorridorRadius(4);
+
+	@Param({"0.5", "2", "12", "48"})
+	public double megapixels;
+
+	//props
+	private Raster image;
+	private double[][] energyMap;
+	private int[][] integerEnergyMap;
+	private double[][] costMap; // Written by the cost map stages.
+	private byte[][] backMap;
+	private double[][] horizontalCostMap;
+	private byte[][] horizontalBackMap;
+	private int[][] integerCostMap;
+	private double[][] rollingCostMap;
+	private byte[][] rollingBackMap;
+	private SeamDirections directions;
+	private double[][] tracedCostMap; // The complete cost map traceSeam walks.
+	private byte[][] tracedBackMap;
+	private int[] seam;
+	private SeamPyramid pyramid;
+	private int[] verticalSeam;
+	private int[] horizontalSeam;
+	private int[][] insertionSeams;
+	private File loadFile;
+	private File saveFile;
+
+	/**
+	 * The inputs of the stages that change them, fresh for every invocation.
+	 */
+	@State(Scope.Thread)
+	public static class Fresh {
+		Raster vertical;
+		Raster horizontal;
+		double[][] costMap;
+
+		@Setup(Level.Invocation)
+		public void setup(SeamCarvingJmh benchmark) {
+			this.vertical = benchmark.image.copy();
+			this.horizontal = benchmark.image.copy();
+			this.costMap = new double[benchmark.tracedCostMap.length][];
+			for(int y = 0; y < this.costMap.length; y++) {
+				this.costMap[y] = benchmark.tracedCostMap[y].clone();
+			}
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.image = SeamCarvingBenchmark.syntheticImage(this.megapixels);
+		int width = this.image.getWidth();
+		int height = this.image.getHeight();
+		this.energyMap = ImageOps.computeEnergyMap(this.image, false);
+		this.integerEnergyMap = IntegerKernels.computeEnergyMap(this.image);
+		this.costMap = new double[height][width];
+		this.backMap = new byte[height][width];
+		this.horizontalCostMap = new double[width][height];
+		this.horizontalBackMap = new byte[width][height];
+		this.integerCostMap = new int[height][width];
+		this.rollingCostMap = ImageOps.rollingCostMap(height, width);
+		this.rollingBackMap = ImageOps.rollingBackMap(height, width);
+		this.directions = new SeamDirections(height, width);
+		this.tracedCostMap = new double[height][width];
+		this.tracedBackMap = new byte[height][width];
+		ImageOps.computeCostMap(this.image, this.energyMap, this.tracedCostMap, this.tracedBackMap, false, false);
+		this.seam = new int[height];
+		this.pyramid = new SeamPyramid(this.image, PYRAMID.pyramidLevels(), PYRAMID.corridorRadius(), false, false);
+		this.verticalSeam = SeamCarvingBenchmark.diagonalSeam(height, width);
+		this.horizontalSeam = SeamCarvingBenchmark.diagonalSeam(width, height);
+		double[][] insertionCostMap = new double[height][width];
+		ImageOps.computeCostMap(this.image, this.energyMap, insertionCostMap, new byte[height][width], false, false);
+		this.insertionSeams = ImageOps.findInsertionSeams(insertionCostMap, width, Math.max(1, width/2));
+		this.loadFile = File.createTempFile("benchmark", ".jpg");
+		ImageLib.saveImage(this.image, this.loadFile.getPath());
+		this.saveFile = File.createTempFile("benchmark", ".jpg");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.loadFile.delete();
+		this.saveFile.delete();
+	}
+
+	//funcs
+	@Benchmark
+	public double[][] energyMap() {
+		return ImageOps.computeEnergyMap(this.image, false);
+	}
+
+	@Benchmark
+	public double[][] energyMapLocalEntropy() {
+		return ImageOps.computeEnergyMap(this.image, true);
+	}
+
+	@Benchmark
+	public int[][] energyMapInteger() {
+		return IntegerKernels.computeEnergyMap(this.image);
+	}
+
+	@Benchmark
+	public double[][] costMap() {
+		ImageOps.computeCostMap(this.image, this.energyMap, this.costMap, this.backMap, false, false);
+		return this.costMap;
+	}
+
+	@Benchmark
+	public double[][] costMapForwardEnergy() {
+		ImageOps.computeCostMap(this.image, this.energyMap, this.costMap, this.backMap, true, false);
+		return this.costMap;
+	}
+
+	@Benchmark
+	public double[][] costMapHorizontal() {
+		ImageOps.computeCostMap(this.image, this.energyMap, this.horizontalCostMap, this.horizontalBackMap, false, true);
+		return this.horizontalCostMap;
+	}
+
+	@Benchmark
+	public int[][] costMapInteger() {
+		IntegerKernels.computeCostMap(this.image, this.integerEnergyMap, this.integerCostMap, this.backMap, false, false);
+		return this.integerCostMap;
+	}
+
+	@Benchmark
+	public double[][] costMapLowMemory() {
+		ImageOps.computeCostMap(this.image, this.energyMap, this.rollingCostMap, this.rollingBackMap, false, null, this.directions, false);
+		return this.rollingCostMap;
+	}
+
+	@Benchmark
+	public int[] traceSeam() {
+		ImageOps.traceSeam(this.tracedCostMap, this.tracedBackMap, this.image.getWidth(), this.seam);
+		return this.seam;
+	}
+
+	@Benchmark
+	public int[][] findKSeams(Fresh fresh) {
+		return ImageOps.findKSeams(fresh.costMap, this.image.getWidth(), Math.max(1, this.image.getWidth()/10));
+	}
+
+	@Benchmark
+	public int[] pyramidSeamSearch() {
+		this.pyramid.findSeam(this.image, this.energyMap, this.costMap, this.backMap, this.seam);
+		return this.seam;
+	}
+
+	@Benchmark
+	public Raster removeVerticalSeam(Fresh fresh) {
+		ImageOps.removeVerticalSeam(fresh.vertical, this.verticalSeam);
+		return fresh.vertical;
+	}
+
+	@Benchmark
+	public Raster removeHorizontalSeam(Fresh fresh) {
+		ImageOps.removeHorizontalSeam(fresh.horizontal, this.horizontalSeam);
+		return fresh.horizontal;
+	}
+
+	@Benchmark
+	public Raster addVerticalSeam() {
+		return ImageOps.addVerticalSeam(this.image, this.verticalSeam);
+	}
+
+	@Benchmark
+	public Raster addHorizontalSeam() {
+		return ImageOps.addHorizontalSeam(this.image, this.horizontalSeam);
+	}
+
+	@Benchmark
+	public Raster insertVerticalSeams() {
+		return ImageOps.insertVerticalSeams(this.image, this.insertionSeams);
+	}
+
+	@Benchmark
+	public Raster loadImage() {
+		return ImageLib.loadRaster(this.loadFile.getPath());
+	}
+
+	@Benchmark
+	public void saveImage() {
+		ImageLib.saveImage(this.image, this.saveFile.getPath());
+	}
+}